@@ -0,0 +1,288 @@
+package ch.fhnw.dlcopy;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of direct ByteBuffers that is shared by all copy, hash and verify
+ * operations. The pool has a global byte budget for all of its buffers (the
+ * ones in use and the idle ones), so that the memory use doesn't grow with
+ * the number of storage devices processed at the same time. When the budget
+ * is exhausted, callers wait until other callers release their buffers.
+ * Buffers are page-aligned if the Java runtime supports it (Java 9 and
+ * newer). The budget counts the size of the allocated memory, including the
+ * extra page needed for aligning a buffer.
+ * <p>
+ * The budget is soft: Java has no API for freeing direct memory, therefore
+ * idle buffers that are evicted to make room for other capacities are only
+ * dropped and their memory is freed later by the garbage collector. Memory
+ * used outside of the Java runtime (e.g. by external processes or the
+ * FileCopier library) is not covered by the budget.
+ */
+public class BufferPool {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(BufferPool.class.getName());
+    private static final int PAGE_SIZE = 4096;
+    private static final long DEFAULT_BUDGET = 64L * DLCopy.MEGA;
+    private static final BufferPool INSTANCE = new BufferPool(DEFAULT_BUDGET);
+    private static final Method ALIGNED_SLICE = getAlignedSliceMethod();
+    // cleared when aligning a buffer fails
+    private static volatile boolean pageAligned = ALIGNED_SLICE != null;
+
+    // the idle buffers, grouped by capacity
+    private final Map<Integer, Deque<ByteBuffer>> idleBuffers
+            = new TreeMap<>();
+    private long budget;
+    private long allocatedBytes;
+    private long usedBytes;
+    private long maxUsedBytes;
+    private long acquireCount;
+    private long waitCount;
+    private long waitTime;
+    private long maxWaitTime;
+
+    /**
+     * creates a new BufferPool
+     *
+     * @param budget the maximum number of bytes of all buffers
+     */
+    public BufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * returns the BufferPool shared by all operations
+     *
+     * @return the BufferPool shared by all operations
+     */
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * returns <tt>true</tt> if the buffers are aligned to the page size (as
+     * needed for direct I/O), otherwise <tt>false</tt>
+     *
+     * @return <tt>true</tt> if the buffers are aligned to the page size,
+     * otherwise <tt>false</tt>
+     */
+    public static boolean isPageAligned() {
+        return pageAligned;
+    }
+
+    /**
+     * sets the maximum number of bytes of all buffers
+     *
+     * @param budget the maximum number of bytes of all buffers
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        notifyAll();
+    }
+
+    /**
+     * returns the maximum number of bytes of all buffers
+     *
+     * @return the maximum number of bytes of all buffers
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * takes a buffer from the pool, blocks while the budget is exhausted
+     *
+     * @param capacity the capacity of the buffer
+     * @return a cleared buffer with the given capacity
+     * @throws InterruptedException if waiting for the buffer was interrupted
+     */
+    public synchronized ByteBuffer acquire(int capacity)
+            throws InterruptedException {
+        acquireCount++;
+        long start = 0;
+        while (true) {
+            Deque<ByteBuffer> idle = idleBuffers.get(capacity);
+            if ((idle != null) && !idle.isEmpty()) {
+                ByteBuffer buffer = idle.pop();
+                buffer.clear();
+                use(capacity, start);
+                return buffer;
+            }
+            long size = getAllocationSize(capacity);
+            if (allocatedBytes + size > budget) {
+                freeIdleBuffers(allocatedBytes + size - budget);
+            }
+            // A single buffer is always possible, otherwise a buffer larger
+            // than the budget would block forever.
+            if ((usedBytes == 0) || (allocatedBytes + size <= budget)) {
+                allocatedBytes += size;
+                use(capacity, start);
+                return allocate(capacity);
+            }
+            if (start == 0) {
+                start = System.nanoTime();
+                waitCount++;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * takes a buffer from the pool for an I/O operation, blocks while the
+     * budget is exhausted
+     *
+     * @param capacity the capacity of the buffer
+     * @return a cleared buffer with the given capacity
+     * @throws InterruptedIOException if waiting for the buffer was
+     * interrupted (the interrupt status of the thread is kept)
+     */
+    public ByteBuffer acquireForIO(int capacity)
+            throws InterruptedIOException {
+        try {
+            return acquire(capacity);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while waiting for a buffer");
+        }
+    }
+
+    /**
+     * returns a buffer to the pool
+     *
+     * @param buffer the buffer (taken from this pool with
+     * {@link #acquire(int)})
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        usedBytes -= getAllocationSize(capacity);
+        Deque<ByteBuffer> idle = idleBuffers.get(capacity);
+        if (idle == null) {
+            idle = new ArrayDeque<>();
+            idleBuffers.put(capacity, idle);
+        }
+        idle.push(buffer);
+        notifyAll();
+    }
+
+    /**
+     * returns the number of bytes of all buffers currently in use
+     *
+     * @return the number of bytes of all buffers currently in use
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * returns the number of bytes of all buffers (in use and idle)
+     *
+     * @return the number of bytes of all buffers
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * returns the number of times a caller had to wait for a buffer
+     *
+     * @return the number of times a caller had to wait for a buffer
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * returns the time all callers waited for buffers
+     *
+     * @return the time all callers waited for buffers in milliseconds
+     */
+    public synchronized long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime);
+    }
+
+    /**
+     * returns a short summary of the pool occupancy and the wait times
+     *
+     * @return a short summary of the pool occupancy and the wait times
+     */
+    public synchronized String getStatistics() {
+        return "budget " + budget + " byte, allocated " + allocatedBytes
+                + " byte, in use " + usedBytes + " byte (max " + maxUsedBytes
+                + " byte), " + acquireCount + " buffers acquired, waited "
+                + waitCount + " times for "
+                + TimeUnit.NANOSECONDS.toMillis(waitTime) + " ms (max "
+                + TimeUnit.NANOSECONDS.toMillis(maxWaitTime) + " ms)";
+    }
+
+    private void use(int capacity, long start) {
+        usedBytes += getAllocationSize(capacity);
+        maxUsedBytes = Math.max(maxUsedBytes, usedBytes);
+        if (start != 0) {
+            long time = System.nanoTime() - start;
+            waitTime += time;
+            maxWaitTime = Math.max(maxWaitTime, time);
+        }
+    }
+
+    private void freeIdleBuffers(long byteCount) {
+        // the memory of the dropped buffers is freed by the garbage collector
+        // (see the soft budget in the class description)
+        long freedBytes = 0;
+        for (Iterator<Deque<ByteBuffer>> iterator
+                = idleBuffers.values().iterator();
+                iterator.hasNext() && (freedBytes < byteCount);) {
+            Deque<ByteBuffer> idle = iterator.next();
+            while (!idle.isEmpty() && (freedBytes < byteCount)) {
+                freedBytes += getAllocationSize(idle.pop().capacity());
+            }
+        }
+        allocatedBytes -= freedBytes;
+    }
+
+    private static long getAllocationSize(int capacity) {
+        // Aligned buffers are sliced from a buffer that is one page larger.
+        // This doesn't depend on pageAligned, so that the buffers allocated
+        // before a failed alignment are released with the same size (the
+        // budget is then one page too large for the unaligned buffers).
+        return (ALIGNED_SLICE == null) ? capacity : capacity + PAGE_SIZE;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        if (!pageAligned) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity + PAGE_SIZE);
+        try {
+            ByteBuffer slice
+                    = (ByteBuffer) ALIGNED_SLICE.invoke(buffer, PAGE_SIZE);
+            slice.limit(capacity);
+            return slice.slice();
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            // direct I/O must not be used with the unaligned buffers
+            LOGGER.log(Level.WARNING, "page-aligned buffers are disabled", ex);
+            pageAligned = false;
+            return ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    private static Method getAlignedSliceMethod() {
+        try {
+            return ByteBuffer.class.getMethod("alignedSlice", int.class);
+        } catch (NoSuchMethodException ex) {
+            LOGGER.info("page-aligned buffers are not supported");
+            return null;
+        }
+    }
+}
@@ -14,6 +14,8 @@ public class CopyJobsInfo {
     private final CopyJob efiCopyJob;
     private final CopyJob exchangeEfiCopyJob;
     private final CopyJob systemCopyJob;
+    private final String destinationExchangePath;
+    private final CopyJob exchangeCopyJob;
 
     /**
      * creates a new CopyJobsInfo
@@ -30,11 +32,37 @@ public class CopyJobsInfo {
     public CopyJobsInfo(String destinationEfiPath,
             String destinationSystemPath, CopyJob efiCopyJob,
             CopyJob exchangeEfiCopyJob, CopyJob systemCopyJob) {
+        this(destinationEfiPath, destinationSystemPath, efiCopyJob,
+                exchangeEfiCopyJob, systemCopyJob, null, null);
+    }
+
+    /**
+     * creates a new CopyJobsInfo
+     *
+     * @param destinationEfiPath the path to the destination EFI partition
+     * mount point
+     * @param destinationSystemPath the path to the destination system partition
+     * mount point
+     * @param efiCopyJob the CopyJob for the EFI partition
+     * @param exchangeEfiCopyJob the CopyJob for EFI files on the exchange
+     * partition
+     * @param systemCopyJob the CopyJob for the system partition
+     * @param destinationExchangePath the path to the destination exchange
+     * partition mount point or <tt>null</tt> if it is not mounted
+     * @param exchangeCopyJob the CopyJob for the exchange partition or
+     * <tt>null</tt> if the exchange partition is not copied
+     */
+    public CopyJobsInfo(String destinationEfiPath,
+            String destinationSystemPath, CopyJob efiCopyJob,
+            CopyJob exchangeEfiCopyJob, CopyJob systemCopyJob,
+            String destinationExchangePath, CopyJob exchangeCopyJob) {
         this.destinationEfiPath = destinationEfiPath;
         this.destinationSystemPath = destinationSystemPath;
         this.efiCopyJob = efiCopyJob;
         this.exchangeEfiCopyJob = exchangeEfiCopyJob;
         this.systemCopyJob = systemCopyJob;
+        this.destinationExchangePath = destinationExchangePath;
+        this.exchangeCopyJob = exchangeCopyJob;
     }
 
     /**
@@ -81,4 +109,37 @@ public class CopyJobsInfo {
     public CopyJob getSystemCopyJob() {
         return systemCopyJob;
     }
+
+    /**
+     * returns the path to the destination exchange partition mount point or
+     * <tt>null</tt> if it is not mounted
+     *
+     * @return the path to the destination exchange partition mount point or
+     * <tt>null</tt> if it is not mounted
+     */
+    public String getDestinationExchangePath() {
+        return destinationExchangePath;
+    }
+
+    /**
+     * returns the CopyJob for the exchange partition or <tt>null</tt> if the
+     * exchange partition is not copied
+     *
+     * @return the CopyJob for the exchange partition or <tt>null</tt> if the
+     * exchange partition is not copied
+     */
+    public CopyJob getExchangeCopyJob() {
+        return exchangeCopyJob;
+    }
+
+    /**
+     * returns all CopyJobs (some of them may be <tt>null</tt>)
+     *
+     * @return all CopyJobs (some of them may be <tt>null</tt>)
+     */
+    public CopyJob[] getCopyJobs() {
+        return new CopyJob[]{
+            exchangeCopyJob, exchangeEfiCopyJob, efiCopyJob, systemCopyJob
+        };
+    }
 }
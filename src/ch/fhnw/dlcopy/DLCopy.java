@@ -7,7 +7,6 @@ import ch.fhnw.filecopier.FileCopier;
 import ch.fhnw.filecopier.Source;
 import ch.fhnw.util.DbusTools;
 import ch.fhnw.util.LernstickFileTools;
-import ch.fhnw.util.MountInfo;
 import ch.fhnw.util.Partition;
 import ch.fhnw.util.ProcessExecutor;
 import ch.fhnw.util.StorageDevice;
@@ -16,17 +15,22 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,10 +72,20 @@ public class DLCopy {
 
     private static final Logger LOGGER
             = Logger.getLogger(DLCopy.class.getName());
-    private static final ProcessExecutor PROCESS_EXECUTOR
-            = new ProcessExecutor();
+    // ProcessExecutor keeps the output of the last process, therefore every
+    // thread needs its own instance when storage devices are processed
+    // concurrently
+    private static final ThreadLocal<ProcessExecutor> PROCESS_EXECUTOR
+            = new ThreadLocal<ProcessExecutor>() {
+        @Override
+        protected ProcessExecutor initialValue() {
+            return new ProcessExecutor();
+        }
+    };
     private static final long MINIMUM_PARTITION_SIZE = 200 * MEGA;
     private static final long MINIMUM_FREE_MEMORY = 300 * MEGA;
+    private static final Pattern MD5SUM_LINE
+            = Pattern.compile("(\\p{XDigit}{32})\\s+\\*?(?:\\./)?(.*)");
     private static DBusConnection dbusSystemConnection;
 
     private static String selectedMethod;
@@ -187,14 +201,44 @@ public class DLCopy {
         }
 
         // install MBR
-        int exitValue = PROCESS_EXECUTOR.executeScript(
-                "cat " + source.getMbrPath() + " > " + device + '\n'
-                + "sync");
-        if (exitValue != 0) {
+        // (only the target device is flushed, a global sync would stall all
+        // other storage devices that are written at the same time)
+        try (RandomAccessFile randomAccessFile
+                = new RandomAccessFile(device, "rw")) {
+            randomAccessFile.write(
+                    Files.readAllBytes(Paths.get(source.getMbrPath())));
+            randomAccessFile.getFD().sync();
+        } catch (IOException ex) {
             String errorMessage = STRINGS.getString("Copying_MBR_Failed");
             errorMessage = MessageFormat.format(errorMessage, device);
-            LOGGER.severe(errorMessage);
-            throw new IOException(errorMessage);
+            LOGGER.log(Level.SEVERE, errorMessage, ex);
+            throw new IOException(errorMessage, ex);
+        }
+    }
+
+    /**
+     * flushes the buffers of a storage device and all of its partitions
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @throws IOException when an I/O exception occurs
+     */
+    public static void syncDevice(String device) throws IOException {
+        List<String> deviceFiles = new ArrayList<>();
+        deviceFiles.add(device);
+        String deviceName = new File(device).getName();
+        File[] files = new File("/sys/block/" + deviceName).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(deviceName)) {
+                    deviceFiles.add("/dev/" + file.getName());
+                }
+            }
+        }
+        for (String deviceFile : deviceFiles) {
+            try (RandomAccessFile randomAccessFile
+                    = new RandomAccessFile(deviceFile, "r")) {
+                randomAccessFile.getFD().sync();
+            }
         }
     }
 
@@ -208,16 +252,52 @@ public class DLCopy {
      * @param installerOrUpgrader the Installer or Upgrader that is calling this
      * method
      * @param dlCopyGUI the program GUI
+     * @return the partitions of the target storage device
      * @throws InterruptedException when the installation was interrupted
      * @throws IOException when an I/O exception occurs
      * @throws DBusException when there was a problem with DBus
      */
-    public static void copyToStorageDevice(SystemSource source,
+    public static DestinationPartitions copyToStorageDevice(
+            SystemSource source,
             FileCopier fileCopier, StorageDevice storageDevice,
             String exchangePartitionLabel,
             InstallerOrUpgrader installerOrUpgrader, DLCopyGUI dlCopyGUI)
             throws InterruptedException, IOException, DBusException {
 
+        DestinationPartitions destinationPartitions
+                = createPartitionsAndFileSystems(source, storageDevice,
+                        exchangePartitionLabel, installerOrUpgrader, dlCopyGUI);
+
+        // copy operating system files
+        copyExchangeEfiAndSystem(source, fileCopier, destinationPartitions,
+                installerOrUpgrader, dlCopyGUI);
+
+        finishStorageDevice(source, destinationPartitions,
+                installerOrUpgrader, dlCopyGUI);
+
+        return destinationPartitions;
+    }
+
+    /**
+     * creates all partitions and file systems on a target storage device
+     *
+     * @param source the system source
+     * @param storageDevice the target storage device
+     * @param exchangePartitionLabel the label of the exchange partition
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param dlCopyGUI the program GUI
+     * @return the created partitions
+     * @throws InterruptedException when the installation was interrupted
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static DestinationPartitions createPartitionsAndFileSystems(
+            SystemSource source, StorageDevice storageDevice,
+            String exchangePartitionLabel,
+            InstallerOrUpgrader installerOrUpgrader, DLCopyGUI dlCopyGUI)
+            throws InterruptedException, IOException, DBusException {
+
         selectedMethod = installerOrUpgrader.getSelectedMethod();
         masterPassword = installerOrUpgrader.getMasterPassword();
         personalPassword = installerOrUpgrader.getPersonalPassword();
@@ -289,79 +369,20 @@ public class DLCopy {
         }
 
         // create all necessary partitions
-        try {
-            createPartitions(storageDevice, partitionSizes, storageDeviceSize,
-                    partitionState, destinationExchangeDevice, exchangeMB,
-                    exchangePartitionLabel, destinationDataDevice,
-                    destinationEfiDevice, destinationSystemDevice,
-                    installerOrUpgrader, dlCopyGUI);
-        } catch (IOException iOException) {
-            // On some Corsair Flash Voyager GT drives the first sfdisk try
-            // failes with the following output:
-            // ---------------
-            // Checking that no-one is using this disk right now ...
-            // OK
-            // Warning: The partition table looks like it was made
-            //       for C/H/S=*/78/14 (instead of 15272/64/32).
-            //
-            // For this listing I'll assume that geometry.
-            //
-            // Disk /dev/sdc: 15272 cylinders, 64 heads, 32 sectors/track
-            // Old situation:
-            // Units = mebibytes of 1048576 bytes, blocks of 1024 bytes, counting from 0
-            //
-            //    Device Boot Start   End    MiB    #blocks   Id  System
-            // /dev/sdc1         3+ 15271  15269-  15634496    c  W95 FAT32 (LBA)
-            //                 start: (c,h,s) expected (7,30,1) found (1,0,1)
-            //                 end: (c,h,s) expected (1023,77,14) found (805,77,14)
-            // /dev/sdc2         0      -      0          0    0  Empty
-            // /dev/sdc3         0      -      0          0    0  Empty
-            // /dev/sdc4         0      -      0          0    0  Empty
-            // New situation:
-            // Units = mebibytes of 1048576 bytes, blocks of 1024 bytes, counting from 0
-            //
-            //    Device Boot Start   End    MiB    #blocks   Id  Systemff
-            // /dev/sdc1         0+  1023   1024-   1048575+   c  W95 FAT32 (LBA)
-            // /dev/sdc2      1024  11008   9985   10224640   83  Linux
-            // /dev/sdc3   * 11009  15271   4263    4365312    c  W95 FAT32 (LBA)
-            // /dev/sdc4         0      -      0          0    0  Empty
-            // BLKRRPART: Das Gerät oder die Ressource ist belegt
-            // The command to re-read the partition table failed.
-            // Run partprobe(8), kpartx(8) or reboot your system now,
-            // before using mkfs
-            // If you created or changed a DOS partition, /dev/foo7, say, then use dd(1)
-            // to zero the first 512 bytes:  dd if=/dev/zero of=/dev/foo7 bs=512 count=1
-            // (See fdisk(8).)
-            // Successfully wrote the new partition table
-            //
-            // Re-reading the partition table ...
-            // ---------------
-            // Strangely, even though sfdisk exits with zero (success) the
-            // partitions are *NOT* correctly created the first time. Even
-            // more strangely, it always works the second time. Therefore
-            // we automatically retry once more in case of an error.
-            createPartitions(storageDevice, partitionSizes, storageDeviceSize,
-                    partitionState, destinationExchangeDevice, exchangeMB,
-                    exchangePartitionLabel, destinationDataDevice,
-                    destinationEfiDevice, destinationSystemDevice,
-                    installerOrUpgrader, dlCopyGUI);
-        }
-
-        // Here have to trigger a rescan of the device partitions. Otherwise
-        // udisks sometimes just doesn't know about the new partitions and we
-        // will later get exceptions similar to this one:
+        boolean systemPartitionReused = createPartitions(storageDevice,
+                partitionSizes, storageDeviceSize, partitionState,
+                destinationExchangeDevice, exchangeMB, exchangePartitionLabel,
+                destinationDataDevice, destinationEfiDevice,
+                destinationSystemDevice, installerOrUpgrader, dlCopyGUI);
+
+        // The partition table was already re-read when it was written. Wait
+        // until udisks knows about the new file systems, otherwise we will
+        // later get exceptions similar to this one:
         // org.freedesktop.dbus.exceptions.DBusExecutionException:
         // No such interface 'org.freedesktop.UDisks2.Filesystem'
-        PROCESS_EXECUTOR.executeProcess("partprobe", device);
-        // Sigh... even after partprobe exits, we have to give udisks even more
-        // time to get its act together and finally know about the new
-        // partitions.
-        try {
-            // 5 seconds were not enough!
-            TimeUnit.SECONDS.sleep(7);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, "", ex);
-        }
+        DeviceSettler.waitForFileSystems(7, destinationEfiDevice,
+                destinationSystemDevice, destinationExchangeDevice);
+        DeviceSettler.waitForPartitions(0, destinationDataDevice);
 
         // the partitions now really exist
         // -> instantiate them as objects
@@ -383,18 +404,44 @@ public class DLCopy {
                 = Partition.getPartitionFromDeviceAndNumber(
                         destinationSystemDevice.substring(5));
 
-        // copy operating system files
-        copyExchangeEfiAndSystem(source, fileCopier, storageDevice,
-                destinationExchangePartition, destinationBootPartition,
-                destinationSystemPartition, installerOrUpgrader, dlCopyGUI);
+        return new DestinationPartitions(storageDevice,
+                destinationExchangePartition, destinationDataPartition,
+                destinationBootPartition, destinationSystemPartition,
+                systemPartitionReused);
+    }
+
+    /**
+     * copies the persistence layer, makes the target storage device bootable
+     * and unmounts its partitions
+     *
+     * @param source the system source
+     * @param destinationPartitions the partitions of the target storage device
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param dlCopyGUI the program GUI
+     * @throws InterruptedException when the installation was interrupted
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static void finishStorageDevice(SystemSource source,
+            DestinationPartitions destinationPartitions,
+            InstallerOrUpgrader installerOrUpgrader, DLCopyGUI dlCopyGUI)
+            throws InterruptedException, IOException, DBusException {
+
+        StorageDevice storageDevice = destinationPartitions.getStorageDevice();
+        Partition destinationBootPartition
+                = destinationPartitions.getEfiPartition();
+        Partition destinationSystemPartition
+                = destinationPartitions.getSystemPartition();
 
         // copy persistence layer
-        copyPersistence(source, installerOrUpgrader,
-                destinationDataPartition, dlCopyGUI);
+        copyPersistence(source, installerOrUpgrader, storageDevice,
+                destinationPartitions.getDataPartition(), dlCopyGUI);
 
         // make storage device bootable
-        installerOrUpgrader.showWritingBootSector();
-        makeBootable(source, device, destinationSystemPartition);
+        installerOrUpgrader.showWritingBootSector(storageDevice);
+        makeBootable(source, destinationPartitions.getDevice(),
+                destinationSystemPartition);
 
         if (!umount(destinationBootPartition, dlCopyGUI)) {
             String errorMessage = "could not umount destination boot partition";
@@ -406,9 +453,189 @@ public class DLCopy {
                     = "could not umount destination system partition";
             throw new IOException(errorMessage);
         }
-        source.unmountTmpPartitions();
+        installerOrUpgrader.unmountSourceTmpPartitions();
+    }
+
+    /**
+     * switches off all swap partitions and unmounts all partitions of a
+     * storage device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @param dlCopyGUI the program GUI
+     * @throws IOException when an I/O exception occurs
+     */
+    public static void releaseStorageDevice(String device,
+            DLCopyGUI dlCopyGUI) throws IOException {
+
+        // check if a swap partition is active on this device
+        // if so, switch it off
+        List<String> swaps
+                = LernstickFileTools.readFile(new File("/proc/swaps"));
+        for (String swapLine : swaps) {
+            if (swapLine.startsWith(device)) {
+                swapoffPartition(device, swapLine, dlCopyGUI);
+            }
+        }
+
+        // umount all mounted partitions of device
+        umountPartitions(device, dlCopyGUI);
+    }
+
+    /**
+     * Turns the raw copy of a golden image into an independent installation.
+     * Writes a new disk signature, grows the system partition to the end of
+     * the storage device, assigns new file system IDs, sets the exchange
+     * partition label and recreates the encrypted data partition.
+     *
+     * @param source the system source
+     * @param goldenPartitions the partitions of the storage device the golden
+     * image was read from
+     * @param imageSize the size of the golden image
+     * @param storageDevice the storage device the golden image was written to
+     * @param exchangePartitionLabel the label of the exchange partition
+     * @param installer the Installer that is calling this method
+     * @param dlCopyGUI the program GUI
+     * @return the partitions of the storage device the golden image was
+     * written to
+     * @throws InterruptedException when the installation was interrupted
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static DestinationPartitions personalizeGoldenImageCopy(SystemSource source,
+            DestinationPartitions goldenPartitions, long imageSize,
+            StorageDevice storageDevice, String exchangePartitionLabel,
+            Installer installer, DLCopyGUI dlCopyGUI)
+            throws InterruptedException, IOException, DBusException {
+
+        String device = "/dev/" + storageDevice.getDevice();
+
+        // every storage device needs its own MBR disk signature
+        byte[] diskSignature = new byte[4];
+        ThreadLocalRandom.current().nextBytes(diskSignature);
+        try (RandomAccessFile randomAccessFile
+                = new RandomAccessFile(device, "rw")) {
+            randomAccessFile.seek(440);
+            randomAccessFile.write(diskSignature);
+            randomAccessFile.getFD().sync();
+        }
+
+        // the system partition is always the last partition
+        int systemNumber = goldenPartitions.getSystemPartition().getNumber();
+        String systemDevice = getPartitionDevice(storageDevice, systemNumber);
+        int sectorSize
+                = MbrPartitionTable.getSectorSize(storageDevice.getDevice());
+        boolean grow = (storageDevice.getSize() - imageSize) >= MEGA;
+        if (grow) {
+            try {
+                MbrPartitionTable.growLastPartition(device, systemNumber,
+                        storageDevice.getSize(), sectorSize);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, "", ex);
+                String errorMessage = STRINGS.getString(
+                        "Error_Changing_Partition_Sizes");
+                errorMessage = MessageFormat.format(errorMessage, device);
+                LOGGER.severe(errorMessage);
+                throw new IOException(errorMessage);
+            }
+        }
+
+        // make the new partition table known to the system
+        if (!MbrPartitionTable.rereadPartitionTable(device)) {
+            String errorMessage = STRINGS.getString("Error_Repartitioning");
+            errorMessage = MessageFormat.format(errorMessage, device);
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+        DeviceSettler.waitForPartitions(7, MbrPartitionTable.read(
+                device, storageDevice.getSize(), sectorSize), systemDevice);
+
+        if (grow) {
+            // e2fsck return values 0 and 1 mean that the file system is OK
+            int exitValue = PROCESS_EXECUTOR.get().executeProcess(true, true,
+                    "e2fsck", "-f", "-y", systemDevice);
+            if (exitValue == 0 || exitValue == 1) {
+                exitValue = PROCESS_EXECUTOR.get().executeProcess(true, true,
+                        "resize2fs", systemDevice);
+            }
+            if (exitValue != 0) {
+                String errorMessage
+                        = STRINGS.getString("Error_File_System_Resize");
+                errorMessage = MessageFormat.format(errorMessage, systemDevice);
+                LOGGER.severe(errorMessage);
+                throw new IOException(errorMessage);
+            }
+        }
 
-        //Here we have to do our magic!!
+        // new file system IDs
+        changeFileSystemId(systemDevice, "/sbin/tune2fs", "-U", "random");
+        String efiDevice = getPartitionDevice(storageDevice,
+                goldenPartitions.getEfiPartition().getNumber());
+        changeFileSystemId(efiDevice, "fatlabel", "-i", efiDevice,
+                String.format("%08x", ThreadLocalRandom.current().nextInt()));
+
+        // exchange partition label and ID
+        Partition goldenExchangePartition
+                = goldenPartitions.getExchangePartition();
+        if (goldenExchangePartition != null) {
+            String exchangeDevice = getPartitionDevice(
+                    storageDevice, goldenExchangePartition.getNumber());
+            String volumeId = String.format(
+                    "%08x", ThreadLocalRandom.current().nextInt());
+            String fileSystem = installer.getExhangePartitionFileSystem();
+            String[] labelCommand;
+            if (fileSystem.equalsIgnoreCase("fat32")) {
+                labelCommand = new String[]{
+                    "fatlabel", exchangeDevice, exchangePartitionLabel};
+                changeFileSystemId(exchangeDevice,
+                        "fatlabel", "-i", exchangeDevice, volumeId);
+            } else if (fileSystem.equalsIgnoreCase("exfat")) {
+                labelCommand = new String[]{
+                    "exfatlabel", exchangeDevice, exchangePartitionLabel};
+                changeFileSystemId(exchangeDevice,
+                        "exfatlabel", "-i", exchangeDevice, "0x" + volumeId);
+            } else {
+                labelCommand = new String[]{
+                    "ntfslabel", exchangeDevice, exchangePartitionLabel};
+                changeFileSystemId(exchangeDevice,
+                        "ntfslabel", "--new-serial", exchangeDevice);
+            }
+            int exitValue = PROCESS_EXECUTOR.get().executeProcess(
+                    true, true, labelCommand);
+            if (exitValue != 0) {
+                String errorMessage = STRINGS.getString(
+                        "Error_Create_Exchange_Partition");
+                errorMessage = MessageFormat.format(
+                        errorMessage, exchangeDevice);
+                LOGGER.severe(errorMessage);
+                throw new IOException(errorMessage);
+            }
+        }
+
+        // The LUKS header (and therefore the master key) of the data partition
+        // must never be shared between storage devices.
+        Partition goldenDataPartition = goldenPartitions.getDataPartition();
+        if (goldenDataPartition != null) {
+            installer.showCreatingFileSystems(storageDevice);
+            String dataDevice = getPartitionDevice(
+                    storageDevice, goldenDataPartition.getNumber());
+            formatPersistencePartition(dataDevice,
+                    installer.getDataPartitionFileSystem(), dlCopyGUI);
+            copyPersistence(source, installer, storageDevice,
+                    Partition.getPartitionFromDeviceAndNumber(
+                            dataDevice.substring(5)), dlCopyGUI);
+        }
+
+        syncDevice(device);
+
+        // the new file system IDs must be known before we use the partitions
+        DeviceSettler.waitForFileSystems(7, efiDevice, systemDevice);
+        return new DestinationPartitions(storageDevice,
+                getCopiedPartition(storageDevice, goldenExchangePartition),
+                getCopiedPartition(storageDevice, goldenDataPartition),
+                getCopiedPartition(storageDevice,
+                        goldenPartitions.getEfiPartition()),
+                getCopiedPartition(storageDevice,
+                        goldenPartitions.getSystemPartition()));
     }
 
     /**
@@ -474,7 +701,7 @@ public class DLCopy {
             }
         }
 
-        int exitValue = PROCESS_EXECUTOR.executeProcess(
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                 "umount", deviceOrMountpoint);
         if (exitValue != 0) {
             String errorMessage = STRINGS.getString("Error_Umount");
@@ -503,7 +730,7 @@ public class DLCopy {
             return true;
         }
 
-        if (partition.umount()) {
+        if (MountProfile.umount(partition)) {
             LOGGER.log(Level.INFO, "{0} was successfully umounted",
                     partition.getDeviceAndNumber());
             return true;
@@ -566,14 +793,14 @@ public class DLCopy {
             case "NO_PASSWORD":
                 String noPasswordLuksScript
                         = createLuksFormatScript(globallyKnownPassword, device.substring(5));
-                PROCESS_EXECUTOR.executeScript(noPasswordLuksScript);
+                PROCESS_EXECUTOR.get().executeScript(noPasswordLuksScript);
                 passphrase = globallyKnownPassword;
                 break;
 
             case "PERSONAL_PASSWORD":
                 String personalMethodLuksScript
                         = createLuksFormatScript(personalPassword, device.substring(5));
-                PROCESS_EXECUTOR.executeScript(personalMethodLuksScript);
+                PROCESS_EXECUTOR.get().executeScript(personalMethodLuksScript);
                 passphrase = personalPassword;
                 break;
 
@@ -584,8 +811,8 @@ public class DLCopy {
                 String addMasterKeyScript
                         = createLuksAddKeyScript(initialPassword, masterPassword, device.substring(5), 1);
 
-                PROCESS_EXECUTOR.executeScript(initialMethodLuksScript);
-                PROCESS_EXECUTOR.executeScript(addMasterKeyScript);
+                PROCESS_EXECUTOR.get().executeScript(initialMethodLuksScript);
+                PROCESS_EXECUTOR.get().executeScript(addMasterKeyScript);
                 passphrase = initialPassword;
                 break;
 
@@ -597,12 +824,14 @@ public class DLCopy {
         }
 
         /**
-         * The mapper name of the luks formated partition.
+         * The mapper name of the luks formated partition. It must be unique
+         * because several devices can be formatted at the same time.
          */
-        String mapperName = "backup2";
-        String mappingScript = createMapper(device.substring(5), mapperName,
+        String partitionName = device.substring(5);
+        String mapperName = "persistence_" + partitionName;
+        String mappingScript = createMapper(partitionName, mapperName,
                 passphrase);
-        PROCESS_EXECUTOR.executeScript(mappingScript);
+        PROCESS_EXECUTOR.get().executeScript(mappingScript);
 
         // If we want to create a partition at the exact same location of
         // another type of partition mkfs becomes interactive.
@@ -614,13 +843,17 @@ public class DLCopy {
         // ------------
         // To make a long story short, this is the reason we have to use the
         // force flag "-F" here.
+        String extendedOptions = fileSystem.startsWith("ext")
+                ? getExtendedOptions(device) : null;
         String createFileSystem = "#!/bin/sh" + '\n'
                 + "/sbin/mkfs." + fileSystem + " -F -L "
-                + Partition.PERSISTENCE_LABEL + " /dev/mapper/" + mapperName;
-        int exitValue = PROCESS_EXECUTOR.executeScript(createFileSystem);
+                + Partition.PERSISTENCE_LABEL
+                + (extendedOptions == null ? "" : " -E " + extendedOptions)
+                + " /dev/mapper/" + mapperName;
+        int exitValue = PROCESS_EXECUTOR.get().executeScript(createFileSystem);
 
         if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
             String errorMessage = STRINGS.getString(
                     "Error_Create_Data_Partition");
             LOGGER.severe(errorMessage);
@@ -630,24 +863,23 @@ public class DLCopy {
         // tuning
         String tuning = "#!/bin/sh" + '\n'
                 + "/sbin/tune2fs -m 0 -c 0 -i 0 /dev/mapper/" + mapperName;
-        exitValue = PROCESS_EXECUTOR.executeScript(tuning);
+        exitValue = PROCESS_EXECUTOR.get().executeScript(tuning);
 
         if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
             String errorMessage = STRINGS.getString(
                     "Error_Tune_Data_Partition");
             LOGGER.severe(errorMessage);
             throw new IOException(errorMessage);
         }
 
-        // We have to wait a little for dbus to get to know the new filesystem.
+        // We have to wait for udev to get to know the new filesystem.
         // Otherwise we will sometimes get the following exception in the calls
         // below:
         // org.freedesktop.dbus.exceptions.DBusExecutionException:
         // No such interface 'org.freedesktop.UDisks2.Filesystem'
-        // 5 seconds were too short!
         try {
-            TimeUnit.SECONDS.sleep(10);
+            DeviceSettler.settle(10);
         } catch (InterruptedException ex) {
             LOGGER.log(Level.SEVERE, "", ex);
         }
@@ -655,21 +887,21 @@ public class DLCopy {
         /**
          * This directory will be created so we can mount the mapper to.
          */
-        String mountPath = "/media/root/persistence";
+        String mountPath = "/media/root/persistence_" + partitionName;
 
         /**
          * this script creates the new directory "mount path".
          */
         String newDirectoryInMediaScript = "#!/bin/sh" + '\n'
-                + "mkdir " + mountPath;
-        PROCESS_EXECUTOR.executeScript(newDirectoryInMediaScript);
+                + "mkdir -p " + mountPath;
+        PROCESS_EXECUTOR.get().executeScript(newDirectoryInMediaScript);
 
         /**
          * this script mounts the mapper in the mount path defined above.
          */
         String mountScript = "#!/bin/sh" + '\n'
                 + "mount " + "/dev/mapper/" + mapperName + " " + mountPath;
-        PROCESS_EXECUTOR.executeScript(mountScript);
+        PROCESS_EXECUTOR.get().executeScript(mountScript);
 
         if (mountPath == null) {
             throw new IOException("could not mount persistence partition");
@@ -685,21 +917,77 @@ public class DLCopy {
         }
 
         /**
-         * close the luks partition and unmount the partition and the new
-         * directory.
+         * unmount the new directory and close the luks partition (the mapping
+         * can only be closed when it is no longer mounted)
          */
-        String closeLuks = "#!/bin/sh" + '\n'
-                + "cryptsetup luksClose /dev/mapper/" + mapperName;
-        PROCESS_EXECUTOR.executeScript(closeLuks);
-
         String unmountDirectoryScript = "#!/bin/sh" + '\n'
                 + "umount " + mountPath;
-        PROCESS_EXECUTOR.executeScript(unmountDirectoryScript);
+        PROCESS_EXECUTOR.get().executeScript(unmountDirectoryScript);
+
+        String closeLuks = "#!/bin/sh" + '\n'
+                + "cryptsetup luksClose /dev/mapper/" + mapperName;
+        PROCESS_EXECUTOR.get().executeScript(closeLuks);
 
         String unmountPartitionScript = "#!/bin/sh" + '\n'
                 + "umount /dev/" + device.substring(5);
-        PROCESS_EXECUTOR.executeScript(unmountPartitionScript);
+        PROCESS_EXECUTOR.get().executeScript(unmountPartitionScript);
+
+    }
 
+    /**
+     * opens the LUKS mapping of a data partition that was formatted with
+     * {@link #formatPersistencePartition(String, String, DLCopyGUI)}
+     *
+     * @param partitionName the name of the data partition (e.g. "sdb4")
+     * @return the device file of the mapping (e.g.
+     * "/dev/mapper/persistence_sdb4")
+     * @throws IOException if opening the mapping failed
+     */
+    public static String openPersistenceMapping(String partitionName)
+            throws IOException {
+        String mapperName = "persistence_" + partitionName;
+        String mapperDevice = "/dev/mapper/" + mapperName;
+        if (new File(mapperDevice).exists()) {
+            LOGGER.log(Level.INFO, "{0} is already open", mapperDevice);
+            return mapperDevice;
+        }
+        String mappingScript = createMapper(
+                partitionName, mapperName, getLuksPassphrase());
+        if (PROCESS_EXECUTOR.get().executeScript(mappingScript) != 0) {
+            throw new IOException("could not open the LUKS mapping of "
+                    + partitionName);
+        }
+        return mapperDevice;
+    }
+
+    /**
+     * closes the LUKS mapping of a data partition
+     *
+     * @param mapperDevice the device file of the mapping (e.g.
+     * "/dev/mapper/persistence_sdb4")
+     */
+    public static void closePersistenceMapping(String mapperDevice) {
+        if (PROCESS_EXECUTOR.get().executeProcess(true, true,
+                "cryptsetup", "luksClose", mapperDevice) != 0) {
+            LOGGER.log(Level.WARNING, "could not close {0}: {1}",
+                    new Object[]{mapperDevice,
+                        PROCESS_EXECUTOR.get().getOutput()});
+        }
+    }
+
+    private static String getLuksPassphrase() {
+        // the passphrase of key slot 0, see formatPersistencePartition()
+        if (selectedMethod == null) {
+            return globallyKnownPassword;
+        }
+        switch (selectedMethod) {
+            case "PERSONAL_PASSWORD":
+                return personalPassword;
+            case "MASTER_INITIAL_PASSWORD":
+                return initialPassword;
+            default:
+                return globallyKnownPassword;
+        }
     }
 
     /**
@@ -719,12 +1007,32 @@ public class DLCopy {
      */
     private static String createLuksFormatScript(String passphrase,
             String partition) {
+        // the encrypted payload starts at an erase block boundary
+        long eraseBlockSize
+                = FlashGeometryProbe.getEraseBlockSize("/dev/" + partition);
+        String alignment = eraseBlockSize == 0 ? ""
+                : " --align-payload " + (eraseBlockSize / 512);
         String script = "#!/bin/sh" + '\n'
                 + "printf \"" + passphrase
-                + "\" | cryptsetup -q luksFormat --key-slot 0 /dev/" + partition;
+                + "\" | cryptsetup -q luksFormat --key-slot 0" + alignment
+                + " /dev/" + partition;
         return script;
     }
 
+    /**
+     * returns the extended options of mke2fs that align the file system
+     * structures to the erase blocks of the storage device
+     */
+    private static String getExtendedOptions(String device) {
+        long eraseBlockSize = FlashGeometryProbe.getEraseBlockSize(device);
+        if (eraseBlockSize <= FlashGeometryProbe.DEFAULT_ERASE_BLOCK_SIZE) {
+            return null;
+        }
+        // in units of file system blocks (4 KiB)
+        long blocks = eraseBlockSize / 4096;
+        return "stride=" + blocks + ",stripe_width=" + blocks;
+    }
+
     /**
      * Create the luks add key shell script. it will be used to add the master
      * passphrase in case the master chooses this method.
@@ -751,18 +1059,19 @@ public class DLCopy {
      * destination exchange partition
      * @return the CopyJobsInfo for the given source / destination combination
      * @throws DBusException
+     * @throws IOException if a destination partition could not be mounted
      */
     public static CopyJobsInfo prepareEfiAndSystemCopyJobs(SystemSource source,
             StorageDevice storageDevice, Partition destinationEfiPartition,
             Partition destinationExchangePartition,
             Partition destinationSystemPartition,
             String destinationExchangePartitionFileSystem)
-            throws DBusException {
+            throws DBusException, IOException {
 
-        String destinationEfiPath
-                = destinationEfiPartition.mount().getMountPath();
-        String destinationSystemPath
-                = destinationSystemPartition.mount().getMountPath();
+        String destinationEfiPath = MountProfile.mountForBulkWrite(
+                destinationEfiPartition).getMountPath();
+        String destinationSystemPath = MountProfile.mountForBulkWrite(
+                destinationSystemPartition).getMountPath();
 
         Source efiCopyJobSource = source.getEfiCopySource();
         Source systemCopyJobSource = source.getSystemCopySourceFull();
@@ -779,7 +1088,8 @@ public class DLCopy {
             if ("fat32".equalsIgnoreCase(
                     destinationExchangePartitionFileSystem)) {
                 String destinationExchangePath
-                        = destinationExchangePartition.mount().getMountPath();
+                        = MountProfile.mountForBulkWrite(
+                                destinationExchangePartition).getMountPath();
                 bootFilesCopyJob = new CopyJob(
                         new Source[]{efiCopyJobSource},
                         new String[]{destinationExchangePath});
@@ -816,7 +1126,7 @@ public class DLCopy {
         for (String bootFile : bootFiles) {
             Path destinationPath = Paths.get(destinationExchangePath, bootFile);
             if (Files.exists(destinationPath)) {
-                PROCESS_EXECUTOR.executeProcess(
+                PROCESS_EXECUTOR.get().executeProcess(
                         "fatattr", "+h", destinationPath.toString());
             }
         }
@@ -837,7 +1147,7 @@ public class DLCopy {
         }
 
         // use FAT attributes again to hide OS X ".hidden" file in Windows
-        PROCESS_EXECUTOR.executeProcess("fatattr", "+h", osxHiddenFilePath);
+        PROCESS_EXECUTOR.get().executeProcess("fatattr", "+h", osxHiddenFilePath);
     }
 
     /**
@@ -889,7 +1199,9 @@ public class DLCopy {
                     }
                 }
                 LernstickFileTools.writeFile(md5sumFile, lines);
-                PROCESS_EXECUTOR.executeProcess("sync");
+                // only flush the file system of the mount point
+                PROCESS_EXECUTOR.get().executeProcess(
+                        "sync", "-f", mountPoint);
             } else {
                 LOGGER.log(Level.WARNING,
                         "file \"{0}\" does not exist!", md5sumFileName);
@@ -911,20 +1223,26 @@ public class DLCopy {
     public static void formatEfiAndSystemPartition(
             String efiDevice, String systemDevice) throws IOException {
 
-        int exitValue = PROCESS_EXECUTOR.executeProcess(
-                "/sbin/mkfs.vfat", "-n", Partition.EFI_LABEL, efiDevice);
-        if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
-            String errorMessage
-                    = STRINGS.getString("Error_Create_EFI_Partition");
-            LOGGER.severe(errorMessage);
-            throw new IOException(errorMessage);
-        }
+        formatEfiPartition(efiDevice);
+        formatSystemPartition(systemDevice);
+    }
 
-        exitValue = PROCESS_EXECUTOR.executeProcess(
-                "/sbin/mkfs.ext3", "-L", systemPartitionLabel, systemDevice);
+    private static void formatSystemPartition(String systemDevice)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("/sbin/mkfs.ext3");
+        command.add("-L");
+        command.add(systemPartitionLabel);
+        String extendedOptions = getExtendedOptions(systemDevice);
+        if (extendedOptions != null) {
+            command.add("-E");
+            command.add(extendedOptions);
+        }
+        command.add(systemDevice);
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
+                command.toArray(new String[command.size()]));
         if (exitValue != 0) {
-            LOGGER.severe(PROCESS_EXECUTOR.getOutput());
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
             String errorMessage
                     = STRINGS.getString("Error_Create_System_Partition");
             LOGGER.severe(errorMessage);
@@ -967,6 +1285,11 @@ public class DLCopy {
             boolean includeHardDisks, boolean includeBootDevice,
             String bootDeviceName) throws IOException, DBusException {
 
+        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V2) {
+            return getInventoryStorageDevices(
+                    includeHardDisks, includeBootDevice, bootDeviceName);
+        }
+
         List<String> partitions = DbusTools.getPartitions();
         List<StorageDevice> storageDevices = new ArrayList<>();
 
@@ -1004,6 +1327,44 @@ public class DLCopy {
         return storageDevices;
     }
 
+    private static List<StorageDevice> getInventoryStorageDevices(
+            boolean includeHardDisks, boolean includeBootDevice,
+            String bootDeviceName) throws DBusException {
+
+        // all drives are already known from the snapshot, so only the
+        // StorageDevice objects themselves must be created
+        StorageDeviceInventory inventory
+                = StorageDeviceInventory.getInstance();
+        List<StorageDevice> storageDevices = new ArrayList<>();
+        for (String path : inventory.getDrivePaths()) {
+            StorageDeviceInventory.BlockObject blockObject
+                    = inventory.getBlockObject(path);
+            if (blockObject == null) {
+                // removed in the meantime
+                continue;
+            }
+            String deviceName = blockObject.getDeviceFile().substring(5);
+            if (!includeBootDevice && deviceName.equals(bootDeviceName)) {
+                LOGGER.log(Level.INFO,
+                        "skipping {0}, it''s the boot device", deviceName);
+                continue;
+            }
+            StorageDevice storageDevice = new StorageDevice(deviceName);
+            StorageDevice.Type type = storageDevice.getType();
+            if (type == StorageDevice.Type.OpticalDisc) {
+                LOGGER.log(Level.INFO,
+                        "skipping optical disk {0}", storageDevice);
+            } else if ((type == StorageDevice.Type.HardDrive)
+                    && !includeHardDisks) {
+                LOGGER.log(Level.FINE, "skipping hard disk {0}", deviceName);
+            } else {
+                LOGGER.log(Level.INFO, "adding {0}", deviceName);
+                storageDevices.add(storageDevice);
+            }
+        }
+        return storageDevices;
+    }
+
     /**
      * returns the StorageDevice for a given dbus path after a timeout
      *
@@ -1060,17 +1421,47 @@ public class DLCopy {
     public static String getMd5String(String filePath)
             throws NoSuchAlgorithmException, IOException {
         MessageDigest md5 = MessageDigest.getInstance("MD5");
-        try (DigestInputStream digestInputStream = new DigestInputStream(
-                Files.newInputStream(Paths.get(filePath)), md5)) {
-            byte[] byteArray = new byte[1024];
-            for (int i = digestInputStream.read(byteArray); i > 0;) {
-                i = digestInputStream.read(byteArray);
+        BufferPool bufferPool = BufferPool.getInstance();
+        ByteBuffer buffer = bufferPool.acquireForIO(MEGA);
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath))) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md5.update(buffer);
+                buffer.clear();
             }
             byte[] digest = md5.digest();
             return DatatypeConverter.printHexBinary(digest).toLowerCase();
+        } finally {
+            bufferPool.release(buffer);
         }
     }
 
+    /**
+     * reads an <tt>md5sum.txt</tt> file
+     *
+     * @param md5sumFile the <tt>md5sum.txt</tt> file
+     * @return a map with the relative paths of all listed files (without any
+     * leading "./") as keys and their textual MD5 sums as values or an empty
+     * map if the file does not exist
+     * @throws IOException if reading the file fails
+     */
+    public static Map<String, String> readMd5Sums(File md5sumFile)
+            throws IOException {
+        Map<String, String> md5Sums = new LinkedHashMap<>();
+        if (!md5sumFile.exists()) {
+            LOGGER.log(Level.WARNING,
+                    "file \"{0}\" does not exist!", md5sumFile);
+            return md5Sums;
+        }
+        for (String line : LernstickFileTools.readFile(md5sumFile)) {
+            Matcher matcher = MD5SUM_LINE.matcher(line.trim());
+            if (matcher.matches()) {
+                md5Sums.put(matcher.group(2), matcher.group(1).toLowerCase());
+            }
+        }
+        return md5Sums;
+    }
+
     /**
      * To make sure that every machine has its unique ssh host key we have to
      * remove the ssh configuration created by live-config in the system copies.
@@ -1158,7 +1549,97 @@ public class DLCopy {
         }
     }
 
-    private static void createPartitions(StorageDevice storageDevice,
+    private static void formatEfiPartition(String efiDevice)
+            throws IOException {
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
+                "/sbin/mkfs.vfat", "-n", Partition.EFI_LABEL, efiDevice);
+        if (exitValue != 0) {
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
+            String errorMessage
+                    = STRINGS.getString("Error_Create_EFI_Partition");
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+    }
+
+    /**
+     * formats the EFI partition and the system partition (unless it is kept)
+     *
+     * @return <tt>true</tt> if the system partition was kept, <tt>false</tt>
+     * if it was formatted
+     */
+    private static boolean formatEfiAndSystemPartition(String efiDevice,
+            String systemDevice, boolean keepSystemPartition)
+            throws IOException {
+        if (keepSystemPartition) {
+            formatEfiPartition(efiDevice);
+            // the system partition label may have changed in the meantime
+            ProcessExecutor processExecutor = PROCESS_EXECUTOR.get();
+            int exitValue = processExecutor.executeProcess(true, true,
+                    "e2label", systemDevice, systemPartitionLabel);
+            if (exitValue == 0) {
+                return true;
+            }
+            LOGGER.log(Level.WARNING, "could not set the label of {0}, "
+                    + "formatting it: {1}", new Object[]{
+                        systemDevice, processExecutor.getOutput()});
+            formatSystemPartition(systemDevice);
+        } else {
+            formatEfiAndSystemPartition(efiDevice, systemDevice);
+        }
+        return false;
+    }
+
+    private static boolean isDeltaInstallation(
+            InstallerOrUpgrader installerOrUpgrader) {
+        return (installerOrUpgrader instanceof Installer)
+                && ((Installer) installerOrUpgrader).isDeltaInstallSelected();
+    }
+
+    /**
+     * returns the alignment of the existing partition table of a storage
+     * device or 0 if there is no usable partition table
+     */
+    private static long getExistingAlignment(
+            String device, long deviceSize, int sectorSize) {
+        try {
+            long alignment = MbrPartitionTable.read(
+                    device, deviceSize, sectorSize).getOffset(1);
+            return (alignment % MEGA == 0) ? alignment : 0;
+        } catch (IOException | IndexOutOfBoundsException ex) {
+            LOGGER.log(Level.INFO, "", ex);
+            return 0;
+        }
+    }
+
+    /**
+     * checks if the system partition of a previous installation can be kept
+     */
+    private static boolean isReusableSystemPartition(String systemDevice) {
+        ProcessExecutor processExecutor = PROCESS_EXECUTOR.get();
+        int exitValue = processExecutor.executeProcess(true, true,
+                "blkid", "-o", "value", "-s", "TYPE", systemDevice);
+        if ((exitValue != 0)
+                || !"ext3".equals(processExecutor.getOutput().trim())) {
+            LOGGER.log(Level.INFO, "{0} has no ext3 file system", systemDevice);
+            return false;
+        }
+        // e2fsck return values 0 and 1 mean that the file system is OK
+        exitValue = processExecutor.executeProcess(true, true,
+                "e2fsck", "-f", "-y", systemDevice);
+        if ((exitValue != 0) && (exitValue != 1)) {
+            LOGGER.log(Level.WARNING, "file system check of {0} failed: {1}",
+                    new Object[]{systemDevice, processExecutor.getOutput()});
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * creates the partitions and file systems of a storage device, returns
+     * true if the system partition of a previous installation was kept
+     */
+    private static boolean createPartitions(StorageDevice storageDevice,
             PartitionSizes partitionSizes, long storageDeviceSize,
             final PartitionState partitionState, String exchangeDevice,
             int exchangeMB, String exchangePartitionLabel,
@@ -1167,7 +1648,7 @@ public class DLCopy {
             throws InterruptedException, IOException, DBusException {
 
         // update GUI
-        installerOrUpgrader.showCreatingFileSystems();
+        installerOrUpgrader.showCreatingFileSystems(storageDevice);
 
         String device = "/dev/" + storageDevice.getDevice();
 
@@ -1185,308 +1666,95 @@ public class DLCopy {
                     });
         }
 
-        // assemble partition command
-        List<String> partedCommandList = new ArrayList<>();
-        partedCommandList.add("/sbin/parted");
-        partedCommandList.add("-s");
-        partedCommandList.add("-a");
-        partedCommandList.add("optimal");
-        partedCommandList.add(device);
-
-//            // list of "rm" commands must be inversely sorted, otherwise
-//            // removal of already existing partitions will fail when storage
-//            // device has logical partitions in extended partitions (the logical
-//            // partitions are no longer found when the extended partition is
-//            // already removed)
-//            List<String> partitionNumbers = new ArrayList<String>();
-//            for (Partition partition : storageDevice.getPartitions()) {
-//                partitionNumbers.add(String.valueOf(partition.getNumber()));
-//            }
-//            Collections.sort(partitionNumbers);
-//            for (int i = partitionNumbers.size() - 1; i >=0; i--) {
-//                partedCommandList.add("rm");
-//                partedCommandList.add(partitionNumbers.get(i));
-//            }
-        switch (partitionState) {
-            case ONLY_SYSTEM:
-                // create two partitions: efi, system
-                String efiBorder = EFI_PARTITION_SIZE + "MiB";
-                mkpart(partedCommandList, "0%", efiBorder);
-                mkpart(partedCommandList, efiBorder, "100%");
-                setFlag(partedCommandList, "2", "boot", "on");
-                setFlag(partedCommandList, "1", "lba", "on");
-                break;
-
-            case PERSISTENCE:
-                // create three partitions: efi, persistence, system
-                efiBorder = EFI_PARTITION_SIZE + "MiB";
-                String persistenceBorder
-                        = (EFI_PARTITION_SIZE + persistenceMB) + "MiB";
-                mkpart(partedCommandList, "0%", efiBorder);
-                mkpart(partedCommandList, efiBorder, persistenceBorder);
-                mkpart(partedCommandList, persistenceBorder, "100%");
-                setFlag(partedCommandList, "3", "boot", "on");
-                setFlag(partedCommandList, "1", "lba", "on");
-                break;
-
-            case EXCHANGE:
-                if (exchangeMB == 0) {
-                    // create three partitions: efi, persistence, system
-                    efiBorder = EFI_PARTITION_SIZE + "MiB";
-                    persistenceBorder
-                            = (EFI_PARTITION_SIZE + persistenceMB) + "MiB";
-                    mkpart(partedCommandList, "0%", efiBorder);
-                    mkpart(partedCommandList, efiBorder, persistenceBorder);
-                    mkpart(partedCommandList, persistenceBorder, "100%");
-                    setFlag(partedCommandList, "3", "boot", "on");
-                    setFlag(partedCommandList, "1", "lba", "on");
-
-                } else {
-                    String secondBorder;
-                    if (storageDevice.isRemovable()) {
-                        // first two partitions: exchange, efi
-                        String exchangeBorder = exchangeMB + "MiB";
-                        efiBorder = (exchangeMB + EFI_PARTITION_SIZE) + "MiB";
-                        secondBorder = efiBorder;
-                        mkpart(partedCommandList, "0%", exchangeBorder);
-                        mkpart(partedCommandList, exchangeBorder, efiBorder);
-                        setFlag(partedCommandList, "2", "boot", "on");
-                    } else {
-                        // first two partitions: efi, exchange
-                        efiBorder = EFI_PARTITION_SIZE + "MiB";
-                        String exchangeBorder
-                                = (EFI_PARTITION_SIZE + exchangeMB) + "MiB";
-                        secondBorder = exchangeBorder;
-                        mkpart(partedCommandList, "0%", efiBorder);
-                        mkpart(partedCommandList, efiBorder, exchangeBorder);
-                        setFlag(partedCommandList, "1", "boot", "on");
-                    }
-                    if (persistenceMB == 0) {
-                        // third partitions: system
-                        mkpart(partedCommandList, secondBorder, "100%");
-                        setFlag(partedCommandList, "3", "boot", "on");
-                    } else {
-                        // last two partitions: persistence, system
-                        persistenceBorder = (EFI_PARTITION_SIZE
-                                + exchangeMB + persistenceMB) + "MiB";
-                        mkpart(partedCommandList,
-                                secondBorder, persistenceBorder);
-                        mkpart(partedCommandList, persistenceBorder, "100%");
-                        setFlag(partedCommandList, "4", "boot", "on");
-                    }
-                    setFlag(partedCommandList, "1", "lba", "on");
-                    setFlag(partedCommandList, "2", "lba", "on");
-                }
-                break;
-
-            default:
-                String errorMessage = "unsupported partitionState \""
-                        + partitionState + '\"';
-                LOGGER.severe(errorMessage);
-                throw new IOException(errorMessage);
-        }
-
-        // safety wait in case of device scanning
-        // 5 seconds were not enough...
-        TimeUnit.SECONDS.sleep(7);
-
-        // check if a swap partition is active on this device
-        // if so, switch it off
-        List<String> swaps
-                = LernstickFileTools.readFile(new File("/proc/swaps"));
-        for (String swapLine : swaps) {
-            if (swapLine.startsWith(device)) {
-                swapoffPartition(device, swapLine, dlCopyGUI);
+        // wait in case of device scanning
+        DeviceSettler.settle(7);
+
+        releaseStorageDevice(device, dlCopyGUI);
+
+        int sectorSize
+                = MbrPartitionTable.getSectorSize(storageDevice.getDevice());
+        String exchangeFileSystem
+                = installerOrUpgrader.getExhangePartitionFileSystem();
+
+        // A delta installation keeps the system partition (and therefore the
+        // partition table) when the existing layout is the planned one. The
+        // layout is planned with the alignment of the existing layout (our
+        // first partition always starts at the alignment), so that the
+        // storage device isn't probed when its partition table is kept.
+        boolean keepSystemPartition = false;
+        if (isDeltaInstallation(installerOrUpgrader)) {
+            long existingAlignment = getExistingAlignment(
+                    device, storageDeviceSize, sectorSize);
+            String mismatch = "unknown alignment";
+            if (existingAlignment > 0) {
+                MbrPartitionTable existingTable = MbrPartitionTable.plan(
+                        partitionState, storageDeviceSize, sectorSize,
+                        existingAlignment, storageDevice.isRemovable(),
+                        exchangeMB, persistenceMB, exchangeFileSystem);
+                mismatch = existingTable.getMismatch(device);
+            }
+            if (mismatch == null) {
+                keepSystemPartition = isReusableSystemPartition(systemDevice);
+            } else {
+                LOGGER.log(Level.INFO, "partition table of {0} doesn''t "
+                        + "match the planned layout: {1}",
+                        new Object[]{device, mismatch});
             }
         }
 
-        // umount all mounted partitions of device
-        umountPartitions(device, dlCopyGUI);
-
-        // Create a new partition table before creating the partitions,
-        // otherwise USB flash drives previously written with a dd'ed ISO
-        // will NOT work!
-        //
-        // "parted <device> mklabel msdos" did NOT work correctly here!
-        // (the partition table type was still unknown and booting failed)
-        int exitValue;
-        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-            // "--print-reply" is needed in the call to dbus-send below to make
-            // the call synchronous
-            exitValue = PROCESS_EXECUTOR.executeProcess("dbus-send",
-                    "--system", "--print-reply",
-                    "--dest=org.freedesktop.UDisks",
-                    "/org/freedesktop/UDisks/devices/" + device.substring(5),
-                    "org.freedesktop.UDisks.Device.PartitionTableCreate",
-                    "string:mbr", "array:string:");
-
+        if (keepSystemPartition) {
+            LOGGER.log(Level.INFO,
+                    "keeping the system partition {0}", systemDevice);
         } else {
-            // Even more fun with udisks2! :-)
-            //
-            // Now whe have to call org.freedesktop.UDisks2.Block.Format
-            // This function has the signature 'sa{sv}'.
-            // dbus-send is unable to send messages with this signature.
-            // To quote the dbus-send manpage:
-            // ****************************
-            //  D-Bus supports more types than these, but dbus-send currently
-            //  does not. Also, dbus-send does not permit empty containers or
-            //  nested containers (e.g. arrays of variants).
-            // ****************************
-            //
-            // creating a Java interface also fails, see here:
-            // https://bugs.debian.org/cgi-bin/bugreport.cgi?bug=777241
-            //
-            // So we have to create a script that calls python.
-            // This utterly sucks but our options are limited...
-            // exitValue = processExecutor.executeScript(true, true,
-            //         "python -c 'import dbus; "
-            //         + "dbus.SystemBus().call_blocking("
-            //         + "\"org.freedesktop.UDisks2\", "
-            //         + "\"/org/freedesktop/UDisks2/block_devices/"
-            //         + device.substring(5) + "\", "
-            //         + "\"org.freedesktop.UDisks2.Block\", "
-            //         + "\"Format\", \"sa{sv}\", (\"dos\", {}))'");
-            //
-            // It gets even better. The call above very often just fails with
-            // the following error message:
-            // Traceback (most recent call last):
-            // File "<string>", line 1, in <module>
-            // File "/usr/lib/python2.7/dist-packages/dbus/connection.py", line 651, in call_blocking message, timeout)
-            // dbus.exceptions.DBusException: org.freedesktop.UDisks2.Error.Failed: Error synchronizing after initial wipe: Timed out waiting for object
-            //
-            // So, for Debian 8 we retry with good old parted and hope for the
-            // best...
-            exitValue = PROCESS_EXECUTOR.executeProcess(true, true,
-                    "parted", "-s", device, "mklabel", "msdos");
-        }
-        if (exitValue != 0) {
-            String errorMessage
-                    = STRINGS.getString("Error_Creating_Partition_Table");
-            errorMessage = MessageFormat.format(errorMessage, device);
-            LOGGER.severe(errorMessage);
-            throw new IOException(errorMessage);
-        }
-
-        // another safety wait...
-        TimeUnit.SECONDS.sleep(3);
-
-        // repartition device
-        String[] commandArray = partedCommandList.toArray(
-                new String[partedCommandList.size()]);
-        exitValue = PROCESS_EXECUTOR.executeProcess(commandArray);
-        if (exitValue != 0) {
-            String errorMessage = STRINGS.getString("Error_Repartitioning");
-            errorMessage = MessageFormat.format(errorMessage, device);
-            LOGGER.severe(errorMessage);
-            throw new IOException(errorMessage);
-        }
-
-        // safety wait so that new partitions are known to the system
-        TimeUnit.SECONDS.sleep(7);
-
-        // The partition types assigned by parted are mostly garbage.
-        // We must fix them here...
-        // The boot partition is actually formatted with FAT32, but "hidden"
-        // by using the EFI partition type.
-        switch (partitionState) {
-            case ONLY_SYSTEM:
-                // create two partitions:
-                //  1) efi (EFI)
-                //  2) system (Linux)
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                        "--id", device, "1", "ef");
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                        "--id", device, "2", "83");
-                break;
-
-            case PERSISTENCE:
-                // create three partitions:
-                //  1) efi (EFI)
-                //  2) persistence (Linux)
-                //  3) system (Linux)
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                        "--id", device, "1", "ef");
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                        "--id", device, "2", "83");
-                PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                        "--id", device, "3", "83");
-                break;
-
-            case EXCHANGE:
-                if (exchangeMB == 0) {
-                    // create three partitions:
-                    //  1) efi (EFI)
-                    //  2) persistence (Linux)
-                    //  3) system (Linux)
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                            "--id", device, "1", "ef");
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                            "--id", device, "2", "83");
-                    PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                            "--id", device, "3", "83");
-                } else {
-                    // determine ID for exchange partition
-                    String exchangePartitionID;
-                    String fileSystem = installerOrUpgrader.
-                            getExhangePartitionFileSystem();
-                    if (fileSystem.equalsIgnoreCase("fat32")) {
-                        exchangePartitionID = "c";
-                    } else {
-                        // exFAT & NTFS
-                        exchangePartitionID = "7";
-                    }
-
-                    if (storageDevice.isRemovable()) {
-                        //  1) exchange (exFAT, FAT32 or NTFS)
-                        //  2) efi (EFI)
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "1", exchangePartitionID);
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "2", "ef");
-                    } else {
-                        //  1) efi (EFI)
-                        //  2) exchange (exFAT, FAT32 or NTFS)
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "1", "ef");
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "2", exchangePartitionID);
-                    }
-
-                    if (persistenceMB == 0) {
-                        //  3) system (Linux)
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "3", "83");
-                    } else {
-                        //  3) persistence (Linux)
-                        //  4) system (Linux)
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "3", "83");
-                        System.out.println("Blzbber" + PROCESS_EXECUTOR.getOutput());
-                        PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk",
-                                "--id", device, "4", "83");
-                    }
-                }
-                break;
-
-            default:
-                String errorMessage = "unsupported partitionState \""
-                        + partitionState + '\"';
-                LOGGER.log(Level.SEVERE, errorMessage);
+            // plan the new partition table
+            // (the erase block size is probed on the released storage device
+            // right before it is repartitioned)
+            MbrPartitionTable partitionTable = MbrPartitionTable.plan(
+                    partitionState, storageDeviceSize, sectorSize,
+                    FlashGeometryProbe.probe(storageDevice),
+                    storageDevice.isRemovable(), exchangeMB, persistenceMB,
+                    exchangeFileSystem);
+
+            // Write a completely new partition table (including the
+            // partition types and boot flags) in one go. This also wipes the
+            // start and end of the device, otherwise USB flash drives
+            // previously written with a dd'ed ISO will NOT work!
+            try {
+                partitionTable.write(device);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, "", ex);
+                String errorMessage
+                        = STRINGS.getString("Error_Creating_Partition_Table");
+                errorMessage = MessageFormat.format(errorMessage, device);
+                LOGGER.severe(errorMessage);
                 throw new IOException(errorMessage);
+            }
+            if (!MbrPartitionTable.rereadPartitionTable(device)) {
+                String errorMessage
+                        = STRINGS.getString("Error_Repartitioning");
+                errorMessage = MessageFormat.format(errorMessage, device);
+                LOGGER.severe(errorMessage);
+                throw new IOException(errorMessage);
+            }
+
+            // wait until the new partitions are known to the system
+            DeviceSettler.waitForPartitions(7, partitionTable,
+                    exchangeDevice, persistenceDevice, efiDevice,
+                    systemDevice);
         }
 
         // create file systems
         switch (partitionState) {
             case ONLY_SYSTEM:
-                formatEfiAndSystemPartition(efiDevice, systemDevice);
-                return;
+                return formatEfiAndSystemPartition(
+                        efiDevice, systemDevice, keepSystemPartition);
 
             case PERSISTENCE:
                 formatPersistencePartition(persistenceDevice,
                         installerOrUpgrader.getDataPartitionFileSystem(),
                         dlCopyGUI);
-                formatEfiAndSystemPartition(efiDevice, systemDevice);
-                return;
+                return formatEfiAndSystemPartition(
+                        efiDevice, systemDevice, keepSystemPartition);
 
             case EXCHANGE:
                 if (exchangeMB != 0) {
@@ -1500,8 +1768,8 @@ public class DLCopy {
                             installerOrUpgrader.getDataPartitionFileSystem(),
                             dlCopyGUI);
                 }
-                formatEfiAndSystemPartition(efiDevice, systemDevice);
-                return;
+                return formatEfiAndSystemPartition(
+                        efiDevice, systemDevice, keepSystemPartition);
 
             default:
                 String errorMessage = "unsupported partitionState \""
@@ -1511,41 +1779,158 @@ public class DLCopy {
         }
     }
 
-    private static void copyExchangeEfiAndSystem(SystemSource source,
-            FileCopier fileCopier, StorageDevice storageDevice,
-            Partition destinationExchangePartition,
-            Partition destinationEfiPartition,
-            Partition destinationSystemPartition,
+    /**
+     * copies the exchange, EFI and system files to a target storage device
+     *
+     * @param source the system source
+     * @param fileCopier the FileCopier used for copying the files
+     * @param destinationPartitions the partitions of the target storage device
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param dlCopyGUI the program GUI
+     * @throws InterruptedException when the installation was interrupted
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static void copyExchangeEfiAndSystem(SystemSource source,
+            FileCopier fileCopier, DestinationPartitions destinationPartitions,
             InstallerOrUpgrader installerOrUpgrader, DLCopyGUI dlCopyGUI)
             throws InterruptedException, IOException, DBusException {
 
+        CopyJobsInfo copyJobsInfo = prepareExchangeEfiAndSystemCopyJobs(
+                source, destinationPartitions, installerOrUpgrader);
+
+        // copy all files (the large files with paced writeback)
+        StorageDevice storageDevice = destinationPartitions.getStorageDevice();
+        LargeFileCopier largeFileCopier
+                = new LargeFileCopier(destinationPartitions.getDevice());
+        CopyJob[] copyJobs = largeFileCopier.split(
+                copyJobsInfo.getCopyJobs());
+        PageCacheHints pageCacheHints = new PageCacheHints(
+                "installing " + destinationPartitions.getDevice());
+        pageCacheHints.addCopyJobs(copyJobsInfo.getCopyJobs());
+        pageCacheHints.start();
+        try {
+            if (largeFileCopier.hasFiles()) {
+                installerOrUpgrader.showCopyingLargeFiles(
+                        storageDevice, largeFileCopier);
+                largeFileCopier.copy();
+            }
+            installerOrUpgrader.showCopyingFiles(storageDevice, fileCopier);
+            fileCopier.copy(copyJobs);
+        } finally {
+            pageCacheHints.stop();
+        }
+
+        finishExchangeEfiAndSystemCopy(source, destinationPartitions,
+                copyJobsInfo, installerOrUpgrader, dlCopyGUI);
+    }
+
+    /**
+     * mounts the exchange, EFI and system partitions of a target storage
+     * device and prepares the CopyJobs for them
+     *
+     * @param source the system source
+     * @param destinationPartitions the partitions of the target storage device
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @return the CopyJobsInfo for the target storage device
+     * @throws DBusException when there was a problem with DBus
+     * @throws IOException when an outdated reused system partition could not
+     * be cleaned up
+     */
+    public static CopyJobsInfo prepareExchangeEfiAndSystemCopyJobs(
+            SystemSource source, DestinationPartitions destinationPartitions,
+            InstallerOrUpgrader installerOrUpgrader)
+            throws DBusException, IOException {
+
+        Partition destinationExchangePartition
+                = destinationPartitions.getExchangePartition();
+
         // define CopyJob for exchange paritition
         String destinationExchangePath = null;
         CopyJob exchangeCopyJob = null;
         if (installerOrUpgrader instanceof Installer) {
             Installer installer = (Installer) installerOrUpgrader;
             if (installer.isCopyExchangePartitionSelected()) {
-                destinationExchangePath
-                        = destinationExchangePartition.mount().getMountPath();
-                exchangeCopyJob = new CopyJob(
-                        new Source[]{source.getExchangeCopySource()},
-                        new String[]{destinationExchangePath});
+                // clone only the used blocks if possible, the destination
+                // file system must not be mounted while cloning
+                Partition sourceExchangePartition
+                        = source.getExchangePartition();
+                boolean cloned = false;
+                if (sourceExchangePartition != null) {
+                    UsedBlockCloner usedBlockCloner = new UsedBlockCloner(
+                            "/dev/" + sourceExchangePartition
+                            .getDeviceAndNumber(), "/dev/"
+                            + destinationExchangePartition
+                            .getDeviceAndNumber());
+                    if (usedBlockCloner.canClone()) {
+                        installer.showCloningPartition(
+                                destinationPartitions.getStorageDevice());
+                        usedBlockCloner.cloneAndGrow();
+                        cloned = true;
+                    }
+                }
+                destinationExchangePath = MountProfile.mountForBulkWrite(
+                        destinationExchangePartition).getMountPath();
+                if (!cloned) {
+                    exchangeCopyJob = new CopyJob(
+                            new Source[]{source.getExchangeCopySource()},
+                            new String[]{destinationExchangePath});
+                }
             }
         }
 
         // define CopyJobs for efi and system parititions
         CopyJobsInfo copyJobsInfo = prepareEfiAndSystemCopyJobs(source,
-                storageDevice, destinationEfiPartition,
-                destinationExchangePartition, destinationSystemPartition,
+                destinationPartitions.getStorageDevice(),
+                destinationPartitions.getEfiPartition(),
+                destinationExchangePartition,
+                destinationPartitions.getSystemPartition(),
                 installerOrUpgrader.getExhangePartitionFileSystem());
 
-        // copy all files
-        installerOrUpgrader.showCopyingFiles(fileCopier);
+        // only copy the missing files to a reused system partition
+        CopyJob systemCopyJob = copyJobsInfo.getSystemCopyJob();
+        if (destinationPartitions.isSystemPartitionReused()) {
+            systemCopyJob = DeltaSystemCopy.prepare(
+                    source.getSystemCopySourceFull(),
+                    copyJobsInfo.getDestinationSystemPath());
+        }
 
-        CopyJob efiFilesCopyJob = copyJobsInfo.getExchangeEfiCopyJob();
-        fileCopier.copy(exchangeCopyJob, efiFilesCopyJob,
-                copyJobsInfo.getEfiCopyJob(), copyJobsInfo.getSystemCopyJob());
+        return new CopyJobsInfo(copyJobsInfo.getDestinationEfiPath(),
+                copyJobsInfo.getDestinationSystemPath(),
+                copyJobsInfo.getEfiCopyJob(),
+                copyJobsInfo.getExchangeEfiCopyJob(),
+                systemCopyJob,
+                destinationExchangePath, exchangeCopyJob);
+    }
+
+    /**
+     * post-processes the copied files on the exchange, EFI and system
+     * partitions of a target storage device and unmounts the exchange
+     * partition
+     *
+     * @param source the system source
+     * @param destinationPartitions the partitions of the target storage device
+     * @param copyJobsInfo the CopyJobsInfo used when copying the files
+     * @param installerOrUpgrader the Installer or Upgrader that is calling this
+     * method
+     * @param dlCopyGUI the program GUI
+     * @throws IOException when an I/O exception occurs
+     * @throws DBusException when there was a problem with DBus
+     */
+    public static void finishExchangeEfiAndSystemCopy(SystemSource source,
+            DestinationPartitions destinationPartitions,
+            CopyJobsInfo copyJobsInfo, InstallerOrUpgrader installerOrUpgrader,
+            DLCopyGUI dlCopyGUI) throws IOException, DBusException {
 
+        StorageDevice storageDevice = destinationPartitions.getStorageDevice();
+        Partition destinationExchangePartition
+                = destinationPartitions.getExchangePartition();
+        String destinationExchangePath
+                = copyJobsInfo.getDestinationExchangePath();
+
+        CopyJob efiFilesCopyJob = copyJobsInfo.getExchangeEfiCopyJob();
         if (efiFilesCopyJob != null) {
             // The exchange partition is FAT32 on a removable media and
             // therefore we have to copy the efi files not only to the efi
@@ -1573,11 +1958,15 @@ public class DLCopy {
         }
 
         // update GUI
-        installerOrUpgrader.showUnmounting();
+        installerOrUpgrader.showUnmounting(storageDevice);
 
-        source.unmountTmpPartitions();
-        if (destinationExchangePath != null) {
-            destinationExchangePartition.umount();
+        installerOrUpgrader.unmountSourceTmpPartitions();
+        if ((destinationExchangePath != null)
+                && !MountProfile.umount(destinationExchangePartition)) {
+            String errorMessage
+                    = "could not umount destination exchange partition";
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
         }
 
         String destinationSystemPath = copyJobsInfo.getDestinationSystemPath();
@@ -1599,7 +1988,8 @@ public class DLCopy {
 
     private static void copyPersistence(SystemSource source,
             InstallerOrUpgrader installerOrUpgrader,
-            Partition destinationDataPartition, DLCopyGUI dlCopyGUI)
+            StorageDevice storageDevice, Partition destinationDataPartition,
+            DLCopyGUI dlCopyGUI)
             throws IOException, InterruptedException, DBusException {
 
         // some early checks and returns...
@@ -1614,56 +2004,113 @@ public class DLCopy {
             return;
         }
 
-        // mount persistence source
-        MountInfo sourceDataMountInfo = source.getDataPartition().mount();
-        String sourceDataPath = sourceDataMountInfo.getMountPath();
-        if (sourceDataPath == null) {
-            String errorMessage = "could not mount source data partition";
-            throw new IOException(errorMessage);
-        }
-
-        // mount persistence destination
-        MountInfo destinationDataMountInfo = destinationDataPartition.mount();
-        String destinationDataPath = destinationDataMountInfo.getMountPath();
-        if (destinationDataPath == null) {
-            String errorMessage = "could not mount destination data partition";
-            throw new IOException(errorMessage);
-        }
+        // The data partition is encrypted, its file system is in the LUKS
+        // mapping (which UDisks doesn't know as a partition).
+        String mapperDevice = openPersistenceMapping(
+                destinationDataPartition.getDeviceAndNumber());
+        try {
+            // Clone only the used blocks if possible (much faster than
+            // copying many small files), otherwise copy file by file. The
+            // active persistence of the running system is mounted read-write
+            // and can't be cloned consistently, it is always copied file by
+            // file.
+            UsedBlockCloner usedBlockCloner = new UsedBlockCloner(
+                    getFileSystemDevice(source.getDataPartition()),
+                    mapperDevice);
+            boolean cloned = usedBlockCloner.canClone();
+            if (cloned) {
+                installer.showCloningPartition(storageDevice);
+                usedBlockCloner.cloneAndGrow();
+            }
 
-        // TODO: use filecopier as soon as it supports symlinks etc.
-        copyPersistenceCp(installer, sourceDataPath,
-                destinationDataPath, dlCopyGUI);
+            // mount persistence destination
+            String destinationDataPath
+                    = MountProfile.mountForBulkWrite(mapperDevice);
+
+            if (!cloned) {
+                // mount persistence source
+                // (the mount is shared with concurrent installations)
+                String sourceDataPath = source.mountDataPartition();
+                try {
+                    TreeCopier treeCopier = new TreeCopier(
+                            sourceDataPath, destinationDataPath);
+                    installer.showCopyingDataPartition(
+                            storageDevice, treeCopier);
+                    treeCopier.copy();
+                } finally {
+                    source.umountDataPartition();
+                }
+            }
 
-        // remove original ssh config to make it unique for every system
-        removeSshConfig(destinationDataPath);
+            // remove original ssh config to make it unique for every system
+            removeSshConfig(destinationDataPath);
 
-        // update GUI
-        dlCopyGUI.showInstallUnmounting();
+            // update GUI
+            installer.showUnmounting(storageDevice);
 
-        // umount both source and destination persistence partitions
-        //  (only if there were not mounted before)
-        if (!sourceDataMountInfo.alreadyMounted()) {
-            source.getDataPartition().umount();
+            // umount destination persistence partition
+            if (!MountProfile.umount(mapperDevice)) {
+                String errorMessage
+                        = "could not umount destination data partition";
+                LOGGER.severe(errorMessage);
+                throw new IOException(errorMessage);
+            }
+        } finally {
+            closePersistenceMapping(mapperDevice);
         }
-        if (!destinationDataMountInfo.alreadyMounted()) {
-            destinationDataPartition.umount();
+    }
+
+    private static String getFileSystemDevice(Partition partition) {
+        // the file system of an opened LUKS partition is in its mapping
+        String name = partition.getDeviceAndNumber();
+        File[] holders = new File(
+                "/sys/class/block/" + name + "/holders").listFiles();
+        if (holders != null) {
+            for (File holder : holders) {
+                File mapperName = new File(holder, "dm/name");
+                if (mapperName.exists()) {
+                    try {
+                        return "/dev/mapper/"
+                                + readOneLineFile(mapperName).trim();
+                    } catch (IOException ex) {
+                        LOGGER.log(Level.WARNING, "", ex);
+                    }
+                }
+            }
         }
+        return "/dev/" + name;
     }
 
-    private static void mkpart(List<String> commandList,
-            String start, String end) {
-        commandList.add("mkpart");
-        commandList.add("primary");
-        commandList.add(start);
-        commandList.add(end);
+    private static String getPartitionDevice(
+            StorageDevice storageDevice, int number) {
+        boolean sdDevice = (storageDevice.getType()
+                == StorageDevice.Type.SDMemoryCard);
+        return "/dev/" + storageDevice.getDevice() + (sdDevice ? "p" : "")
+                + number;
     }
 
-    private static void setFlag(List<String> commandList,
-            String partition, String flag, String value) {
-        commandList.add("set");
-        commandList.add(partition);
-        commandList.add(flag);
-        commandList.add(value);
+    private static Partition getCopiedPartition(StorageDevice storageDevice,
+            Partition goldenPartition) throws DBusException {
+        if (goldenPartition == null) {
+            return null;
+        }
+        String device = getPartitionDevice(
+                storageDevice, goldenPartition.getNumber());
+        return Partition.getPartitionFromDeviceAndNumber(device.substring(5));
+    }
+
+    private static void changeFileSystemId(String device, String... command)
+            throws IOException {
+        int exitValue = PROCESS_EXECUTOR.get().executeProcess(
+                true, true, command);
+        if (exitValue != 0) {
+            LOGGER.severe(PROCESS_EXECUTOR.get().getOutput());
+            String errorMessage
+                    = STRINGS.getString("Error_Changing_File_System_ID");
+            errorMessage = MessageFormat.format(errorMessage, device);
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
     }
 
     /**
@@ -1680,20 +2127,20 @@ public class DLCopy {
             throws IOException {
 
         // create file system for exchange partition
-        String exchangePartitionID;
+        byte exchangePartitionID;
         String mkfsBuilder;
         String mkfsLabelSwitch;
         String quickSwitch = null;
         if (fileSystem.equalsIgnoreCase("fat32")) {
-            exchangePartitionID = "c";
+            exchangePartitionID = MbrPartitionTable.TYPE_FAT32;
             mkfsBuilder = "vfat";
             mkfsLabelSwitch = "-n";
         } else if (fileSystem.equalsIgnoreCase("exfat")) {
-            exchangePartitionID = "7";
+            exchangePartitionID = MbrPartitionTable.TYPE_NTFS;
             mkfsBuilder = "exfat";
             mkfsLabelSwitch = "-n";
         } else {
-            exchangePartitionID = "7";
+            exchangePartitionID = MbrPartitionTable.TYPE_NTFS;
             mkfsBuilder = "ntfs";
             quickSwitch = "-f";
             mkfsLabelSwitch = "-L";
@@ -1710,13 +2157,28 @@ public class DLCopy {
         // So that we continue to reliably detect exchange partitions even after
         // reformatting them with a different file system we have to adopt the
         // partition type according to the file system we use.
-        Pattern pattern = Pattern.compile("(.*)(\\p{Digit}+)");
+        // split device into storage device and partition number
+        // (e.g. "/dev/sdb1" or "/dev/mmcblk0p1")
+        Pattern pattern = Pattern.compile(
+                "(.*?)(?:(?<=\\p{Digit})p)?(\\p{Digit}+)");
         Matcher matcher = pattern.matcher(device);
+        boolean typeChanged = false;
         if (matcher.matches()) {
-            PROCESS_EXECUTOR.executeProcess("/sbin/sfdisk", "--id",
-                    matcher.group(1), matcher.group(2), exchangePartitionID);
+            String storageDevice = matcher.group(1);
+            try {
+                typeChanged = MbrPartitionTable.setPartitionType(
+                        storageDevice, Integer.parseInt(matcher.group(2)),
+                        exchangePartitionID);
+                if (typeChanged) {
+                    MbrPartitionTable.rereadPartitionTable(storageDevice);
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+            }
+        }
+        if (typeChanged) {
             try {
-                TimeUnit.SECONDS.sleep(7);
+                DeviceSettler.settle(7);
             } catch (InterruptedException ex) {
                 LOGGER.log(Level.SEVERE, "", ex);
             }
@@ -1735,11 +2197,11 @@ public class DLCopy {
 
         int exitValue;
         if (quickSwitch == null) {
-            exitValue = PROCESS_EXECUTOR.executeProcess(
+            exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "/sbin/mkfs." + mkfsBuilder, mkfsLabelSwitch,
                     label, device);
         } else {
-            exitValue = PROCESS_EXECUTOR.executeProcess(
+            exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "/sbin/mkfs." + mkfsBuilder, quickSwitch, mkfsLabelSwitch,
                     label, device);
         }
@@ -1775,18 +2237,6 @@ public class DLCopy {
         throw new IOException("could not parse " + debianVersionPath);
     }
 
-    private static void copyPersistenceCp(Installer installer,
-            String persistenceSourcePath, String persistenceDestinationPath,
-            DLCopyGUI dlCopyGUI)
-            throws InterruptedException, IOException {
-        // this needs to be a script because of the shell globbing
-        String copyScript = "#!/bin/bash\n"
-                + "cp -av \"" + persistenceSourcePath + "/\"* \""
-                + persistenceDestinationPath + "/\"";
-        dlCopyGUI.showInstallPersistencyCopy(
-                installer, copyScript, persistenceSourcePath);
-    }
-
     private static void umountPartitions(String device, DLCopyGUI dlCopyGUI)
             throws IOException {
         LOGGER.log(Level.FINEST, "umountPartitions({0})", device);
@@ -1800,7 +2250,15 @@ public class DLCopy {
         }
     }
 
-    private static boolean isMounted(String device) throws IOException {
+    /**
+     * checks if a storage device (or any of its partitions) is mounted
+     *
+     * @param device the device file (e.g. "/dev/sdb")
+     * @return <tt>true</tt> if the storage device (or any of its partitions)
+     * is mounted, <tt>false</tt> otherwise
+     * @throws IOException if reading the list of mounts failed
+     */
+    public static boolean isMounted(String device) throws IOException {
         List<String> mounts
                 = LernstickFileTools.readFile(new File("/proc/mounts"));
         for (String mount : mounts) {
@@ -1833,7 +2291,7 @@ public class DLCopy {
         }
 
         if (disableSwap) {
-            int exitValue = PROCESS_EXECUTOR.executeProcess(
+            int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "swapoff", swapFile);
             if (exitValue != 0) {
                 String errorMessage = STRINGS.getString("Error_Swapoff_File");
@@ -1866,7 +2324,7 @@ public class DLCopy {
         }
 
         if (disableSwap) {
-            int exitValue = PROCESS_EXECUTOR.executeProcess(
+            int exitValue = PROCESS_EXECUTOR.get().executeProcess(
                     "swapoff", swapFile);
             if (exitValue != 0) {
                 String errorMessage
@@ -1887,7 +2345,7 @@ public class DLCopy {
      * @return the StorageDevice for a given dbus path
      * @throws DBusException if a dbus exception occurs
      */
-    private static StorageDevice getStorageDevice(
+    public static StorageDevice getStorageDevice(
             String path, boolean includeHardDisks) throws DBusException {
 
         LOGGER.log(Level.FINE, "path: {0}", path);
@@ -1909,6 +2367,15 @@ public class DLCopy {
             size = size64.longValue();
             deviceFile = deviceProperties.Get(interfaceName, "DeviceFile");
         } else {
+            StorageDeviceInventory.BlockObject blockObject
+                    = StorageDeviceInventory.getInstance().getBlockObject(path);
+            if ((blockObject != null)
+                    && (blockObject.getDeviceFile() != null)) {
+                return getStorageDevice(path, blockObject.isDrive(),
+                        blockObject.isLoop(), blockObject.getSize(),
+                        blockObject.getDeviceFile(), includeHardDisks);
+            }
+            // not yet in the inventory, ask UDisks directly
             String prefix = "org.freedesktop.UDisks2.";
             try {
                 List<String> interfaceNames = DbusTools.getInterfaceNames(path);
@@ -1925,6 +2392,13 @@ public class DLCopy {
                     prefix + "Block", "Device");
             deviceFile = new String(DbusTools.removeNullByte(array));
         }
+        return getStorageDevice(
+                path, isDrive, isLoop, size, deviceFile, includeHardDisks);
+    }
+
+    private static StorageDevice getStorageDevice(String path,
+            Boolean isDrive, Boolean isLoop, long size, String deviceFile,
+            boolean includeHardDisks) {
 
         LOGGER.log(Level.FINE, "{0} isDrive: {1}", new Object[]{path, isDrive});
         LOGGER.log(Level.FINE, "{0} isLoop: {1}", new Object[]{path, isLoop});
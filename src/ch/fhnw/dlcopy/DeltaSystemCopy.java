@@ -0,0 +1,166 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.Source;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Prepares copying the system files to a system partition that was kept from
+ * a previous installation. The large live system files that are already
+ * identical on the system partition are kept, all other files are removed
+ * and copied again (the boot files are adapted after copying and therefore
+ * can't be compared with the source). The kept files are always read and
+ * hashed on the system partition, the md5sum.txt there is never trusted
+ * because it doesn't tell if the files were damaged in the meantime.
+ */
+public class DeltaSystemCopy {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DeltaSystemCopy.class.getName());
+    private static final String MD5SUM_FILE = "md5sum.txt";
+    private static final String LOST_AND_FOUND = "lost+found";
+
+    /**
+     * removes all outdated files from the system partition and returns the
+     * CopyJob for the missing files
+     *
+     * @param systemSource the source of the system files
+     * @param destinationPath the mount path of the system partition
+     * @return the CopyJob for all files that are not yet on the system
+     * partition
+     * @throws IOException if an I/O exception occurs
+     */
+    public static CopyJob prepare(Source systemSource, String destinationPath)
+            throws IOException {
+
+        final Path sourceRoot = systemSource.getBaseDirectory().toPath();
+        final Path destinationRoot = new File(destinationPath).toPath();
+        Map<String, String> sourceMd5Sums = DLCopy.readMd5Sums(
+                sourceRoot.resolve(MD5SUM_FILE).toFile());
+
+        // determine the files we can keep (only the live system files are
+        // large enough to be worth it)
+        final Set<String> keptFiles = new HashSet<>();
+        Path liveDirectory = sourceRoot.resolve("live");
+        if (Files.isDirectory(liveDirectory)) {
+            try (DirectoryStream<Path> stream
+                    = Files.newDirectoryStream(liveDirectory)) {
+                for (Path sourceFile : stream) {
+                    String relativePath = getRelativePath(
+                            sourceRoot, sourceFile);
+                    if (systemSource.getPattern().matcher(
+                            relativePath).matches()
+                            && isIdentical(sourceFile,
+                                    destinationRoot.resolve(relativePath),
+                                    sourceMd5Sums.get(relativePath))) {
+                        keptFiles.add(relativePath);
+                    }
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "keeping {0} in {1}",
+                new Object[]{keptFiles, destinationPath});
+
+        // remove everything else
+        Files.walkFileTree(destinationRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attributes) {
+                if (dir.equals(destinationRoot.resolve(LOST_AND_FOUND))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attributes) throws IOException {
+                if (!keptFiles.contains(
+                        getRelativePath(destinationRoot, file))) {
+                    Files.delete(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir,
+                    IOException exception) throws IOException {
+                if (exception != null) {
+                    throw exception;
+                }
+                if (!dir.equals(destinationRoot)) {
+                    try {
+                        Files.delete(dir);
+                    } catch (DirectoryNotEmptyException ex) {
+                        // contains kept files
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // copy all files matching the source pattern except the kept files
+        String pattern = systemSource.getPattern().pattern();
+        if (!keptFiles.isEmpty()) {
+            StringBuilder exclusion = new StringBuilder();
+            for (String keptFile : keptFiles) {
+                if (exclusion.length() > 0) {
+                    exclusion.append('|');
+                }
+                exclusion.append(Pattern.quote(keptFile));
+            }
+            pattern = "(?!(?:" + exclusion + ")$)(?:" + pattern + ')';
+        }
+        return new CopyJob(
+                new Source[]{new Source(sourceRoot.toString(), pattern)},
+                new String[]{destinationPath});
+    }
+
+    private static boolean isIdentical(Path sourceFile, Path destinationFile,
+            String sourceMd5Sum) throws IOException {
+
+        if (!Files.isRegularFile(sourceFile)
+                || !Files.isRegularFile(destinationFile)
+                || (Files.size(sourceFile) != Files.size(destinationFile))) {
+            return false;
+        }
+        try {
+            // The md5sum.txt of the source describes the source files, so we
+            // only have to read the source file when it is not listed there.
+            if (sourceMd5Sum == null) {
+                sourceMd5Sum = DLCopy.getMd5String(sourceFile.toString());
+            }
+            String destinationMd5Sum
+                    = DLCopy.getMd5String(destinationFile.toString());
+            if (!sourceMd5Sum.equalsIgnoreCase(destinationMd5Sum)) {
+                LOGGER.log(Level.INFO, "{0} differs from the source",
+                        destinationFile);
+                return false;
+            }
+            return true;
+        } catch (NoSuchAlgorithmException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return false;
+        }
+    }
+
+    private static String getRelativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar,
+                '/');
+    }
+}
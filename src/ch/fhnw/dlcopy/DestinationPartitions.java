@@ -0,0 +1,130 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.Partition;
+import ch.fhnw.util.StorageDevice;
+
+/**
+ * The freshly created partitions of a destination storage device
+ */
+public class DestinationPartitions {
+
+    private final StorageDevice storageDevice;
+    private final Partition exchangePartition;
+    private final Partition dataPartition;
+    private final Partition efiPartition;
+    private final Partition systemPartition;
+    private final boolean systemPartitionReused;
+
+    /**
+     * creates new DestinationPartitions
+     *
+     * @param storageDevice the destination storage device
+     * @param exchangePartition the exchange partition or <tt>null</tt> if
+     * there is no exchange partition
+     * @param dataPartition the data partition or <tt>null</tt> if there is no
+     * data partition
+     * @param efiPartition the EFI partition
+     * @param systemPartition the system partition
+     */
+    public DestinationPartitions(StorageDevice storageDevice,
+            Partition exchangePartition, Partition dataPartition,
+            Partition efiPartition, Partition systemPartition) {
+        this(storageDevice, exchangePartition, dataPartition, efiPartition,
+                systemPartition, false);
+    }
+
+    /**
+     * creates new DestinationPartitions
+     *
+     * @param storageDevice the destination storage device
+     * @param exchangePartition the exchange partition or <tt>null</tt> if
+     * there is no exchange partition
+     * @param dataPartition the data partition or <tt>null</tt> if there is no
+     * data partition
+     * @param efiPartition the EFI partition
+     * @param systemPartition the system partition
+     * @param systemPartitionReused if the file system of the system partition
+     * was kept from a previous installation
+     */
+    public DestinationPartitions(StorageDevice storageDevice,
+            Partition exchangePartition, Partition dataPartition,
+            Partition efiPartition, Partition systemPartition,
+            boolean systemPartitionReused) {
+        this.storageDevice = storageDevice;
+        this.exchangePartition = exchangePartition;
+        this.dataPartition = dataPartition;
+        this.efiPartition = efiPartition;
+        this.systemPartition = systemPartition;
+        this.systemPartitionReused = systemPartitionReused;
+    }
+
+    /**
+     * returns the destination storage device
+     *
+     * @return the destination storage device
+     */
+    public StorageDevice getStorageDevice() {
+        return storageDevice;
+    }
+
+    /**
+     * returns the device file of the destination storage device (e.g.
+     * "/dev/sdb")
+     *
+     * @return the device file of the destination storage device
+     */
+    public String getDevice() {
+        return "/dev/" + storageDevice.getDevice();
+    }
+
+    /**
+     * returns the exchange partition or <tt>null</tt> if there is no exchange
+     * partition
+     *
+     * @return the exchange partition or <tt>null</tt> if there is no exchange
+     * partition
+     */
+    public Partition getExchangePartition() {
+        return exchangePartition;
+    }
+
+    /**
+     * returns the data partition or <tt>null</tt> if there is no data
+     * partition
+     *
+     * @return the data partition or <tt>null</tt> if there is no data
+     * partition
+     */
+    public Partition getDataPartition() {
+        return dataPartition;
+    }
+
+    /**
+     * returns the EFI partition
+     *
+     * @return the EFI partition
+     */
+    public Partition getEfiPartition() {
+        return efiPartition;
+    }
+
+    /**
+     * returns the system partition
+     *
+     * @return the system partition
+     */
+    public Partition getSystemPartition() {
+        return systemPartition;
+    }
+
+    /**
+     * returns true if the file system of the system partition was kept from
+     * a previous installation, false otherwise
+     *
+     * @return true if the file system of the system partition was kept from
+     * a previous installation, false otherwise
+     */
+    public boolean isSystemPartitionReused() {
+        return systemPartitionReused;
+    }
+}
@@ -0,0 +1,213 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.DbusTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Waits until the kernel, udev and UDisks have published changes of storage
+ * devices (new partition tables, partitions or file systems). When the
+ * changes can't be observed the old fixed waiting times are used as a
+ * fallback. When the changes can be observed but don't show up in time an
+ * IOException is thrown.
+ */
+public class DeviceSettler {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(DeviceSettler.class.getName());
+    private static final String UDISKS2_PREFIX = "org.freedesktop.UDisks2.";
+    private static final String BLOCK_DEVICES_PATH
+            = "/org/freedesktop/UDisks2/block_devices/";
+    private static final long TIMEOUT = 30;
+    private static final long POLL_INTERVAL = 100;
+    private static final Pattern PARTITION_PATTERN
+            = Pattern.compile("(.*?)(?:(?<=\\p{Digit})p)?(\\p{Digit}+)");
+
+    /**
+     * waits until all pending udev events have been processed
+     *
+     * @param fallbackSeconds the number of seconds to sleep when udev can't
+     * be asked
+     * @throws InterruptedException if waiting was interrupted
+     */
+    public static void settle(long fallbackSeconds)
+            throws InterruptedException {
+        if (!udevSettle()) {
+            LOGGER.log(Level.WARNING,
+                    "udevadm settle failed, sleeping {0} seconds",
+                    fallbackSeconds);
+            TimeUnit.SECONDS.sleep(fallbackSeconds);
+        }
+    }
+
+    /**
+     * waits until the kernel and UDisks know about the given partitions
+     *
+     * @param fallbackSeconds the number of seconds to sleep when the
+     * partitions can't be observed
+     * @param partitionDevices the device files of the partitions (e.g.
+     * "/dev/sdb1")
+     * @throws InterruptedException if waiting was interrupted
+     * @throws IOException if the partitions didn't show up in time
+     */
+    public static void waitForPartitions(long fallbackSeconds,
+            String... partitionDevices)
+            throws InterruptedException, IOException {
+        waitForInterface(fallbackSeconds, "Partition", partitionDevices);
+    }
+
+    /**
+     * waits until the kernel and UDisks know about the given partitions of a
+     * new partition table. Partition objects of the previous partition table
+     * are not accepted, every partition must have the offset and size of its
+     * entry in the new partition table.
+     *
+     * @param fallbackSeconds the number of seconds to sleep when the
+     * partitions can't be observed
+     * @param partitionTable the new partition table
+     * @param partitionDevices the device files of the partitions (e.g.
+     * "/dev/sdb1")
+     * @throws InterruptedException if waiting was interrupted
+     * @throws IOException if the partitions didn't show up in time
+     */
+    public static void waitForPartitions(long fallbackSeconds,
+            MbrPartitionTable partitionTable, String... partitionDevices)
+            throws InterruptedException, IOException {
+
+        if (!canObserve(fallbackSeconds)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        for (String partitionDevice : partitionDevices) {
+            if (partitionDevice == null) {
+                continue;
+            }
+            Matcher matcher = PARTITION_PATTERN.matcher(partitionDevice);
+            if (!matcher.matches()) {
+                throw new IOException(
+                        partitionDevice + " is no partition device");
+            }
+            int number = Integer.parseInt(matcher.group(2));
+            long offset = partitionTable.getOffset(number);
+            long size = partitionTable.getSize(number);
+            while (!hasPartition(partitionDevice, offset, size)) {
+                checkDeadline(deadline, "Partition", partitionDevice);
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL);
+            }
+        }
+        LOGGER.log(Level.INFO, "new partitions settled after {0} ms",
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * waits until UDisks knows about the file systems on the given partitions
+     *
+     * @param fallbackSeconds the number of seconds to sleep when the file
+     * systems can't be observed
+     * @param partitionDevices the device files of the partitions (e.g.
+     * "/dev/sdb1")
+     * @throws InterruptedException if waiting was interrupted
+     * @throws IOException if the file systems didn't show up in time
+     */
+    public static void waitForFileSystems(long fallbackSeconds,
+            String... partitionDevices)
+            throws InterruptedException, IOException {
+        waitForInterface(fallbackSeconds, "Filesystem", partitionDevices);
+    }
+
+    private static void waitForInterface(long fallbackSeconds,
+            String interfaceName, String... partitionDevices)
+            throws InterruptedException, IOException {
+
+        if (!canObserve(fallbackSeconds)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        for (String partitionDevice : partitionDevices) {
+            if (partitionDevice == null) {
+                continue;
+            }
+            while (!hasInterface(partitionDevice, interfaceName)) {
+                checkDeadline(deadline, interfaceName, partitionDevice);
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL);
+            }
+        }
+        LOGGER.log(Level.INFO, "{0} settled after {1} ms", new Object[]{
+            interfaceName, System.currentTimeMillis() - start});
+    }
+
+    private static boolean canObserve(long fallbackSeconds)
+            throws InterruptedException {
+        if (!udevSettle()
+                || (DbusTools.DBUS_VERSION != DbusTools.DbusVersion.V2)) {
+            // we can't observe UDisks, fall back to a fixed wait
+            LOGGER.log(Level.INFO, "sleeping {0} seconds", fallbackSeconds);
+            TimeUnit.SECONDS.sleep(fallbackSeconds);
+            return false;
+        }
+        return true;
+    }
+
+    private static void checkDeadline(long deadline, String interfaceName,
+            String partitionDevice) throws IOException {
+        if (System.currentTimeMillis() > deadline) {
+            String errorMessage = "timeout while waiting for "
+                    + interfaceName + " of " + partitionDevice;
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+    }
+
+    private static boolean hasPartition(
+            String partitionDevice, long offset, long size) {
+        if (!hasInterface(partitionDevice, "Partition")) {
+            return false;
+        }
+        String path = BLOCK_DEVICES_PATH + new File(partitionDevice).getName();
+        String partitionInterface = UDISKS2_PREFIX + "Partition";
+        try {
+            return (DbusTools.getLongProperty(
+                    path, partitionInterface, "Offset") == offset)
+                    && (DbusTools.getLongProperty(
+                            path, partitionInterface, "Size") == size);
+        } catch (Exception ex) {
+            LOGGER.log(Level.FINEST, "", ex);
+            return false;
+        }
+    }
+
+    private static boolean hasInterface(
+            String partitionDevice, String interfaceName) {
+        // the kernel creates the device file first
+        if (!new File(partitionDevice).exists()) {
+            return false;
+        }
+        String path = BLOCK_DEVICES_PATH + new File(partitionDevice).getName();
+        try {
+            List<String> interfaceNames = DbusTools.getInterfaceNames(path);
+            return interfaceNames.contains(UDISKS2_PREFIX + interfaceName);
+        } catch (Exception ex) {
+            // the object is not yet known to UDisks (or not completely)
+            LOGGER.log(Level.FINEST, "", ex);
+            return false;
+        }
+    }
+
+    private static boolean udevSettle() {
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        int exitValue = processExecutor.executeProcess(
+                "udevadm", "settle", "--timeout=" + TIMEOUT);
+        return exitValue == 0;
+    }
+}
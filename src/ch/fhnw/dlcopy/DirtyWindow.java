@@ -0,0 +1,120 @@
+package ch.fhnw.dlcopy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the amount of dirty data in the page cache per storage device. All
+ * files written to the same storage device (e.g. by a LargeFileCopier and the
+ * writer of a FanOutCopier) share the window of this storage device. Whenever
+ * the window of a storage device is full, every file that is written to the
+ * storage device is synced before writing any more to it. This way slow
+ * storage devices don't fill up the global dirty page pool and don't slow
+ * down the other storage devices that are written at the same time.
+ * <p>
+ * Java has no API for syncing a range of a file (like sync_file_range()),
+ * therefore the files are synced with fdatasync(). As a file is synced
+ * whenever the window is full, only the range written since its last sync is
+ * dirty and fdatasync() only writes this range.
+ */
+public class DirtyWindow {
+
+    /**
+     * A file that is written to the storage device of a DirtyWindow.
+     */
+    public class DirtyFile {
+
+        private final FileChannel channel;
+        private long dirtyBytes;
+
+        private DirtyFile(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * must be called after data was written to the file, blocks until
+         * the file is synced if the window of the storage device is full
+         *
+         * @param byteCount the number of bytes written
+         * @throws IOException if syncing the file failed
+         */
+        public void written(long byteCount) throws IOException {
+            if (add(this, byteCount)) {
+                channel.force(false);
+                clean(this);
+            }
+        }
+
+        /**
+         * must be called when the file is closed, removes the dirty data of
+         * the file from the window
+         */
+        public void closed() {
+            clean(this);
+        }
+    }
+
+    // the chunk size of LargeFileCopier
+    private static final long MIN_SIZE = 4 * DLCopy.MEGA;
+    private static final long DEFAULT_SIZE = 32L * DLCopy.MEGA;
+    private static final Map<String, DirtyWindow> WINDOWS = new HashMap<>();
+    private static volatile long size = DEFAULT_SIZE;
+
+    private long dirtyBytes;
+
+    /**
+     * returns the DirtyWindow of a storage device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @return the DirtyWindow of the storage device
+     */
+    public static synchronized DirtyWindow getInstance(String device) {
+        DirtyWindow dirtyWindow = WINDOWS.get(device);
+        if (dirtyWindow == null) {
+            dirtyWindow = new DirtyWindow();
+            WINDOWS.put(device, dirtyWindow);
+        }
+        return dirtyWindow;
+    }
+
+    /**
+     * sets the maximum amount of dirty data per storage device
+     *
+     * @param size the maximum amount of dirty data per storage device in byte
+     */
+    public static void setSize(long size) {
+        DirtyWindow.size = Math.max(MIN_SIZE, size);
+    }
+
+    /**
+     * returns the maximum amount of dirty data per storage device
+     *
+     * @return the maximum amount of dirty data per storage device in byte
+     */
+    public static long getSize() {
+        return size;
+    }
+
+    /**
+     * registers a file that is written to the storage device of this window
+     *
+     * @param channel the channel of the file
+     * @return the registered file
+     */
+    public DirtyFile open(FileChannel channel) {
+        return new DirtyFile(channel);
+    }
+
+    private synchronized boolean add(DirtyFile dirtyFile, long byteCount) {
+        dirtyFile.dirtyBytes += byteCount;
+        dirtyBytes += byteCount;
+        return dirtyBytes >= size;
+    }
+
+    private synchronized void clean(DirtyFile dirtyFile) {
+        dirtyBytes -= dirtyFile.dirtyBytes;
+        dirtyFile.dirtyBytes = 0;
+    }
+}
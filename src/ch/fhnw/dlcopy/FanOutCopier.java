@@ -0,0 +1,577 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.Source;
+import ch.fhnw.util.StorageDevice;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Copies the files of a set of CopyJobs or a raw image to several storage
+ * devices at the same time while reading every source only once. Every
+ * storage device gets its own writer thread with a bounded buffer queue, so
+ * that slow devices don't need unlimited memory and a failing device can be
+ * dropped without aborting the others. The writeback of every storage device
+ * is paced with its {@link DirtyWindow}.
+ */
+public class FanOutCopier {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(FanOutCopier.class.getName());
+    private static final int CHUNK_SIZE = DLCopy.MEGA;
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+    private static final long OFFER_TIMEOUT = 100;
+    private static final BufferPool BUFFER_POOL = BufferPool.getInstance();
+
+    private final int queueSize;
+    private final Map<StorageDevice, Writer> writers
+            = new IdentityHashMap<>();
+
+    /**
+     * creates a new FanOutCopier with the default buffer queue size
+     */
+    public FanOutCopier() {
+        this(DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * creates a new FanOutCopier
+     *
+     * @param queueSize the maximum number of 1 MiB buffers that are queued
+     * for every storage device
+     */
+    public FanOutCopier(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * copies the given CopyJobs to their storage devices
+     *
+     * @param copyJobs the CopyJobs (some of them may be <tt>null</tt>) of
+     * every storage device
+     * @return the exceptions of all storage devices that failed, the map is
+     * empty when all storage devices were successfully written
+     * @throws IOException if reading the source files failed
+     * @throws InterruptedException if copying was interrupted
+     */
+    public Map<StorageDevice, IOException> copy(
+            Map<StorageDevice, CopyJob[]> copyJobs)
+            throws IOException, InterruptedException {
+
+        // group the destinations by source so that every source is only
+        // expanded and read once
+        Map<String, SourceGroup> sourceGroups = new LinkedHashMap<>();
+        synchronized (writers) {
+            writers.clear();
+            for (Map.Entry<StorageDevice, CopyJob[]> entry
+                    : copyJobs.entrySet()) {
+                StorageDevice storageDevice = entry.getKey();
+                Writer writer = new Writer(storageDevice);
+                writers.put(storageDevice, writer);
+                for (CopyJob copyJob : entry.getValue()) {
+                    if (copyJob == null) {
+                        continue;
+                    }
+                    for (Source source : copyJob.getSources()) {
+                        String key = source.getBaseDirectory().getPath()
+                                + File.pathSeparator
+                                + source.getPattern().pattern()
+                                + File.pathSeparator + source.isRecursive();
+                        SourceGroup sourceGroup = sourceGroups.get(key);
+                        if (sourceGroup == null) {
+                            sourceGroup = new SourceGroup(source);
+                            sourceGroups.put(key, sourceGroup);
+                        }
+                        for (String destination : copyJob.getDestinations()) {
+                            sourceGroup.add(writer, destination);
+                        }
+                    }
+                }
+            }
+        }
+
+        // expand all sources and determine the byte counts
+        for (SourceGroup sourceGroup : sourceGroups.values()) {
+            sourceGroup.expand();
+        }
+
+        return copy(new ArrayList<>(sourceGroups.values()));
+    }
+
+    /**
+     * copies the first bytes of an image file or block device to several
+     * storage devices
+     *
+     * @param image the image file or block device to read
+     * @param size the number of bytes to copy
+     * @param storageDevices the storage devices to write to
+     * @return the exceptions of all storage devices that failed, the map is
+     * empty when all storage devices were successfully written
+     * @throws IOException if reading the image failed
+     * @throws InterruptedException if copying was interrupted
+     */
+    public Map<StorageDevice, IOException> copyImage(File image, long size,
+            List<StorageDevice> storageDevices)
+            throws IOException, InterruptedException {
+
+        SourceGroup sourceGroup = new SourceGroup(image, size);
+        synchronized (writers) {
+            writers.clear();
+            for (StorageDevice storageDevice : storageDevices) {
+                Writer writer = new Writer(storageDevice);
+                writers.put(storageDevice, writer);
+                sourceGroup.add(writer, "/dev/" + storageDevice.getDevice());
+            }
+        }
+
+        List<SourceGroup> sourceGroups = new ArrayList<>();
+        sourceGroups.add(sourceGroup);
+        return copy(sourceGroups);
+    }
+
+    private Map<StorageDevice, IOException> copy(
+            List<SourceGroup> sourceGroups)
+            throws IOException, InterruptedException {
+
+        for (SourceGroup sourceGroup : sourceGroups) {
+            for (Destination destination : sourceGroup.destinations) {
+                destination.writer.byteCount.addAndGet(sourceGroup.byteCount);
+            }
+        }
+
+        List<Writer> writerList;
+        synchronized (writers) {
+            writerList = new ArrayList<>(writers.values());
+        }
+        for (Writer writer : writerList) {
+            writer.start();
+        }
+
+        try {
+            for (SourceGroup sourceGroup : sourceGroups) {
+                copy(sourceGroup);
+            }
+            for (Writer writer : writerList) {
+                writer.enqueue(Task.END);
+            }
+            for (Writer writer : writerList) {
+                writer.join();
+            }
+        } finally {
+            for (Writer writer : writerList) {
+                if (writer.isAlive()) {
+                    writer.interrupt();
+                }
+            }
+        }
+
+        Map<StorageDevice, IOException> failures = new IdentityHashMap<>();
+        for (Writer writer : writerList) {
+            if (writer.exception != null) {
+                failures.put(writer.storageDevice, writer.exception);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * returns the number of bytes that must be copied to a storage device
+     *
+     * @param storageDevice the storage device
+     * @return the number of bytes that must be copied to a storage device
+     */
+    public long getByteCount(StorageDevice storageDevice) {
+        Writer writer = getWriter(storageDevice);
+        return writer == null ? 0 : writer.byteCount.get();
+    }
+
+    /**
+     * returns the number of bytes already copied to a storage device
+     *
+     * @param storageDevice the storage device
+     * @return the number of bytes already copied to a storage device
+     */
+    public long getCopiedBytes(StorageDevice storageDevice) {
+        Writer writer = getWriter(storageDevice);
+        return writer == null ? 0 : writer.copiedBytes.get();
+    }
+
+    private Writer getWriter(StorageDevice storageDevice) {
+        synchronized (writers) {
+            return writers.get(storageDevice);
+        }
+    }
+
+    private void copy(SourceGroup sourceGroup)
+            throws IOException, InterruptedException {
+
+        if (!sourceGroup.raw) {
+            for (Destination destination : sourceGroup.destinations) {
+                destination.writer.enqueue(new Task(Task.Type.MKDIR,
+                        new File(destination.path), null));
+            }
+        }
+
+        for (SourceFile sourceFile : sourceGroup.sourceFiles) {
+            if (sourceFile.file.isDirectory()) {
+                for (Destination destination : sourceGroup.destinations) {
+                    destination.writer.enqueue(new Task(Task.Type.MKDIR,
+                            destination.getFile(sourceFile), null));
+                }
+                continue;
+            }
+
+            for (Destination destination : sourceGroup.destinations) {
+                destination.writer.enqueue(new Task(Task.Type.OPEN,
+                        destination.getFile(sourceFile), null));
+            }
+
+            try (FileChannel channel = new FileInputStream(
+                    sourceFile.file).getChannel()) {
+                // raw images are only read up to their given size
+                long remaining = sourceGroup.raw
+                        ? sourceGroup.byteCount : Long.MAX_VALUE;
+                while (remaining > 0) {
+                    ByteBuffer buffer = BUFFER_POOL.acquire(CHUNK_SIZE);
+                    buffer.limit((int) Math.min(CHUNK_SIZE, remaining));
+                    try {
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer) == -1) {
+                                break;
+                            }
+                        }
+                    } catch (IOException ex) {
+                        BUFFER_POOL.release(buffer);
+                        throw ex;
+                    }
+                    buffer.flip();
+                    if (!buffer.hasRemaining()) {
+                        BUFFER_POOL.release(buffer);
+                        break;
+                    }
+                    remaining -= buffer.remaining();
+                    // every writer gets its own view of the shared buffer
+                    SharedBuffer sharedBuffer = new SharedBuffer(
+                            buffer, sourceGroup.destinations.size());
+                    for (Destination destination : sourceGroup.destinations) {
+                        destination.writer.enqueue(new Task(sharedBuffer));
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE,
+                        "could not read " + sourceFile.file, ex);
+                throw ex;
+            }
+
+            for (Destination destination : sourceGroup.destinations) {
+                if (sourceGroup.raw) {
+                    // make sure that write errors on block devices are
+                    // reported here and not silently lost in the page cache
+                    destination.writer.enqueue(Task.SYNC);
+                }
+                destination.writer.enqueue(Task.CLOSE);
+            }
+        }
+    }
+
+    private static class SourceFile {
+
+        private final File file;
+        private final String relativePath;
+
+        public SourceFile(File file, String relativePath) {
+            this.file = file;
+            this.relativePath = relativePath;
+        }
+    }
+
+    private static class Destination {
+
+        private final Writer writer;
+        private final String path;
+
+        public Destination(Writer writer, String path) {
+            this.writer = writer;
+            this.path = path;
+        }
+
+        public File getFile(SourceFile sourceFile) {
+            if (sourceFile.relativePath == null) {
+                // raw image
+                return new File(path);
+            }
+            return new File(path, sourceFile.relativePath);
+        }
+    }
+
+    private static class SourceGroup {
+
+        private final File baseDirectory;
+        private final Pattern pattern;
+        private final boolean recursive;
+        private final int baseLength;
+        private final boolean raw;
+        private final List<Destination> destinations = new ArrayList<>();
+        private final List<SourceFile> sourceFiles = new ArrayList<>();
+        private long byteCount;
+
+        public SourceGroup(Source source) {
+            baseDirectory = source.getBaseDirectory();
+            pattern = source.getPattern();
+            recursive = source.isRecursive();
+            String basePath = baseDirectory.getPath();
+            baseLength = basePath.endsWith(File.separator)
+                    ? basePath.length() : basePath.length() + 1;
+            raw = false;
+        }
+
+        public SourceGroup(File image, long size) {
+            baseDirectory = null;
+            pattern = null;
+            recursive = false;
+            baseLength = 0;
+            raw = true;
+            sourceFiles.add(new SourceFile(image, null));
+            byteCount = size;
+        }
+
+        public void add(Writer writer, String path) {
+            destinations.add(new Destination(writer, path));
+        }
+
+        public void expand() throws IOException {
+            if (!baseDirectory.isDirectory()) {
+                throw new IOException("source directory \""
+                        + baseDirectory + "\" does not exist");
+            }
+            expand(baseDirectory);
+        }
+
+        private void expand(File directory) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                String relativePath = file.getPath().substring(baseLength);
+                boolean matches = pattern.matcher(relativePath).matches();
+                if (file.isDirectory()) {
+                    if (recursive) {
+                        if (matches) {
+                            sourceFiles.add(
+                                    new SourceFile(file, relativePath));
+                        }
+                        expand(file);
+                    }
+                } else if (matches) {
+                    sourceFiles.add(new SourceFile(file, relativePath));
+                    byteCount += file.length();
+                }
+            }
+        }
+    }
+
+    private static class SharedBuffer {
+
+        private final ByteBuffer buffer;
+        private final AtomicInteger references;
+
+        public SharedBuffer(ByteBuffer buffer, int references) {
+            this.buffer = buffer;
+            this.references = new AtomicInteger(references);
+        }
+
+        /**
+         * returns the buffer to the pool when all writers are done with it
+         */
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                BUFFER_POOL.release(buffer);
+            }
+        }
+    }
+
+    private static class Task {
+
+        private enum Type {
+
+            MKDIR, OPEN, DATA, SYNC, CLOSE, END
+        }
+
+        private static final Task SYNC = new Task(Type.SYNC, null, null);
+        private static final Task CLOSE = new Task(Type.CLOSE, null, null);
+        private static final Task END = new Task(Type.END, null, null);
+
+        private final Type type;
+        private final File file;
+        private final ByteBuffer buffer;
+        private final SharedBuffer sharedBuffer;
+
+        public Task(Type type, File file, ByteBuffer buffer) {
+            this.type = type;
+            this.file = file;
+            this.buffer = buffer;
+            this.sharedBuffer = null;
+        }
+
+        public Task(SharedBuffer sharedBuffer) {
+            this.type = Type.DATA;
+            this.file = null;
+            this.buffer = sharedBuffer.buffer.asReadOnlyBuffer();
+            this.sharedBuffer = sharedBuffer;
+        }
+
+        public void release() {
+            if (sharedBuffer != null) {
+                sharedBuffer.release();
+            }
+        }
+    }
+
+    private class Writer extends Thread {
+
+        private final StorageDevice storageDevice;
+        private final BlockingQueue<Task> queue;
+        private final AtomicLong byteCount = new AtomicLong();
+        private final AtomicLong copiedBytes = new AtomicLong();
+        private final DirtyWindow dirtyWindow;
+        private volatile IOException exception;
+        private FileChannel channel;
+        private DirtyWindow.DirtyFile dirtyFile;
+
+        public Writer(StorageDevice storageDevice) {
+            super("FanOutCopier /dev/" + storageDevice.getDevice());
+            this.storageDevice = storageDevice;
+            queue = new ArrayBlockingQueue<>(queueSize);
+            dirtyWindow = DirtyWindow.getInstance(
+                    "/dev/" + storageDevice.getDevice());
+        }
+
+        /**
+         * hands a task over to this writer, blocks while the buffer queue of
+         * this writer is full
+         */
+        public void enqueue(Task task) throws InterruptedException {
+            while (exception == null) {
+                if (queue.offer(task, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    if (exception != null) {
+                        // the writer failed in the meantime
+                        drainQueue();
+                    }
+                    return;
+                }
+            }
+            // this writer failed, the task is just dropped
+            task.release();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Task task = queue.take();
+                    if (task.type == Task.Type.END) {
+                        return;
+                    }
+                    handle(task);
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "writing to /dev/"
+                        + storageDevice.getDevice() + " failed", ex);
+                exception = ex;
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+                exception = new IOException(ex);
+            } finally {
+                drainQueue();
+                closeChannel();
+            }
+        }
+
+        private void drainQueue() {
+            for (Task task = queue.poll(); task != null; task = queue.poll()) {
+                task.release();
+            }
+        }
+
+        private void handle(Task task) throws IOException {
+            switch (task.type) {
+                case MKDIR:
+                    if (!task.file.isDirectory() && !task.file.mkdirs()) {
+                        throw new IOException(
+                                "could not create directory " + task.file);
+                    }
+                    break;
+
+                case OPEN:
+                    closeChannel();
+                    // only directories that match the pattern of a copy job
+                    // get a MKDIR task, the others are created here
+                    Files.createDirectories(
+                            task.file.getParentFile().toPath());
+                    channel = new FileOutputStream(task.file).getChannel();
+                    dirtyFile = dirtyWindow.open(channel);
+                    break;
+
+                case DATA:
+                    ByteBuffer buffer = task.buffer;
+                    int length = buffer.remaining();
+                    try {
+                        while (buffer.hasRemaining()) {
+                            copiedBytes.addAndGet(channel.write(buffer));
+                        }
+                    } finally {
+                        task.release();
+                    }
+                    dirtyFile.written(length);
+                    break;
+
+                case SYNC:
+                    channel.force(false);
+                    dirtyFile.closed();
+                    break;
+
+                case CLOSE:
+                    FileChannel fileChannel = channel;
+                    channel = null;
+                    dirtyFile.closed();
+                    dirtyFile = null;
+                    fileChannel.close();
+                    break;
+            }
+        }
+
+        private void closeChannel() {
+            if (dirtyFile != null) {
+                dirtyFile.closed();
+                dirtyFile = null;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                }
+                channel = null;
+            }
+        }
+    }
+}
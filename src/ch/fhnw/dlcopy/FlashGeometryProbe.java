@@ -0,0 +1,228 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.StorageDevice;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Estimates the erase block size (or the allocation unit size of SD memory
+ * cards) of flash storage devices. Flash storage devices usually report
+ * 512 byte I/O sizes that say nothing about their erase blocks of several
+ * MiB, therefore partitions aligned to the reported I/O topology may still
+ * straddle erase blocks.
+ * <p>
+ * SD memory cards publish their allocation unit size via sysfs. For all
+ * other removable storage devices small writes are timed: a write that
+ * crosses an erase block boundary has to modify two erase blocks and is
+ * therefore considerably slower than a write within a single erase block.
+ * The writes use direct I/O, so that they are not absorbed by the page cache,
+ * and an erase block size is only taken when two runs agree. The probe
+ * writes back the data it read before, the content of the storage device is
+ * therefore not changed. Every write still wears the flash memory, therefore
+ * the measured results are cached per storage device (device and serial
+ * number) and callers should only probe before repartitioning.
+ */
+public class FlashGeometryProbe {
+
+    /**
+     * the alignment used when the erase block size is unknown
+     */
+    public static final long DEFAULT_ERASE_BLOCK_SIZE = DLCopy.MEGA;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(FlashGeometryProbe.class.getName());
+    private static final long MIN_CANDIDATE = 512 * 1024;
+    private static final long MAX_CANDIDATE = 16L * DLCopy.MEGA;
+    // half of the size of every timed write
+    private static final int PROBE_SIZE = 64 * 1024;
+    private static final int REPETITIONS = 2;
+    // the number of independent runs that must find the same erase block size
+    private static final int RUNS = 2;
+    // a write across a boundary must be at least this much slower
+    private static final double THRESHOLD = 1.5;
+    private static final Map<String, Long> ERASE_BLOCK_SIZES
+            = new ConcurrentHashMap<>();
+    // the measured erase block sizes, keyed by device and serial number
+    private static final Map<String, Long> MEASURED_SIZES
+            = new ConcurrentHashMap<>();
+
+    /**
+     * estimates the erase block size of a storage device
+     *
+     * Storage devices that were already measured are not measured again.
+     *
+     * @param storageDevice the storage device
+     * @return the estimated erase block size in byte (a power of two), if the
+     * storage device is no flash storage device or the erase block size could
+     * not be determined {@link #DEFAULT_ERASE_BLOCK_SIZE} is returned
+     */
+    public static long probe(StorageDevice storageDevice) {
+        String device = storageDevice.getDevice();
+        long eraseBlockSize = readAllocationUnitSize(device);
+        if ((eraseBlockSize == 0) && (storageDevice.isRemovable()
+                || (storageDevice.getType()
+                == StorageDevice.Type.SDMemoryCard))) {
+            String key = device + '/' + storageDevice.getSerial();
+            Long measuredSize = MEASURED_SIZES.get(key);
+            if (measuredSize == null) {
+                try {
+                    eraseBlockSize = measureEraseBlockSize(
+                            "/dev/" + device, storageDevice.getSize());
+                    MEASURED_SIZES.put(key, eraseBlockSize);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                }
+            } else {
+                eraseBlockSize = measuredSize;
+            }
+        }
+        if (eraseBlockSize == 0) {
+            eraseBlockSize = DEFAULT_ERASE_BLOCK_SIZE;
+        }
+        LOGGER.log(Level.INFO, "erase block size of /dev/{0}: {1} byte",
+                new Object[]{device, eraseBlockSize});
+        ERASE_BLOCK_SIZES.put(device, eraseBlockSize);
+        return eraseBlockSize;
+    }
+
+    /**
+     * returns the last estimated erase block size of a storage device
+     *
+     * @param device the device file of the storage device or of one of its
+     * partitions (e.g. "/dev/sdb" or "/dev/sdb2")
+     * @return the last estimated erase block size in byte or 0 if the storage
+     * device was not yet probed
+     */
+    public static long getEraseBlockSize(String device) {
+        String name = new File(device).getName();
+        Long eraseBlockSize = ERASE_BLOCK_SIZES.get(name);
+        if (eraseBlockSize == null) {
+            // partitions are subdirectories of their storage device in sysfs
+            try {
+                File parent = new File("/sys/class/block/" + name)
+                        .getCanonicalFile().getParentFile();
+                eraseBlockSize = ERASE_BLOCK_SIZES.get(parent.getName());
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+            }
+        }
+        return eraseBlockSize == null ? 0 : eraseBlockSize;
+    }
+
+    private static long readAllocationUnitSize(String device) {
+        File file = new File(
+                "/sys/block/" + device + "/device/preferred_erase_size");
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            long size = Long.parseLong(
+                    DLCopy.readOneLineFile(file).trim());
+            // only powers of two are usable for alignment
+            return Long.bitCount(size) == 1 ? size : 0;
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return 0;
+        }
+    }
+
+    private static long measureEraseBlockSize(String device, long size)
+            throws IOException {
+
+        // The page cache would absorb the timed writes, therefore we need
+        // direct I/O with page-aligned buffers.
+        if ((LargeFileCopier.DIRECT == null)
+                || !BufferPool.isPageAligned()) {
+            LOGGER.log(Level.INFO, "can''t probe {0} without direct I/O",
+                    device);
+            return 0;
+        }
+
+        // The scratch region lies in the middle of the storage device, far
+        // away from the partition table. Its base is aligned to all
+        // candidates, therefore "base + candidate" is a boundary of all
+        // erase blocks up to the candidate size but not of larger ones.
+        long base = (size / 2) / (2 * MAX_CANDIDATE) * (2 * MAX_CANDIDATE);
+        if ((base == 0) || (base + 2 * MAX_CANDIDATE > size)) {
+            LOGGER.log(Level.INFO, "{0} is too small for probing", device);
+            return 0;
+        }
+
+        BufferPool bufferPool = BufferPool.getInstance();
+        ByteBuffer buffer = bufferPool.acquireForIO(2 * PROBE_SIZE);
+        try (FileChannel channel = FileChannel.open(Paths.get(device),
+                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                LargeFileCopier.DIRECT)) {
+            // a single run is easily disturbed (e.g. by garbage collection
+            // in the storage device), so all runs must agree
+            long eraseBlockSize = findBoundary(channel, buffer, base, device);
+            for (int i = 1; (i < RUNS) && (eraseBlockSize != 0); i++) {
+                long result = findBoundary(channel, buffer, base, device);
+                if (result != eraseBlockSize) {
+                    LOGGER.log(Level.INFO, "{0}: runs disagree ({1} byte "
+                            + "and {2} byte)", new Object[]{
+                                device, eraseBlockSize, result});
+                    eraseBlockSize = 0;
+                }
+            }
+            if (eraseBlockSize == 0) {
+                LOGGER.log(Level.INFO, "could not measure the erase block "
+                        + "size of {0}", device);
+            }
+            return eraseBlockSize;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static long findBoundary(FileChannel channel, ByteBuffer buffer,
+            long base, String device) throws IOException {
+        for (long candidate = MIN_CANDIDATE; candidate <= MAX_CANDIDATE;
+                candidate *= 2) {
+            // the write within an erase block starts right after the base,
+            // the other one crosses the candidate boundary
+            long within = Long.MAX_VALUE;
+            long across = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; i++) {
+                within = Math.min(within, rewrite(
+                        channel, buffer, base + PROBE_SIZE));
+                across = Math.min(across, rewrite(
+                        channel, buffer, base + candidate - PROBE_SIZE));
+            }
+            LOGGER.log(Level.FINE, "{0}: candidate {1} byte, within {2} ns, "
+                    + "across {3} ns", new Object[]{
+                        device, candidate, within, across});
+            if (across >= THRESHOLD * within) {
+                // the smallest candidate with a boundary is the erase block
+                // size (all larger candidates are multiples)
+                return candidate;
+            }
+        }
+        return 0;
+    }
+
+    private static long rewrite(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("could not read at " + position);
+            }
+        }
+        buffer.flip();
+        long start = System.nanoTime();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        channel.force(false);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,248 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.StorageDevice;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Installs a batch of storage devices in a pipeline. Every stage of an
+ * installation has its own concurrency limit so that e.g. one storage device
+ * is partitioned while another one is copying files. Storage devices wait in
+ * the queue of a stage until the stage has a free slot. Subclasses can
+ * override {@link #stagesChanged()} to show the state of the stages.
+ */
+public class InstallPipeline {
+
+    /**
+     * the stages of an installation
+     */
+    public enum Stage {
+
+        /**
+         * creating the partitions and file systems
+         */
+        PARTITIONING,
+        /**
+         * copying the exchange, EFI and system files
+         */
+        COPYING,
+        /**
+         * copying the data partition and writing the boot sector
+         */
+        BOOT_SECTOR
+    }
+
+    /**
+     * the installation of a single storage device in the pipeline
+     */
+    public static abstract class Job {
+
+        private final StorageDevice storageDevice;
+
+        /**
+         * creates a new Job
+         *
+         * @param storageDevice the storage device to install
+         */
+        public Job(StorageDevice storageDevice) {
+            this.storageDevice = storageDevice;
+        }
+
+        /**
+         * returns the storage device to install
+         *
+         * @return the storage device to install
+         */
+        public StorageDevice getStorageDevice() {
+            return storageDevice;
+        }
+
+        /**
+         * called when the storage device was put into the queue of a stage
+         *
+         * @param stage the stage
+         */
+        protected abstract void waiting(Stage stage);
+
+        /**
+         * runs a stage of the installation
+         *
+         * @param stage the stage to run
+         * @throws InterruptedException when the installation was interrupted
+         * @throws IOException when an I/O exception occurs
+         * @throws DBusException when there was a problem with DBus
+         */
+        protected abstract void run(Stage stage)
+                throws InterruptedException, IOException, DBusException;
+
+        /**
+         * called when the storage device left the pipeline
+         *
+         * @param errorMessage the error message or <tt>null</tt> if the
+         * installation was successful
+         */
+        protected abstract void finished(String errorMessage);
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(InstallPipeline.class.getName());
+    private final Map<Stage, ThreadPoolExecutor> executors
+            = new EnumMap<>(Stage.class);
+    private final Map<Stage, AtomicInteger> waitingCounts
+            = new EnumMap<>(Stage.class);
+    private final Map<Stage, AtomicInteger> activeCounts
+            = new EnumMap<>(Stage.class);
+    private CountDownLatch pendingJobs;
+
+    /**
+     * creates a new InstallPipeline
+     *
+     * @param partitioningLimit the maximum number of storage devices that are
+     * partitioned at the same time
+     * @param copyingLimit the maximum number of storage devices that are
+     * copied at the same time
+     * @param bootSectorLimit the maximum number of storage devices that are
+     * made bootable at the same time
+     */
+    public InstallPipeline(int partitioningLimit, int copyingLimit,
+            int bootSectorLimit) {
+        addStage(Stage.PARTITIONING, partitioningLimit);
+        addStage(Stage.COPYING, copyingLimit);
+        addStage(Stage.BOOT_SECTOR, bootSectorLimit);
+    }
+
+    /**
+     * runs all jobs through the pipeline and returns when all jobs are
+     * finished
+     *
+     * @param jobs the jobs to run
+     * @throws InterruptedException if waiting for the jobs was interrupted
+     */
+    public void run(List<? extends Job> jobs) throws InterruptedException {
+        pendingJobs = new CountDownLatch(jobs.size());
+        try {
+            for (Job job : jobs) {
+                submit(job, Stage.PARTITIONING);
+            }
+            pendingJobs.await();
+        } finally {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * returns the number of storage devices waiting in the queue of a stage
+     *
+     * @param stage the stage
+     * @return the number of storage devices waiting in the queue of a stage
+     */
+    public int getQueueDepth(Stage stage) {
+        return waitingCounts.get(stage).get();
+    }
+
+    /**
+     * returns the number of storage devices currently processed in a stage
+     *
+     * @param stage the stage
+     * @return the number of storage devices currently processed in a stage
+     */
+    public int getActiveCount(Stage stage) {
+        return activeCounts.get(stage).get();
+    }
+
+    /**
+     * returns a short summary of all stages (e.g.
+     * "PARTITIONING: 1 active, 3 waiting; COPYING: 1 active, 0 waiting;
+     * BOOT_SECTOR: 0 active, 0 waiting")
+     *
+     * @return a short summary of all stages
+     */
+    public String getStageInfo() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append("; ");
+            }
+            stringBuilder.append(stage).append(": ");
+            stringBuilder.append(getActiveCount(stage)).append(" active, ");
+            stringBuilder.append(getQueueDepth(stage)).append(" waiting");
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * called (in a pipeline thread) whenever a storage device entered or left
+     * a stage, does nothing by default
+     */
+    protected void stagesChanged() {
+    }
+
+    private void addStage(Stage stage, int limit) {
+        int threads = Math.max(1, limit);
+        executors.put(stage, new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()));
+        waitingCounts.put(stage, new AtomicInteger());
+        activeCounts.put(stage, new AtomicInteger());
+    }
+
+    private void submit(final Job job, final Stage stage) {
+        job.waiting(stage);
+        waitingCounts.get(stage).incrementAndGet();
+        stagesChanged();
+        executors.get(stage).execute(new Runnable() {
+            @Override
+            public void run() {
+                process(job, stage);
+            }
+        });
+        LOGGER.log(Level.INFO, "{0} entered {1} ({2})", new Object[]{
+            job.getStorageDevice().getDevice(), stage, getStageInfo()});
+    }
+
+    private void process(Job job, Stage stage) {
+        waitingCounts.get(stage).decrementAndGet();
+        activeCounts.get(stage).incrementAndGet();
+        stagesChanged();
+        String errorMessage = null;
+        boolean leftPipeline = true;
+        try {
+            try {
+                job.run(stage);
+            } finally {
+                activeCounts.get(stage).decrementAndGet();
+                stagesChanged();
+            }
+            if (stage.ordinal() < Stage.values().length - 1) {
+                submit(job, Stage.values()[stage.ordinal() + 1]);
+                leftPipeline = false;
+            }
+        } catch (InterruptedException | IOException
+                | DBusException exception) {
+            LOGGER.log(Level.WARNING, "", exception);
+            errorMessage = exception.getMessage();
+        } catch (RuntimeException exception) {
+            LOGGER.log(Level.SEVERE, "", exception);
+            errorMessage = exception.getMessage();
+        } finally {
+            if (leftPipeline) {
+                try {
+                    job.finished(errorMessage);
+                } finally {
+                    pendingJobs.countDown();
+                }
+            }
+        }
+    }
+}
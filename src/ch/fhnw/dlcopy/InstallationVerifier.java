@@ -0,0 +1,171 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.dlcopy.gui.DLCopyGUI;
+import ch.fhnw.util.Partition;
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Verifies installed storage devices against the MD5 sums in the
+ * <tt>md5sum.txt</tt> of the system source. The live system files, the EFI
+ * boot files and the boot files (except the configuration files that are
+ * adapted after copying) are verified. The EFI and system partitions are
+ * freshly mounted for verification. As the page cache of a file system is
+ * dropped when it is unmounted, all files are really read back from the
+ * storage device. The files of all storage devices are hashed in a shared
+ * thread pool.
+ */
+public class InstallationVerifier {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(InstallationVerifier.class.getName());
+    // isolinux is renamed to syslinux after copying and therefore not
+    // verified
+    private static final Pattern VERIFIED_FILES
+            = Pattern.compile("(live|efi|boot)/.*");
+    // the EFI boot files are only copied to the EFI partition
+    private static final Pattern EFI_FILES = Pattern.compile("efi/.*");
+    // the data partition mode is set in the GRUB config after copying
+    private static final Pattern ADAPTED_FILES
+            = Pattern.compile("boot/grub/grub\\.cfg");
+    // the number of failed files listed in an error message
+    private static final int MAX_LISTED_FAILURES = 3;
+
+    private final ExecutorService executorService;
+    private final Map<String, String> md5Sums = new LinkedHashMap<>();
+
+    /**
+     * creates a new InstallationVerifier
+     *
+     * @param source the system source
+     * @param threads the number of files that are hashed at the same time
+     * @throws IOException if reading the MD5 sums of the system source failed
+     */
+    public InstallationVerifier(SystemSource source, int threads)
+            throws IOException {
+        // read the MD5 sums now, temporary source mounts may be gone later
+        Map<String, String> sourceMd5Sums = DLCopy.readMd5Sums(
+                new File(source.getSystemPath(), "md5sum.txt"));
+        for (Map.Entry<String, String> entry : sourceMd5Sums.entrySet()) {
+            String fileName = entry.getKey();
+            if (VERIFIED_FILES.matcher(fileName).matches()
+                    && !ADAPTED_FILES.matcher(fileName).matches()) {
+                md5Sums.put(entry.getKey(), entry.getValue());
+            }
+        }
+        executorService = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * verifies the EFI and system partitions of an installed storage device,
+     * the partitions must not be mounted
+     *
+     * @param destinationPartitions the partitions of the storage device
+     * @param dlCopyGUI the program GUI
+     * @throws InterruptedException when the verification was interrupted
+     * @throws IOException when the verification failed
+     * @throws DBusException when there was a problem with DBus
+     */
+    public void verify(DestinationPartitions destinationPartitions,
+            DLCopyGUI dlCopyGUI)
+            throws InterruptedException, IOException, DBusException {
+
+        if (md5Sums.isEmpty()) {
+            return;
+        }
+
+        Partition efiPartition = destinationPartitions.getEfiPartition();
+        Partition systemPartition = destinationPartitions.getSystemPartition();
+        String efiPath = efiPartition.mount().getMountPath();
+        String systemPath = systemPartition.mount().getMountPath();
+        List<String> failures = new ArrayList<>();
+        try {
+            Map<String, Future<Boolean>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : md5Sums.entrySet()) {
+                String fileName = entry.getKey();
+                File file = new File(systemPath, fileName);
+                // legacy systems have their boot files on the EFI partition
+                if (EFI_FILES.matcher(fileName).matches() || !file.exists()) {
+                    file = new File(efiPath, fileName);
+                }
+                futures.put(fileName, executorService.submit(
+                        new Md5Check(file, entry.getValue())));
+            }
+            for (Map.Entry<String, Future<Boolean>> entry
+                    : futures.entrySet()) {
+                try {
+                    if (!entry.getValue().get()) {
+                        failures.add(entry.getKey());
+                    }
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                    failures.add(entry.getKey());
+                }
+            }
+        } finally {
+            DLCopy.umount(efiPartition, dlCopyGUI);
+            DLCopy.umount(systemPartition, dlCopyGUI);
+        }
+
+        if (!failures.isEmpty()) {
+            String fileList = failures.size() > MAX_LISTED_FAILURES
+                    ? failures.subList(0, MAX_LISTED_FAILURES) + " ..."
+                    : failures.toString();
+            String errorMessage = DLCopy.STRINGS.getString(
+                    "Error_Verification_Failed");
+            errorMessage = MessageFormat.format(errorMessage,
+                    destinationPartitions.getDevice(), failures.size(),
+                    fileList);
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+    }
+
+    /**
+     * stops all threads of this verifier
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    private static class Md5Check implements Callable<Boolean> {
+
+        private final File file;
+        private final String expectedMd5Sum;
+
+        public Md5Check(File file, String expectedMd5Sum) {
+            this.file = file;
+            this.expectedMd5Sum = expectedMd5Sum;
+        }
+
+        @Override
+        public Boolean call() throws IOException, NoSuchAlgorithmException {
+            if (!file.exists()) {
+                LOGGER.log(Level.WARNING, "{0} is missing", file);
+                return false;
+            }
+            String md5Sum = DLCopy.getMd5String(file.getPath());
+            if (md5Sum.equalsIgnoreCase(expectedMd5Sum)) {
+                return true;
+            }
+            LOGGER.log(Level.WARNING, "{0}: expected MD5 sum {1} but got {2}",
+                    new Object[]{file, expectedMd5Sum, md5Sum});
+            return false;
+        }
+    }
+}
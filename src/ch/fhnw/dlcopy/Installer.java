@@ -1,13 +1,26 @@
 package ch.fhnw.dlcopy;
 
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
+import ch.fhnw.filecopier.CopyJob;
 import ch.fhnw.filecopier.FileCopier;
-import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.util.LernstickFileTools;
 import ch.fhnw.util.StorageDevice;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -17,8 +30,7 @@ import org.freedesktop.dbus.exceptions.DBusException;
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
-public class Installer extends InstallerOrUpgrader
-        implements PropertyChangeListener {
+public class Installer extends InstallerOrUpgrader {
 
     private static final Logger LOGGER
             = Logger.getLogger(Installer.class.getName());
@@ -30,9 +42,15 @@ public class Installer extends InstallerOrUpgrader
     private int autoNumber;
     private final boolean copyDataPartition;
     private final DataPartitionMode dataPartitionMode;
-    
+    private final int concurrentInstallations;
+    private final boolean fanOutCopy;
+    private final boolean goldenImage;
+    private final int[] stageLimits;
+    private final boolean probeThroughput;
+    private final boolean verify;
+    private final boolean deltaInstall;
+    private InstallationVerifier verifier;
 
- 
     /**
      * creates a new Installer
      *
@@ -55,6 +73,27 @@ public class Installer extends InstallerOrUpgrader
      * @param personalPassword
      * @param masterPassword
      * @param initialPassword
+     * @param concurrentInstallations the maximum number of storage devices
+     * that are installed at the same time
+     * @param fanOutCopy if the system files should be read only once and
+     * written to all storage devices at the same time
+     * @param goldenImage if only the first storage device should be installed
+     * and then copied block by block to all other storage devices
+     * @param stageLimits the maximum number of storage devices in the
+     * partitioning, copying and boot sector stages or <tt>null</tt> if the
+     * stages should not be pipelined
+     * @param probeThroughput if the throughput of all storage devices should
+     * be measured before installing so that the slowest ones can be started
+     * first
+     * @param verify if the installed files should be read back and verified
+     * against the MD5 sums of the system source
+     * @param deltaInstall if the system partition of a previous installation
+     * should be kept (when the partition layout is unchanged) and only the
+     * changed files copied
+     * @param mirrorSource if the system source should be read into memory
+     * once before installing (only used when installing several storage
+     * devices without fan-out copy or golden image, where every installation
+     * would read the system source again)
      */
     public Installer(SystemSource source, List<StorageDevice> deviceList,
             String exchangePartitionLabel, String exchangePartitionFileSystem,
@@ -64,9 +103,17 @@ public class Installer extends InstallerOrUpgrader
             String autoNumberPattern, boolean copyDataPartition,
             DataPartitionMode dataPartitionMode,
             String selectedMethod,
-            String personalPassword,String masterPassword, String initialPassword) {
+            String personalPassword, String masterPassword,
+            String initialPassword, int concurrentInstallations,
+            boolean fanOutCopy, boolean goldenImage, int[] stageLimits,
+            boolean probeThroughput, boolean verify, boolean deltaInstall,
+            boolean mirrorSource) {
 
-        super(source, deviceList, exchangePartitionLabel,
+        // the device list is copied because it may be reordered, see
+        // sortSlowestFirst()
+        super(mirrorSource && (deviceList.size() > 1) && !fanOutCopy
+                && !goldenImage ? new MirroredSystemSource(source) : source,
+                new ArrayList<>(deviceList), exchangePartitionLabel,
                 exchangePartitionFileSystem, dataPartitionFileSystem,
                 dlCopyGUI, selectedMethod, 
                 personalPassword, masterPassword, initialPassword);
@@ -78,6 +125,13 @@ public class Installer extends InstallerOrUpgrader
         this.autoNumber = autoNumberStart;
         this.copyDataPartition = copyDataPartition;
         this.dataPartitionMode = dataPartitionMode;
+        this.concurrentInstallations = Math.max(1, concurrentInstallations);
+        this.fanOutCopy = fanOutCopy;
+        this.goldenImage = goldenImage;
+        this.stageLimits = stageLimits;
+        this.probeThroughput = probeThroughput;
+        this.verify = verify;
+        this.deltaInstall = deltaInstall;
     }
 
     @Override
@@ -86,73 +140,674 @@ public class Installer extends InstallerOrUpgrader
 
         dlCopyGUI.showInstallProgress();
 
-        String currentExchangePartitionLabel = exchangePartitionLabel;
-        for (StorageDevice storageDevice : deviceList) {
+        // The temporary mounts of the system source (e.g. the EFI partition
+        // or the ISO image and its chroot) are shared by all storage devices
+        // of the batch instead of being mounted again for every device.
+        source.acquireMountLease();
+        try {
+            installBatch();
+        } finally {
+            source.releaseMountLease();
+        }
+        return null;
+    }
 
-            // update overall progress message
-            dlCopyGUI.installingDeviceStarted(storageDevice);
+    private void installBatch() throws IOException, InterruptedException {
 
-            // auto numbering
+        // Determine all exchange partition labels before starting so that
+        // auto numbering follows the order of the device list, regardless of
+        // the order in which the devices finish.
+        List<String> exchangePartitionLabels = new ArrayList<>();
+        for (int i = 0; i < deviceListSize; i++) {
+            String currentExchangePartitionLabel = exchangePartitionLabel;
             if (!autoNumberPattern.isEmpty()) {
                 currentExchangePartitionLabel = exchangePartitionLabel.replace(
                         autoNumberPattern, String.valueOf(autoNumber));
                 autoNumber += autoNumberIncrement;
             }
+            exchangePartitionLabels.add(currentExchangePartitionLabel);
+        }
+
+        // Fan-out and golden image installations copy to all devices in
+        // lockstep, there the order doesn't matter.
+        if (probeThroughput && isInstallingInParallel()
+                && !fanOutCopy && !goldenImage) {
+            ThroughputProbe.probe(deviceList);
+            sortSlowestFirst(exchangePartitionLabels);
+        }
+
+        if (!(source instanceof MirroredSystemSource)) {
+            install(exchangePartitionLabels);
+            return;
+        }
+        MirroredSystemSource mirroredSource = (MirroredSystemSource) source;
+        FileCopier mirrorCopier = new FileCopier();
+        dlCopyGUI.showInstallMirroringSource(mirrorCopier);
+        boolean mirrored = mirroredSource.mirror(mirrorCopier);
+        dlCopyGUI.showInstallProgress();
+        try {
+            install(exchangePartitionLabels);
+        } finally {
+            mirroredSource.release();
+        }
+        if (mirrored) {
+            // without the mirror every other installation would have read
+            // the system source again
+            long warmUpSeconds = mirroredSource.getWarmUpTime() / 1000;
+            String summary = MessageFormat.format(
+                    DLCopy.STRINGS.getString("Source_Mirror_Summary"),
+                    LernstickFileTools.getDataVolumeString(
+                            mirroredSource.getMirroredBytes(), 1),
+                    warmUpSeconds, deviceListSize - 1,
+                    warmUpSeconds * (deviceListSize - 1));
+            LOGGER.info(summary);
+            dlCopyGUI.setInstallSummary(summary);
+        }
+    }
+
+    private void install(List<String> exchangePartitionLabels)
+            throws IOException, InterruptedException {
+
+        if (verify) {
+            verifier = new InstallationVerifier(
+                    source, Runtime.getRuntime().availableProcessors());
+        }
+
+        if (!isInstallingInParallel()) {
+            try {
+                for (int i = 0; i < deviceListSize; i++) {
+                    installStorageDevice(deviceList.get(i),
+                            exchangePartitionLabels.get(i), fileCopier);
+                }
+            } finally {
+                shutdownVerifier();
+            }
+            return;
+        }
+
+        try {
+            if (goldenImage) {
+                installGoldenImage(exchangePartitionLabels);
+            } else if (fanOutCopy) {
+                installFanOut(exchangePartitionLabels);
+            } else if (stageLimits != null) {
+                installPipelined(exchangePartitionLabels);
+            } else {
+                List<Runnable> runnables = new ArrayList<>();
+                for (int i = 0; i < deviceListSize; i++) {
+                    final StorageDevice storageDevice = deviceList.get(i);
+                    final String label = exchangePartitionLabels.get(i);
+                    runnables.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            // every concurrent installation needs its own
+                            // FileCopier
+                            installStorageDevice(
+                                    storageDevice, label, new FileCopier());
+                        }
+                    });
+                }
+                runConcurrently(runnables);
+            }
+        } finally {
+            shutdownVerifier();
+        }
+    }
+
+    @Override
+    protected void done() {
+        if (inhibit != null) {
+            inhibit.delete();
+        }
+        LOGGER.log(Level.INFO, "buffer pool: {0}",
+                BufferPool.getInstance().getStatistics());
+        dlCopyGUI.installingListFinished();
+    }
+
+    /**
+     * Sorts our copy of the device list (and the corresponding exchange
+     * partition labels) by the measured write rate, slowest first. Every
+     * device gets roughly the same amount of data, therefore this is the
+     * "longest processing time first" rule that keeps the total duration of
+     * a batch short when the devices are distributed over a limited number
+     * of slots. Devices without a measured rate are started first.
+     */
+    private void sortSlowestFirst(List<String> exchangePartitionLabels) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < deviceListSize; i++) {
+            indices.add(i);
+        }
+        Collections.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index1, Integer index2) {
+                return Long.compare(
+                        ThroughputProbe.getWriteRate(deviceList.get(index1)),
+                        ThroughputProbe.getWriteRate(deviceList.get(index2)));
+            }
+        });
+        List<StorageDevice> sortedDevices = new ArrayList<>();
+        List<String> sortedLabels = new ArrayList<>();
+        for (int index : indices) {
+            sortedDevices.add(deviceList.get(index));
+            sortedLabels.add(exchangePartitionLabels.get(index));
+        }
+        deviceList.clear();
+        deviceList.addAll(sortedDevices);
+        exchangePartitionLabels.clear();
+        exchangePartitionLabels.addAll(sortedLabels);
+    }
+
+    private void installStorageDevice(StorageDevice storageDevice,
+            String currentExchangePartitionLabel, FileCopier fileCopier) {
+
+        // update overall progress message
+        dlCopyGUI.installingDeviceStarted(storageDevice);
+
+        String errorMessage = null;
+        try {
+            DestinationPartitions destinationPartitions
+                    = DLCopy.copyToStorageDevice(source, fileCopier,
+                            storageDevice, currentExchangePartitionLabel,
+                            this, dlCopyGUI);
+            verify(destinationPartitions);
+        } catch (InterruptedException | IOException
+                | DBusException exception) {
+            LOGGER.log(Level.WARNING, "", exception);
+            errorMessage = exception.getMessage();
+        }
+
+        dlCopyGUI.installingDeviceFinished(
+                storageDevice, errorMessage, autoNumber);
+    }
+
+    /**
+     * Installs all storage devices in three phases: First all partitions are
+     * created, then the system files are read only once and written to all
+     * storage devices at the same time and finally all storage devices are
+     * made bootable.
+     */
+    private void installFanOut(final List<String> exchangePartitionLabels)
+            throws InterruptedException {
+
+        final DestinationPartitions[] destinationPartitions
+                = new DestinationPartitions[deviceListSize];
+        final CopyJobsInfo[] copyJobsInfos = new CopyJobsInfo[deviceListSize];
+        final String[] errorMessages = new String[deviceListSize];
+
+        // phase 1: create partitions and file systems
+        List<Runnable> runnables = new ArrayList<>();
+        for (int i = 0; i < deviceListSize; i++) {
+            final int index = i;
+            runnables.add(new Runnable() {
+                @Override
+                public void run() {
+                    StorageDevice storageDevice = deviceList.get(index);
+                    dlCopyGUI.installingDeviceStarted(storageDevice);
+                    try {
+                        destinationPartitions[index]
+                                = DLCopy.createPartitionsAndFileSystems(
+                                        source, storageDevice,
+                                        exchangePartitionLabels.get(index),
+                                        Installer.this, dlCopyGUI);
+                        copyJobsInfos[index]
+                                = DLCopy.prepareExchangeEfiAndSystemCopyJobs(
+                                        source, destinationPartitions[index],
+                                        Installer.this);
+                    } catch (InterruptedException | IOException
+                            | DBusException exception) {
+                        LOGGER.log(Level.WARNING, "", exception);
+                        errorMessages[index] = exception.getMessage();
+                    }
+                }
+            });
+        }
+        runConcurrently(runnables);
+
+        // phase 2: copy the files from the source to all storage devices
+        Map<StorageDevice, CopyJob[]> copyJobs = new IdentityHashMap<>();
+        for (int i = 0; i < deviceListSize; i++) {
+            if (errorMessages[i] == null) {
+                StorageDevice storageDevice = deviceList.get(i);
+                copyJobs.put(storageDevice, copyJobsInfos[i].getCopyJobs());
+                showDeviceProgress(storageDevice, "Copying_Files");
+            }
+        }
+        if (!copyJobs.isEmpty()) {
+            FanOutCopier fanOutCopier = new FanOutCopier();
+            List<TimerTask> progressTasks
+                    = startFanOutProgress(fanOutCopier);
+            try {
+                Map<StorageDevice, IOException> failures
+                        = fanOutCopier.copy(copyJobs);
+                for (int i = 0; i < deviceListSize; i++) {
+                    IOException failure = failures.get(deviceList.get(i));
+                    if (failure != null) {
+                        errorMessages[i] = failure.getMessage();
+                    }
+                }
+            } catch (IOException ex) {
+                // the source could not be read, all storage devices failed
+                for (int i = 0; i < deviceListSize; i++) {
+                    if (errorMessages[i] == null) {
+                        errorMessages[i] = ex.getMessage();
+                    }
+                }
+            } finally {
+                stopFanOutProgress(progressTasks);
+            }
+        }
+
+        // phase 3: make all storage devices bootable
+        runnables.clear();
+        for (int i = 0; i < deviceListSize; i++) {
+            final int index = i;
+            runnables.add(new Runnable() {
+                @Override
+                public void run() {
+                    StorageDevice storageDevice = deviceList.get(index);
+                    if (errorMessages[index] == null) {
+                        try {
+                            DLCopy.finishExchangeEfiAndSystemCopy(source,
+                                    destinationPartitions[index],
+                                    copyJobsInfos[index], Installer.this,
+                                    dlCopyGUI);
+                            DLCopy.finishStorageDevice(source,
+                                    destinationPartitions[index],
+                                    Installer.this, dlCopyGUI);
+                            verify(destinationPartitions[index]);
+                        } catch (InterruptedException | IOException
+                                | DBusException exception) {
+                            LOGGER.log(Level.WARNING, "", exception);
+                            errorMessages[index] = exception.getMessage();
+                        }
+                    }
+                    dlCopyGUI.installingDeviceFinished(storageDevice,
+                            errorMessages[index], autoNumber);
+                }
+            });
+        }
+        runConcurrently(runnables);
+    }
+
+    /**
+     * Installs all storage devices in a pipeline where partitioning, copying
+     * and writing the boot sector have their own concurrency limits.
+     */
+    private void installPipelined(List<String> exchangePartitionLabels)
+            throws InterruptedException {
+
+        List<InstallPipeline.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < deviceListSize; i++) {
+            final String label = exchangePartitionLabels.get(i);
+            jobs.add(new InstallPipeline.Job(deviceList.get(i)) {
+                private DestinationPartitions destinationPartitions;
+
+                @Override
+                protected void waiting(InstallPipeline.Stage stage) {
+                    StorageDevice storageDevice = getStorageDevice();
+                    switch (stage) {
+                        case PARTITIONING:
+                            showDeviceProgress(storageDevice,
+                                    "Waiting_For_Partitioning");
+                            break;
+                        case COPYING:
+                            showDeviceProgress(storageDevice,
+                                    "Waiting_For_Copying");
+                            break;
+                        case BOOT_SECTOR:
+                            showDeviceProgress(storageDevice,
+                                    "Waiting_For_Boot_Sector");
+                    }
+                }
+
+                @Override
+                protected void run(InstallPipeline.Stage stage)
+                        throws InterruptedException, IOException,
+                        DBusException {
+                    StorageDevice storageDevice = getStorageDevice();
+                    switch (stage) {
+                        case PARTITIONING:
+                            dlCopyGUI.installingDeviceStarted(storageDevice);
+                            destinationPartitions
+                                    = DLCopy.createPartitionsAndFileSystems(
+                                            source, storageDevice, label,
+                                            Installer.this, dlCopyGUI);
+                            break;
+                        case COPYING:
+                            // every concurrent copy needs its own FileCopier
+                            DLCopy.copyExchangeEfiAndSystem(source,
+                                    new FileCopier(), destinationPartitions,
+                                    Installer.this, dlCopyGUI);
+                            break;
+                        case BOOT_SECTOR:
+                            DLCopy.finishStorageDevice(source,
+                                    destinationPartitions, Installer.this,
+                                    dlCopyGUI);
+                            verify(destinationPartitions);
+                    }
+                }
+
+                @Override
+                protected void finished(String errorMessage) {
+                    dlCopyGUI.installingDeviceFinished(
+                            getStorageDevice(), errorMessage, autoNumber);
+                }
+            });
+        }
+
+        new InstallPipeline(stageLimits[0], stageLimits[1], stageLimits[2]) {
+            @Override
+            protected void stagesChanged() {
+                dlCopyGUI.setInstallStageInfo(MessageFormat.format(
+                        DLCopy.STRINGS.getString("Install_Stage_Info"),
+                        getActiveCount(Stage.PARTITIONING),
+                        getQueueDepth(Stage.PARTITIONING),
+                        getActiveCount(Stage.COPYING),
+                        getQueueDepth(Stage.COPYING),
+                        getActiveCount(Stage.BOOT_SECTOR),
+                        getQueueDepth(Stage.BOOT_SECTOR)));
+            }
+        }.run(jobs);
+    }
 
+    /**
+     * Installs the first storage device as usual, copies this golden image
+     * block by block to all other storage devices at the same time and
+     * finally adapts every copy so that it becomes an independent
+     * installation.
+     */
+    private void installGoldenImage(final List<String> exchangePartitionLabels)
+            throws InterruptedException {
+
+        // phase 1: install the golden image on the first working device
+        int goldenIndex = 0;
+        DestinationPartitions goldenPartitions = null;
+        for (; goldenIndex < deviceListSize; goldenIndex++) {
+            StorageDevice storageDevice = deviceList.get(goldenIndex);
+            dlCopyGUI.installingDeviceStarted(storageDevice);
             String errorMessage = null;
             try {
-                DLCopy.copyToStorageDevice(source, fileCopier, storageDevice,
-                        currentExchangePartitionLabel, this, dlCopyGUI);
+                goldenPartitions = DLCopy.copyToStorageDevice(source,
+                        fileCopier, storageDevice,
+                        exchangePartitionLabels.get(goldenIndex), this,
+                        dlCopyGUI);
+                verify(goldenPartitions);
             } catch (InterruptedException | IOException
                     | DBusException exception) {
                 LOGGER.log(Level.WARNING, "", exception);
                 errorMessage = exception.getMessage();
             }
+            dlCopyGUI.installingDeviceFinished(
+                    storageDevice, errorMessage, autoNumber);
+            if (errorMessage == null) {
+                break;
+            }
+        }
+        if (goldenPartitions == null) {
+            return;
+        }
+        // Only the partitions are copied. This is much faster when the golden
+        // device is larger than its partitions and also allows targets that
+        // are a little bit smaller than the golden device.
+        StorageDevice goldenDevice = goldenPartitions.getStorageDevice();
+        long partitionsEnd;
+        try {
+            partitionsEnd = MbrPartitionTable.getPartitionsEnd(
+                    goldenPartitions.getDevice(),
+                    MbrPartitionTable.getSectorSize(goldenDevice.getDevice()));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            partitionsEnd = goldenDevice.getSize();
+        }
+        final long imageSize = partitionsEnd;
 
-            dlCopyGUI.installingDeviceFinished(errorMessage, autoNumber);
-            
-     
+        // phase 2: copy the golden image to all other storage devices
+        final String[] errorMessages = new String[deviceListSize];
+        List<StorageDevice> targets = new ArrayList<>();
+        for (int i = goldenIndex + 1; i < deviceListSize; i++) {
+            StorageDevice storageDevice = deviceList.get(i);
+            dlCopyGUI.installingDeviceStarted(storageDevice);
+            String device = "/dev/" + storageDevice.getDevice();
+            if (storageDevice.getSize() < imageSize) {
+                String errorMessage = DLCopy.STRINGS.getString(
+                        "Error_Target_Too_Small_For_Golden_Image");
+                errorMessages[i] = MessageFormat.format(errorMessage, device);
+                continue;
+            }
+            try {
+                DLCopy.releaseStorageDevice(device, dlCopyGUI);
+                targets.add(storageDevice);
+                showDeviceProgress(storageDevice, "Copying_Files");
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+                errorMessages[i] = ex.getMessage();
+            }
+        }
+        if (!targets.isEmpty()) {
+            FanOutCopier fanOutCopier = new FanOutCopier();
+            List<TimerTask> progressTasks
+                    = startFanOutProgress(fanOutCopier);
+            try {
+                Map<StorageDevice, IOException> failures
+                        = fanOutCopier.copyImage(
+                                new File(goldenPartitions.getDevice()),
+                                imageSize, targets);
+                for (int i = goldenIndex + 1; i < deviceListSize; i++) {
+                    IOException failure = failures.get(deviceList.get(i));
+                    if (failure != null) {
+                        errorMessages[i] = failure.getMessage();
+                    }
+                }
+            } catch (IOException ex) {
+                // the golden image could not be read, all copies failed
+                for (int i = goldenIndex + 1; i < deviceListSize; i++) {
+                    if (errorMessages[i] == null) {
+                        errorMessages[i] = ex.getMessage();
+                    }
+                }
+            } finally {
+                stopFanOutProgress(progressTasks);
+            }
         }
 
-        return null;
+        // phase 3: adapt all copies
+        final DestinationPartitions finalGoldenPartitions = goldenPartitions;
+        List<Runnable> runnables = new ArrayList<>();
+        for (int i = goldenIndex + 1; i < deviceListSize; i++) {
+            final int index = i;
+            runnables.add(new Runnable() {
+                @Override
+                public void run() {
+                    StorageDevice storageDevice = deviceList.get(index);
+                    if (errorMessages[index] == null) {
+                        showDeviceProgress(storageDevice,
+                                "Adapting_Golden_Image_Copy");
+                        try {
+                            verify(DLCopy.personalizeGoldenImageCopy(
+                                    source, finalGoldenPartitions, imageSize,
+                                    storageDevice,
+                                    exchangePartitionLabels.get(index),
+                                    Installer.this, dlCopyGUI));
+                        } catch (InterruptedException | IOException
+                                | DBusException exception) {
+                            LOGGER.log(Level.WARNING, "", exception);
+                            errorMessages[index] = exception.getMessage();
+                        }
+                    }
+                    dlCopyGUI.installingDeviceFinished(storageDevice,
+                            errorMessages[index], autoNumber);
+                }
+            });
+        }
+        if (!runnables.isEmpty()) {
+            runConcurrently(runnables);
+        }
     }
 
-    @Override
-    protected void done() {
-        if (inhibit != null) {
-            inhibit.delete();
+    private void verify(DestinationPartitions destinationPartitions)
+            throws InterruptedException, IOException, DBusException {
+        if (verifier != null) {
+            showDeviceProgress(destinationPartitions.getStorageDevice(),
+                    "Verifying");
+            verifier.verify(destinationPartitions, dlCopyGUI);
+        }
+    }
+
+    private void shutdownVerifier() {
+        if (verifier != null) {
+            verifier.shutdown();
+        }
+    }
+
+    private List<TimerTask> startFanOutProgress(
+            final FanOutCopier fanOutCopier) {
+        List<TimerTask> progressTasks = new ArrayList<>();
+        for (final StorageDevice storageDevice : deviceList) {
+            progressTasks.add(ProgressPoller.poll(
+                    new ProgressPoller.Progress() {
+                @Override
+                public long getByteCount() {
+                    return fanOutCopier.getByteCount(storageDevice);
+                }
+
+                @Override
+                public long getCopiedBytes() {
+                    return fanOutCopier.getCopiedBytes(storageDevice);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    // the tasks are cancelled when the fan-out copy returns
+                    return false;
+                }
+            }, new DeviceProgressListener(
+                    storageDevice, "Copying_Files_Progress")));
+        }
+        return progressTasks;
+    }
+
+    private static void stopFanOutProgress(List<TimerTask> progressTasks) {
+        for (TimerTask progressTask : progressTasks) {
+            progressTask.cancel();
+        }
+    }
+
+    private void runConcurrently(List<Runnable> runnables)
+            throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min(concurrentInstallations, runnables.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable runnable : runnables) {
+                futures.add(executorService.submit(runnable));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.SEVERE, "", ex);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
         }
-        dlCopyGUI.installingListFinished();
     }
 
     @Override
-    public void propertyChange(PropertyChangeEvent evt) {
-        if (ProcessExecutor.LINE.equals(evt.getPropertyName())) {
-            // store current cp progress line
+    public void showCreatingFileSystems(StorageDevice storageDevice) {
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallCreatingFileSystems();
+        }
+        showDeviceProgress(storageDevice, "Creating_File_Systems");
+    }
 
-            String line = (String) evt.getNewValue();
-            dlCopyGUI.setInstallCopyLine(line);
+    /**
+     * shows that a partition is cloned to a storage device
+     *
+     * @param storageDevice the storage device
+     */
+    public void showCloningPartition(StorageDevice storageDevice) {
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallCloningPartition();
         }
+        showDeviceProgress(storageDevice, "Cloning_Partition");
     }
 
     @Override
-    public void showCreatingFileSystems() {
-        dlCopyGUI.showInstallCreatingFileSystems();
+    public void showCopyingFiles(final StorageDevice storageDevice,
+            final FileCopier fileCopier) {
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallFileCopy(fileCopier);
+        } else {
+            fileCopier.addPropertyChangeListener(
+                    FileCopier.BYTE_COUNTER_PROPERTY,
+                    new PropertyChangeListener() {
+                private long lastPercentage = -1;
+
+                @Override
+                public void propertyChange(PropertyChangeEvent evt) {
+                    long byteCount = fileCopier.getByteCount();
+                    if (byteCount == 0) {
+                        return;
+                    }
+                    long copiedBytes = (Long) evt.getNewValue();
+                    long percentage = (100 * copiedBytes) / byteCount;
+                    if (percentage != lastPercentage) {
+                        lastPercentage = percentage;
+                        String text = DLCopy.STRINGS.getString(
+                                "Copying_Files_Progress");
+                        dlCopyGUI.setInstallDeviceProgress(storageDevice,
+                                MessageFormat.format(text, percentage));
+                    }
+                }
+            });
+        }
+        showDeviceProgress(storageDevice, "Copying_Files");
     }
 
     @Override
-    public void showCopyingFiles(FileCopier fileCopier) {
-        dlCopyGUI.showInstallFileCopy(fileCopier);
+    public void showCopyingLargeFiles(final StorageDevice storageDevice,
+            final LargeFileCopier largeFileCopier) {
+        showDeviceProgress(storageDevice, "Copying_Files");
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallLargeFileCopy(largeFileCopier);
+            return;
+        }
+        ProgressPoller.poll(largeFileCopier, new DeviceProgressListener(
+                storageDevice, "Copying_Files_Progress"));
+    }
+
+    /**
+     * shows that the data partition is being copied
+     *
+     * @param storageDevice the StorageDevice being processed
+     * @param treeCopier the TreeCopier used for copying the data partition
+     */
+    public void showCopyingDataPartition(final StorageDevice storageDevice,
+            final TreeCopier treeCopier) {
+        showDeviceProgress(storageDevice, "Copying_Data_Partition");
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallPersistencyCopy(treeCopier);
+            return;
+        }
+        ProgressPoller.poll(treeCopier, new DeviceProgressListener(
+                storageDevice, "Copying_Data_Partition_Progress"));
     }
 
     @Override
-    public void showUnmounting() {
-        dlCopyGUI.showInstallUnmounting();
+    public void showUnmounting(StorageDevice storageDevice) {
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallUnmounting();
+        }
+        showDeviceProgress(storageDevice, "Unmounting_File_Systems");
     }
 
     @Override
-    public void showWritingBootSector() {
-        dlCopyGUI.showInstallWritingBootSector();
+    public void showWritingBootSector(StorageDevice storageDevice) {
+        if (!isInstallingInParallel()) {
+            dlCopyGUI.showInstallWritingBootSector();
+        }
+        showDeviceProgress(storageDevice, "Writing_Boot_Sector");
     }
 
     @Override
@@ -183,6 +838,17 @@ public class Installer extends InstallerOrUpgrader
         return copyDataPartition;
     }
 
+    /**
+     * returns true if the user selected to keep the system partition of a
+     * previous installation, false otherwise
+     *
+     * @return true if the user selected to keep the system partition of a
+     * previous installation, false otherwise
+     */
+    public boolean isDeltaInstallSelected() {
+        return deltaInstall;
+    }
+
     /**
      * returns the mode for the data partition to set in the bootloaders config
      *
@@ -191,4 +857,54 @@ public class Installer extends InstallerOrUpgrader
     public DataPartitionMode getDataPartitionMode() {
         return dataPartitionMode;
     }
+
+    /**
+     * returns the maximum number of storage devices that are installed at the
+     * same time
+     *
+     * @return the maximum number of storage devices that are installed at the
+     * same time
+     */
+    public int getConcurrentInstallations() {
+        return concurrentInstallations;
+    }
+
+    /**
+     * returns true if several storage devices are installed at the same time,
+     * false otherwise
+     *
+     * @return true if several storage devices are installed at the same time,
+     * false otherwise
+     */
+    public boolean isInstallingInParallel() {
+        return (concurrentInstallations > 1) || fanOutCopy || goldenImage
+                || (stageLimits != null);
+    }
+
+    private void showDeviceProgress(StorageDevice storageDevice, String key) {
+        dlCopyGUI.setInstallDeviceProgress(
+                storageDevice, DLCopy.STRINGS.getString(key));
+    }
+
+    /**
+     * shows the polled progress of a copy operation in the results table
+     */
+    private class DeviceProgressListener extends ProgressPoller.Listener {
+
+        private final StorageDevice storageDevice;
+        private final String key;
+
+        public DeviceProgressListener(StorageDevice storageDevice,
+                String key) {
+            this.storageDevice = storageDevice;
+            this.key = key;
+        }
+
+        @Override
+        public void progressChanged(long percentage) {
+            dlCopyGUI.setInstallDeviceProgress(storageDevice,
+                    MessageFormat.format(
+                            DLCopy.STRINGS.getString(key), percentage));
+        }
+    }
 }
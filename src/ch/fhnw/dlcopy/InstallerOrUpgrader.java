@@ -102,25 +102,51 @@ public abstract class InstallerOrUpgrader
 
     /**
      * shows that file systems are being created
+     *
+     * @param storageDevice the StorageDevice being processed
      */
-    public abstract void showCreatingFileSystems();
+    public abstract void showCreatingFileSystems(StorageDevice storageDevice);
 
     /**
      * shows that files are being copied
      *
+     * @param storageDevice the StorageDevice being processed
      * @param fileCopier the fileCopier used to copy files
      */
-    public abstract void showCopyingFiles(FileCopier fileCopier);
+    public abstract void showCopyingFiles(
+            StorageDevice storageDevice, FileCopier fileCopier);
+
+    /**
+     * shows that large files are being copied
+     *
+     * @param storageDevice the StorageDevice being processed
+     * @param largeFileCopier the LargeFileCopier used to copy the large files
+     */
+    public abstract void showCopyingLargeFiles(StorageDevice storageDevice,
+            LargeFileCopier largeFileCopier);
 
     /**
      * shows that file systems are being unmounted
+     *
+     * @param storageDevice the StorageDevice being processed
      */
-    public abstract void showUnmounting();
+    public abstract void showUnmounting(StorageDevice storageDevice);
 
     /**
      * shows that the boot sector is written
+     *
+     * @param storageDevice the StorageDevice being processed
      */
-    public abstract void showWritingBootSector();
+    public abstract void showWritingBootSector(StorageDevice storageDevice);
+
+    /**
+     * unmounts the temporary partitions of the system source after a storage
+     * device has been processed (they stay mounted while the batch holds a
+     * mount lease)
+     */
+    public void unmountSourceTmpPartitions() {
+        source.unmountTmpPartitions();
+    }
 
     /**
      * returns the selected file system of the exchange partition
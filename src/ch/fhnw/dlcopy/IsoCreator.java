@@ -365,9 +365,18 @@ public class IsoCreator
                 STRINGS.getString("Compressing_Filesystem"));
         PROCESS_EXECUTOR.addPropertyChangeListener(this);
         String cowPath = cowDir.getPath();
-        int exitValue = PROCESS_EXECUTOR.executeProcess("mksquashfs",
-                cowPath, targetDirectory + "/live/filesystem.squashfs",
-                "-comp", "xz");
+        String squashFsPath = targetDirectory + "/live/filesystem.squashfs";
+        PageCacheHints pageCacheHints
+                = new PageCacheHints("creating " + squashFsPath);
+        pageCacheHints.addDestination(new File(squashFsPath));
+        pageCacheHints.start();
+        int exitValue;
+        try {
+            exitValue = PROCESS_EXECUTOR.executeProcess("mksquashfs",
+                    cowPath, squashFsPath, "-comp", "xz");
+        } finally {
+            pageCacheHints.stop();
+        }
         if (exitValue != 0) {
             throw new IOException(
                     STRINGS.getString("Error_Creating_Squashfs"));
@@ -160,10 +160,11 @@ public class IsoSystemSource extends SystemSource {
     }
 
     @Override
-    public void installExtlinux(Partition partition) throws IOException {
+    public synchronized void installExtlinux(Partition partition)
+            throws IOException {
         mountSystemImageIfNeeded();
-        processExecutor.executeProcess("sync");
         String syslinuxDir = createSyslinuxDir(partition);
+        processExecutor.executeProcess("sync", "-f", syslinuxDir);
         String rootFsSyslinuxDir = LernstickFileTools.createTempDirectory(
                 new File(rootFsPath + "/tmp"), "syslinux").getPath();
         processExecutor.executeProcess(
@@ -181,7 +182,7 @@ public class IsoSystemSource extends SystemSource {
     }
 
     @Override
-    public void unmountTmpPartitions() {
+    protected synchronized void unmountTmpMounts() {
         if (rootFsPath != null) {
             try {
                 processExecutor.executeScript(String.format(
@@ -209,7 +210,7 @@ public class IsoSystemSource extends SystemSource {
         }
     }
 
-    private void mountIsoImageIfNeeded() {
+    private synchronized void mountIsoImageIfNeeded() {
         if (mediaPath != null) {
             return;
         }
@@ -224,7 +225,7 @@ public class IsoSystemSource extends SystemSource {
         }
     }
 
-    private void mountSystemImageIfNeeded() {
+    private synchronized void mountSystemImageIfNeeded() {
         mountIsoImageIfNeeded();
         if (rootFsPath != null) {
             return;
@@ -0,0 +1,368 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.Source;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Copies the large files of a set of CopyJobs (e.g. the squashfs files of the
+ * live system) to a single storage device and paces the writeback of the
+ * storage device with the {@link DirtyWindow} of the storage device.
+ * <p>
+ * If supported by the Java runtime and the file system, the destination
+ * files are written with direct I/O in chunks that are aligned to the erase
+ * blocks of flash storage devices. In this case the page cache is bypassed
+ * completely and no writeback pacing is necessary. Reading the next chunk
+ * overlaps with writing the current one.
+ */
+public class LargeFileCopier implements ProgressPoller.Progress {
+
+    /**
+     * the minimal size of the files copied by a LargeFileCopier
+     */
+    public static final long MIN_FILE_SIZE = 64L * DLCopy.MEGA;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(LargeFileCopier.class.getName());
+    // a multiple of the erase block size of common flash storage devices
+    private static final int CHUNK_SIZE = 4 * DLCopy.MEGA;
+    private static final int BLOCK_SIZE = 4096;
+    // the open option for direct I/O or null, if it is not supported
+    static final OpenOption DIRECT = getDirectOption();
+
+    private final String device;
+    private final List<LargeFile> largeFiles = new ArrayList<>();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private volatile long byteCount;
+    private volatile boolean finished;
+    private boolean directIO;
+
+    /**
+     * creates a new LargeFileCopier
+     *
+     * @param device the device file of the storage device to write to (e.g.
+     * "/dev/sdb")
+     */
+    public LargeFileCopier(String device) {
+        this.device = device;
+    }
+
+    /**
+     * takes over all large files of the given CopyJobs
+     *
+     * @param copyJobs the CopyJobs (some of them may be <tt>null</tt>)
+     * @return the CopyJobs for the remaining files (the CopyJob of an input
+     * CopyJob without large files is the input CopyJob itself)
+     */
+    public CopyJob[] split(CopyJob... copyJobs) {
+        CopyJob[] remainingCopyJobs = new CopyJob[copyJobs.length];
+        for (int i = 0; i < copyJobs.length; i++) {
+            CopyJob copyJob = copyJobs[i];
+            if (copyJob == null) {
+                continue;
+            }
+            boolean split = false;
+            Source[] sources = copyJob.getSources();
+            Source[] remainingSources = new Source[sources.length];
+            for (int j = 0; j < sources.length; j++) {
+                Source source = sources[j];
+                List<String> relativePaths = new ArrayList<>();
+                File baseDirectory = source.getBaseDirectory();
+                String basePath = baseDirectory.getPath();
+                int baseLength = basePath.endsWith(File.separator)
+                        ? basePath.length() : basePath.length() + 1;
+                findLargeFiles(source, baseDirectory, baseLength,
+                        relativePaths);
+                if (relativePaths.isEmpty()) {
+                    remainingSources[j] = source;
+                    continue;
+                }
+                split = true;
+                StringBuilder exclusion = new StringBuilder();
+                for (String relativePath : relativePaths) {
+                    for (String destination : copyJob.getDestinations()) {
+                        addLargeFile(new File(basePath, relativePath),
+                                new File(destination, relativePath));
+                    }
+                    if (exclusion.length() > 0) {
+                        exclusion.append('|');
+                    }
+                    exclusion.append(Pattern.quote(relativePath));
+                }
+                remainingSources[j] = new Source(basePath,
+                        "(?!(?:" + exclusion + ")$)(?:"
+                        + source.getPattern().pattern() + ')');
+            }
+            remainingCopyJobs[i] = split
+                    ? new CopyJob(remainingSources, copyJob.getDestinations())
+                    : copyJob;
+        }
+        return remainingCopyJobs;
+    }
+
+    /**
+     * returns <tt>true</tt> if there are large files to copy, otherwise
+     * <tt>false</tt>
+     *
+     * @return <tt>true</tt> if there are large files to copy, otherwise
+     * <tt>false</tt>
+     */
+    public boolean hasFiles() {
+        return !largeFiles.isEmpty();
+    }
+
+    /**
+     * copies all large files
+     *
+     * @throws IOException if copying failed
+     * @throws InterruptedException if copying was interrupted
+     */
+    public void copy() throws IOException, InterruptedException {
+        try {
+            LOGGER.log(Level.INFO, "copying {0} large files ({1} byte) to "
+                    + "{2} with a dirty window of {3} byte", new Object[]{
+                        largeFiles.size(), byteCount, device,
+                        DirtyWindow.getSize()});
+            for (LargeFile largeFile : largeFiles) {
+                copy(largeFile);
+            }
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * returns the number of bytes of all large files
+     *
+     * @return the number of bytes of all large files
+     */
+    @Override
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * returns the number of bytes that were already copied
+     *
+     * @return the number of bytes that were already copied
+     */
+    @Override
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * returns <tt>true</tt> if copying is finished (either successfully or
+     * not), otherwise <tt>false</tt>
+     *
+     * @return <tt>true</tt> if copying is finished, otherwise <tt>false</tt>
+     */
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void findLargeFiles(Source source, File directory,
+            int baseLength, List<String> relativePaths) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String relativePath = file.getPath().substring(baseLength);
+            if (file.isDirectory()) {
+                if (source.isRecursive()) {
+                    findLargeFiles(source, file, baseLength, relativePaths);
+                }
+            } else if ((file.length() >= MIN_FILE_SIZE)
+                    && source.getPattern().matcher(relativePath).matches()) {
+                relativePaths.add(relativePath);
+            }
+        }
+    }
+
+    private void addLargeFile(File source, File destination) {
+        largeFiles.add(new LargeFile(source, destination));
+        byteCount += source.length();
+    }
+
+    private void copy(LargeFile largeFile)
+            throws IOException, InterruptedException {
+
+        Path destinationPath = largeFile.destination.toPath();
+        Files.createDirectories(destinationPath.getParent());
+
+        // The chunk buffers are taken from the pool one by one and released
+        // as soon as they are written, so that a copier holds at most two
+        // chunks (the one being written and the one being read) and only
+        // while it really uses them. The writer never waits for a buffer,
+        // therefore concurrent copiers can't deadlock on the pool.
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        ByteBuffer current = null;
+        Future<ByteBuffer> nextRead = null;
+        DirtyWindow.DirtyFile dirtyFile = null;
+        try (final FileChannel sourceChannel = FileChannel.open(
+                largeFile.source.toPath(), StandardOpenOption.READ);
+                FileChannel destinationChannel
+                = openDestination(destinationPath)) {
+
+            // set by openDestination()
+            boolean direct = directIO;
+            if (!direct) {
+                dirtyFile = DirtyWindow.getInstance(device).open(
+                        destinationChannel);
+            }
+            long position = 0;
+            current = readChunk(sourceChannel, position);
+            int length = current.limit();
+            while (length > 0) {
+                // read the next chunk while writing the current one
+                final long nextPosition = position + length;
+                nextRead = reader.submit(new Callable<ByteBuffer>() {
+                    @Override
+                    public ByteBuffer call() throws IOException {
+                        return readChunk(sourceChannel, nextPosition);
+                    }
+                });
+
+                if (direct && (length % BLOCK_SIZE != 0)) {
+                    // Direct writes must be a multiple of the block size.
+                    // The padding is truncated below.
+                    current.limit(
+                            (length / BLOCK_SIZE + 1) * BLOCK_SIZE);
+                }
+                while (current.hasRemaining()) {
+                    destinationChannel.write(current,
+                            position + current.position());
+                }
+                BufferPool.getInstance().release(current);
+                current = null;
+                copiedBytes.addAndGet(length);
+                if (dirtyFile != null) {
+                    dirtyFile.written(length);
+                }
+
+                position = nextPosition;
+                current = getChunk(nextRead);
+                nextRead = null;
+                length = current.limit();
+            }
+            destinationChannel.truncate(position);
+            destinationChannel.force(false);
+        } finally {
+            if (dirtyFile != null) {
+                dirtyFile.closed();
+            }
+            // the reader must not use a buffer after it was released
+            reader.shutdown();
+            reader.awaitTermination(1, TimeUnit.MINUTES);
+            if (current != null) {
+                BufferPool.getInstance().release(current);
+            }
+            if ((nextRead != null) && nextRead.isDone()) {
+                try {
+                    BufferPool.getInstance().release(getChunk(nextRead));
+                } catch (IOException ex) {
+                    // the read already failed, there is no buffer to release
+                    LOGGER.log(Level.FINE, "", ex);
+                }
+            }
+        }
+    }
+
+    private FileChannel openDestination(Path path) throws IOException {
+        directIO = false;
+        if ((DIRECT != null) && BufferPool.isPageAligned()) {
+            try {
+                FileChannel channel = FileChannel.open(path,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        DIRECT);
+                directIO = true;
+                return channel;
+            } catch (IOException ex) {
+                // e.g. tmpfs doesn't support direct I/O
+                LOGGER.log(Level.INFO, "no direct I/O for {0}: {1}",
+                        new Object[]{path, ex.getMessage()});
+            }
+        }
+        return FileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    }
+
+    private static ByteBuffer readChunk(FileChannel channel, long position)
+            throws IOException {
+        ByteBuffer buffer = BufferPool.getInstance().acquireForIO(CHUNK_SIZE);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) == -1) {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            BufferPool.getInstance().release(buffer);
+            throw ex;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer getChunk(Future<ByteBuffer> read)
+            throws IOException, InterruptedException {
+        try {
+            return read.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static OpenOption getDirectOption() {
+        // com.sun.nio.file.ExtendedOpenOption.DIRECT exists since Java 10
+        try {
+            Class<?> optionClass
+                    = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object option : optionClass.getEnumConstants()) {
+                if ("DIRECT".equals(((Enum<?>) option).name())) {
+                    return (OpenOption) option;
+                }
+            }
+        } catch (ClassNotFoundException ex) {
+            LOGGER.log(Level.FINE, "", ex);
+        }
+        LOGGER.info("direct I/O is not supported");
+        return null;
+    }
+
+    private static class LargeFile {
+
+        private final File source;
+        private final File destination;
+
+        public LargeFile(File source, File destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+}
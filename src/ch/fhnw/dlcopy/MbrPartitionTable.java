@@ -0,0 +1,553 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.ProcessExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A DOS/MBR partition table that is planned and written without any external
+ * tools
+ */
+public class MbrPartitionTable {
+
+    /**
+     * the partition type of FAT32 (LBA) partitions
+     */
+    public static final byte TYPE_FAT32 = 0x0c;
+    /**
+     * the partition type of exFAT and NTFS partitions
+     */
+    public static final byte TYPE_NTFS = 0x07;
+    /**
+     * the partition type of Linux partitions
+     */
+    public static final byte TYPE_LINUX = (byte) 0x83;
+    /**
+     * the partition type of EFI system partitions
+     */
+    public static final byte TYPE_EFI = (byte) 0xef;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(MbrPartitionTable.class.getName());
+    private static final int MBR_SIZE = 512;
+    private static final int DISK_SIGNATURE_OFFSET = 440;
+    private static final int PARTITION_TABLE_OFFSET = 446;
+    private static final int ENTRY_SIZE = 16;
+    private static final int MAX_PARTITIONS = 4;
+
+    private final long deviceSize;
+    private final int sectorSize;
+    private final long alignmentMB;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * creates a new empty MbrPartitionTable
+     *
+     * @param deviceSize the size of the storage device in byte
+     * @param sectorSize the logical sector size of the storage device in byte
+     */
+    public MbrPartitionTable(long deviceSize, int sectorSize) {
+        this(deviceSize, sectorSize, DLCopy.MEGA);
+    }
+
+    /**
+     * creates a new empty MbrPartitionTable
+     *
+     * @param deviceSize the size of the storage device in byte
+     * @param sectorSize the logical sector size of the storage device in byte
+     * @param alignment the alignment of the partitions in byte (e.g. the
+     * erase block size of a flash storage device), values smaller than 1 MiB
+     * are rounded up to 1 MiB
+     */
+    public MbrPartitionTable(long deviceSize, int sectorSize,
+            long alignment) {
+        this.deviceSize = deviceSize;
+        this.sectorSize = sectorSize;
+        this.alignmentMB = Math.max(1, alignment / DLCopy.MEGA);
+    }
+
+    /**
+     * plans the partition table of a storage device for a given partition
+     * state (the layout is the same as the one parted used to create)
+     *
+     * @param partitionState the partition state of the storage device
+     * @param deviceSize the size of the storage device in byte
+     * @param sectorSize the logical sector size of the storage device in byte
+     * @param alignment the alignment of the partitions in byte
+     * @param removable if the storage device is removable
+     * @param exchangeMB the size of the exchange partition in MiB
+     * @param persistenceMB the size of the data partition in MiB
+     * @param exchangeFileSystem the file system of the exchange partition
+     * @return the planned partition table
+     * @throws IOException if the partition state is not supported
+     */
+    public static MbrPartitionTable plan(PartitionState partitionState,
+            long deviceSize, int sectorSize, long alignment,
+            boolean removable, long exchangeMB, long persistenceMB,
+            String exchangeFileSystem) throws IOException {
+
+        MbrPartitionTable table
+                = new MbrPartitionTable(deviceSize, sectorSize, alignment);
+        long efiMB = DLCopy.EFI_PARTITION_SIZE;
+        switch (partitionState) {
+            case ONLY_SYSTEM:
+                // efi, system
+                table.add(0, efiMB, TYPE_EFI, false);
+                table.add(efiMB, -1, TYPE_LINUX, true);
+                return table;
+
+            case PERSISTENCE:
+                // efi, persistence, system
+                table.add(0, efiMB, TYPE_EFI, false);
+                table.add(efiMB, efiMB + persistenceMB, TYPE_LINUX, false);
+                table.add(efiMB + persistenceMB, -1, TYPE_LINUX, true);
+                return table;
+
+            case EXCHANGE:
+                if (exchangeMB == 0) {
+                    // efi, persistence, system
+                    table.add(0, efiMB, TYPE_EFI, false);
+                    table.add(efiMB, efiMB + persistenceMB, TYPE_LINUX,
+                            false);
+                    table.add(efiMB + persistenceMB, -1, TYPE_LINUX, true);
+                    return table;
+                }
+                byte exchangeType = "fat32".equalsIgnoreCase(
+                        exchangeFileSystem) ? TYPE_FAT32 : TYPE_NTFS;
+                long secondBorder = exchangeMB + efiMB;
+                if (removable) {
+                    // first two partitions: exchange, efi
+                    table.add(0, exchangeMB, exchangeType, false);
+                    table.add(exchangeMB, secondBorder, TYPE_EFI, true);
+                } else {
+                    // first two partitions: efi, exchange
+                    table.add(0, efiMB, TYPE_EFI, true);
+                    table.add(efiMB, secondBorder, exchangeType, false);
+                }
+                if (persistenceMB == 0) {
+                    // third partition: system
+                    table.add(secondBorder, -1, TYPE_LINUX, true);
+                } else {
+                    // last two partitions: persistence, system
+                    long persistenceBorder = secondBorder + persistenceMB;
+                    table.add(secondBorder, persistenceBorder, TYPE_LINUX,
+                            false);
+                    table.add(persistenceBorder, -1, TYPE_LINUX, true);
+                }
+                return table;
+
+            default:
+                String errorMessage = "unsupported partitionState \""
+                        + partitionState + '\"';
+                LOGGER.severe(errorMessage);
+                throw new IOException(errorMessage);
+        }
+    }
+
+    /**
+     * adds a partition to this partition table
+     *
+     * @param startMB the start of the partition in MiB, a start of 0 is moved
+     * to 1 MiB so that the partition table and boot loader have enough space
+     * @param endMB the end of the partition in MiB or -1 if the partition
+     * should reach until the end of the storage device
+     * @param type the partition type
+     * @param bootable if the partition should be marked bootable
+     */
+    public void add(long startMB, long endMB, byte type, boolean bootable) {
+        if (entries.size() == MAX_PARTITIONS) {
+            throw new IllegalStateException(
+                    "an MBR can hold only " + MAX_PARTITIONS + " partitions");
+        }
+        long sectorsPerMB = DLCopy.MEGA / sectorSize;
+        startMB = Math.max(1, startMB);
+        // Aligned partitions are moved behind the previous one (but keep at
+        // least their size), otherwise small partitions (e.g. the EFI
+        // partition) could vanish when rounding both borders.
+        long alignedStartMB = startMB;
+        if (!entries.isEmpty()) {
+            Entry previous = entries.get(entries.size() - 1);
+            alignedStartMB = Math.max(alignedStartMB,
+                    (previous.start + previous.sectors) / sectorsPerMB);
+        }
+        alignedStartMB = roundUp(alignedStartMB);
+        long start = alignedStartMB * sectorsPerMB;
+        long end = (endMB == -1) ? deviceSize / sectorSize
+                : roundUp(alignedStartMB + endMB - startMB) * sectorsPerMB;
+        entries.add(new Entry(start, end - start, type, bootable));
+    }
+
+    /**
+     * reads the partition table of a storage device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @param deviceSize the size of the storage device in byte
+     * @param sectorSize the logical sector size of the storage device in byte
+     * @return the partition table of the storage device
+     * @throws IOException if reading the partition table failed or the
+     * storage device has no MBR
+     */
+    public static MbrPartitionTable read(String device, long deviceSize,
+            int sectorSize) throws IOException {
+        ByteBuffer buffer = readMbr(device);
+        if (buffer == null) {
+            throw new IOException(device + " has no MBR");
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        MbrPartitionTable table
+                = new MbrPartitionTable(deviceSize, sectorSize);
+        for (int i = 0; i < MAX_PARTITIONS; i++) {
+            int offset = PARTITION_TABLE_OFFSET + i * ENTRY_SIZE;
+            byte type = buffer.get(offset + 4);
+            if (type == 0) {
+                break;
+            }
+            table.entries.add(new Entry(
+                    buffer.getInt(offset + 8) & 0xffffffffL,
+                    buffer.getInt(offset + 12) & 0xffffffffL,
+                    type, (buffer.get(offset) & 0x80) != 0));
+        }
+        return table;
+    }
+
+    /**
+     * returns the offset of a partition
+     *
+     * @param number the partition number (1-4)
+     * @return the offset of the partition in byte
+     */
+    public long getOffset(int number) {
+        return entries.get(number - 1).start * sectorSize;
+    }
+
+    /**
+     * returns the size of a partition
+     *
+     * @param number the partition number (1-4)
+     * @return the size of the partition in byte
+     */
+    public long getSize(int number) {
+        return entries.get(number - 1).sectors * sectorSize;
+    }
+
+    /**
+     * writes this partition table with a new random disk signature to a
+     * storage device, the rest of the first MiB and the last MiB of the
+     * storage device (where old GPT headers may reside) are wiped
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @throws IOException if writing to the storage device failed
+     */
+    public void write(String device) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(DLCopy.MEGA);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] diskSignature = new byte[4];
+        ThreadLocalRandom.current().nextBytes(diskSignature);
+        for (int i = 0; i < diskSignature.length; i++) {
+            buffer.put(DISK_SIGNATURE_OFFSET + i, diskSignature[i]);
+        }
+
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            Entry entry = entries.get(i);
+            int offset = PARTITION_TABLE_OFFSET + i * ENTRY_SIZE;
+            buffer.put(offset, (byte) (entry.bootable ? 0x80 : 0));
+            putChs(buffer, offset + 1, entry.start);
+            buffer.put(offset + 4, entry.type);
+            putChs(buffer, offset + 5, entry.start + entry.sectors - 1);
+            buffer.putInt(offset + 8, (int) entry.start);
+            buffer.putInt(offset + 12, (int) entry.sectors);
+        }
+        buffer.put(MBR_SIZE - 2, (byte) 0x55);
+        buffer.put(MBR_SIZE - 1, (byte) 0xaa);
+
+        try (FileChannel channel = FileChannel.open(
+                Paths.get(device), StandardOpenOption.WRITE)) {
+            // wipe a backup GPT at the end of the storage device
+            writeFully(channel, ByteBuffer.allocate(DLCopy.MEGA),
+                    deviceSize - DLCopy.MEGA);
+            // write the partition table in one go
+            writeFully(channel, buffer, 0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * checks if the partition table of a storage device is exactly this
+     * partition table (same partition types, positions, sizes and boot flags)
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @return true if the partition table of the storage device is exactly
+     * this partition table, false otherwise
+     * @throws IOException if reading the partition table failed
+     */
+    public boolean matches(String device) throws IOException {
+        return getMismatch(device) == null;
+    }
+
+    /**
+     * returns how the partition table of a storage device differs from this
+     * partition table
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @return a description of the first difference or <tt>null</tt> if the
+     * partition table of the storage device is exactly this partition table
+     * @throws IOException if reading the partition table failed
+     */
+    public String getMismatch(String device) throws IOException {
+        ByteBuffer buffer = readMbr(device);
+        if (buffer == null) {
+            return "no MBR";
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAX_PARTITIONS; i++) {
+            int offset = PARTITION_TABLE_OFFSET + i * ENTRY_SIZE;
+            byte type = buffer.get(offset + 4);
+            if (i >= entries.size()) {
+                if (type != 0) {
+                    return "unexpected partition " + (i + 1);
+                }
+                continue;
+            }
+            Entry entry = entries.get(i);
+            boolean bootable = (buffer.get(offset) & 0x80) != 0;
+            long start = buffer.getInt(offset + 8) & 0xffffffffL;
+            long sectors = buffer.getInt(offset + 12) & 0xffffffffL;
+            if (type != entry.type) {
+                return String.format("partition %d has type 0x%02x instead "
+                        + "of 0x%02x", i + 1, type, entry.type);
+            }
+            if (bootable != entry.bootable) {
+                return "partition " + (i + 1) + " has the wrong boot flag";
+            }
+            if ((start != entry.start) || (sectors != entry.sectors)) {
+                return "partition " + (i + 1) + " has start sector " + start
+                        + " and " + sectors + " sectors instead of "
+                        + entry.start + " and " + entry.sectors;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns the alignment of the partitions
+     *
+     * @return the alignment of the partitions in byte
+     */
+    public long getAlignment() {
+        return alignmentMB * DLCopy.MEGA;
+    }
+
+    /**
+     * changes the type of a partition in the partition table of a storage
+     * device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @param number the partition number (1-4)
+     * @param type the new partition type
+     * @return true if the partition type was changed, false if the partition
+     * already had the given type
+     * @throws IOException if the partition table could not be changed
+     */
+    public static boolean setPartitionType(String device, int number,
+            byte type) throws IOException {
+        if ((number < 1) || (number > MAX_PARTITIONS)) {
+            throw new IOException("partition " + number
+                    + " is no primary partition of " + device);
+        }
+        ByteBuffer buffer = readMbr(device);
+        if (buffer == null) {
+            throw new IOException(device + " has no MBR");
+        }
+        int typeOffset = PARTITION_TABLE_OFFSET + (number - 1) * ENTRY_SIZE + 4;
+        if (buffer.get(typeOffset) == type) {
+            return false;
+        }
+        buffer.put(typeOffset, type);
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(
+                Paths.get(device), StandardOpenOption.WRITE)) {
+            writeFully(channel, buffer, 0);
+            channel.force(true);
+            return true;
+        }
+    }
+
+    /**
+     * returns the end of the last partition in the partition table of a
+     * storage device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @param sectorSize the logical sector size of the storage device in byte
+     * @return the end of the last partition in byte
+     * @throws IOException if reading the partition table failed
+     */
+    public static long getPartitionsEnd(String device, int sectorSize)
+            throws IOException {
+        ByteBuffer buffer = readMbr(device);
+        if (buffer == null) {
+            throw new IOException(device + " has no MBR");
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long end = 0;
+        for (int i = 0; i < MAX_PARTITIONS; i++) {
+            int offset = PARTITION_TABLE_OFFSET + i * ENTRY_SIZE;
+            if (buffer.get(offset + 4) != 0) {
+                long start = buffer.getInt(offset + 8) & 0xffffffffL;
+                long sectors = buffer.getInt(offset + 12) & 0xffffffffL;
+                end = Math.max(end, start + sectors);
+            }
+        }
+        return end * sectorSize;
+    }
+
+    /**
+     * grows the last partition in the partition table of a storage device
+     * until the end of the storage device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @param number the number of the last partition (1-4)
+     * @param deviceSize the size of the storage device in byte
+     * @param sectorSize the logical sector size of the storage device in byte
+     * @throws IOException if the partition table could not be changed
+     */
+    public static void growLastPartition(String device, int number,
+            long deviceSize, int sectorSize) throws IOException {
+        if ((number < 1) || (number > MAX_PARTITIONS)) {
+            throw new IOException("partition " + number
+                    + " is no primary partition of " + device);
+        }
+        ByteBuffer buffer = readMbr(device);
+        if (buffer == null) {
+            throw new IOException(device + " has no MBR");
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int offset = PARTITION_TABLE_OFFSET + (number - 1) * ENTRY_SIZE;
+        long start = buffer.getInt(offset + 8) & 0xffffffffL;
+        for (int i = 0; i < MAX_PARTITIONS; i++) {
+            int otherOffset = PARTITION_TABLE_OFFSET + i * ENTRY_SIZE;
+            if ((buffer.get(otherOffset + 4) != 0)
+                    && ((buffer.getInt(otherOffset + 8) & 0xffffffffL)
+                    > start)) {
+                throw new IOException("partition " + number
+                        + " is not the last partition of " + device);
+            }
+        }
+        long sectors = deviceSize / sectorSize - start;
+        putChs(buffer, offset + 5, start + sectors - 1);
+        buffer.putInt(offset + 12, (int) sectors);
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(
+                Paths.get(device), StandardOpenOption.WRITE)) {
+            writeFully(channel, buffer, 0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * lets the kernel re-read the partition table of a storage device
+     *
+     * @param device the device file of the storage device (e.g. "/dev/sdb")
+     * @return true if the partition table was re-read, false otherwise
+     */
+    public static boolean rereadPartitionTable(String device) {
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        if (processExecutor.executeProcess(true, true,
+                "blockdev", "--rereadpt", device) == 0) {
+            return true;
+        }
+        LOGGER.log(Level.WARNING, "blockdev --rereadpt {0} failed: {1}",
+                new Object[]{device, processExecutor.getOutput()});
+        return processExecutor.executeProcess("partprobe", device) == 0;
+    }
+
+    /**
+     * returns the logical sector size of a storage device
+     *
+     * @param device the name of the storage device (e.g. "sdb")
+     * @return the logical sector size of a storage device
+     */
+    public static int getSectorSize(String device) {
+        try {
+            return Integer.parseInt(DLCopy.readOneLineFile(new File(
+                    "/sys/block/" + device + "/queue/logical_block_size"))
+                    .trim());
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return MBR_SIZE;
+        }
+    }
+
+    private long roundUp(long mb) {
+        return (mb + alignmentMB - 1) / alignmentMB * alignmentMB;
+    }
+
+    private static ByteBuffer readMbr(String device) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                Paths.get(device), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(MBR_SIZE);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) == -1) {
+                    throw new IOException("could not read MBR of " + device);
+                }
+            }
+            if ((buffer.get(MBR_SIZE - 2) != 0x55)
+                    || (buffer.get(MBR_SIZE - 1) != (byte) 0xaa)) {
+                return null;
+            }
+            return buffer;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void putChs(ByteBuffer buffer, int offset, long lba) {
+        // classic geometry with 255 heads and 63 sectors per track,
+        // addresses beyond 1023/254/63 are marked as unreachable
+        int cylinder;
+        int head;
+        int sector;
+        if (lba >= 1024L * 255 * 63) {
+            cylinder = 1023;
+            head = 254;
+            sector = 63;
+        } else {
+            cylinder = (int) (lba / (255 * 63));
+            head = (int) ((lba / 63) % 255);
+            sector = (int) (lba % 63) + 1;
+        }
+        buffer.put(offset, (byte) head);
+        buffer.put(offset + 1, (byte) (sector | ((cylinder >> 2) & 0xc0)));
+        buffer.put(offset + 2, (byte) cylinder);
+    }
+
+    private static class Entry {
+
+        private final long start;
+        private final long sectors;
+        private final byte type;
+        private final boolean bootable;
+
+        public Entry(long start, long sectors, byte type, boolean bootable) {
+            this.start = start;
+            this.sectors = sectors;
+            this.type = type;
+            this.bootable = bootable;
+        }
+    }
+}
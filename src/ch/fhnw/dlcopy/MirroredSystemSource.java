@@ -0,0 +1,344 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.FileCopier;
+import ch.fhnw.filecopier.Source;
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.Partition;
+import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.util.StorageDevice;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * A system source that mirrors the copy sources of another system source
+ * (e.g. the running system on a slow storage device or a loop mounted ISO
+ * file) into memory. When many storage devices are installed one after
+ * another or concurrently, every installation reads the complete system
+ * source again. With the mirror the system source is read only once and all
+ * installations read the files from memory.
+ * <p>
+ * The mirror is a tmpfs that is only created if there is enough available
+ * memory. Otherwise (or if mirroring fails) all files are read from the
+ * original system source.
+ */
+public class MirroredSystemSource extends SystemSource {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(MirroredSystemSource.class.getName());
+    // the memory that must remain available besides the mirror and the copy
+    // buffers
+    private static final long MIN_FREE_MEMORY = 512 * DLCopy.MEGA;
+
+    private final SystemSource source;
+    private final ProcessExecutor processExecutor = new ProcessExecutor();
+    private String mirrorPath;
+    private Source efiCopySource;
+    private Source systemCopySourceBoot;
+    private Source systemCopySourceFull;
+    private long mirroredBytes;
+    private long warmUpTime;
+
+    /**
+     * creates a new MirroredSystemSource
+     *
+     * @param source the system source to mirror
+     */
+    public MirroredSystemSource(SystemSource source) {
+        this.source = source;
+    }
+
+    /**
+     * copies the files of the system source into memory
+     *
+     * @param fileCopier the FileCopier to use (for showing the progress)
+     * @return <tt>true</tt> if the system source was mirrored, <tt>false</tt>
+     * if there is not enough available memory or mirroring failed
+     */
+    public synchronized boolean mirror(FileCopier fileCopier) {
+        if (mirrorPath != null) {
+            return true;
+        }
+        try {
+            Source efiSource = source.getEfiCopySource();
+            Source systemSource = source.getSystemCopySourceFull();
+            long byteCount = getByteCount(efiSource, systemSource);
+            long usableMemory = getAvailableMemory() - MIN_FREE_MEMORY
+                    - BufferPool.getInstance().getBudget();
+            if (byteCount > usableMemory) {
+                LOGGER.log(Level.INFO, "not enough memory for mirroring the "
+                        + "system source ({0} byte needed, {1} byte usable)",
+                        new Object[]{byteCount, usableMemory});
+                return false;
+            }
+
+            File mirrorDir = LernstickFileTools.createTempDirectory(
+                    new File("/tmp/"), "DLCopy");
+            // some slack for directories and file system metadata
+            long mirrorSize = byteCount + 16 * DLCopy.MEGA;
+            if (processExecutor.executeProcess(true, true, "mount",
+                    "-t", "tmpfs", "-o", "size=" + mirrorSize + ",mode=0700",
+                    "tmpfs", mirrorDir.getPath()) != 0) {
+                LOGGER.log(Level.WARNING, "could not mount tmpfs: {0}",
+                        processExecutor.getOutput());
+                if (!mirrorDir.delete()) {
+                    LOGGER.log(Level.WARNING,
+                            "could not delete {0}", mirrorDir);
+                }
+                return false;
+            }
+            mirrorPath = mirrorDir.getPath();
+
+            long start = System.currentTimeMillis();
+            String efiPath = mirrorPath + "/efi";
+            String systemPath = mirrorPath + "/system";
+            for (String path : new String[]{efiPath, systemPath}) {
+                if (!new File(path).mkdir()) {
+                    throw new IOException("could not create " + path);
+                }
+            }
+            fileCopier.copy(
+                    new CopyJob(new Source[]{efiSource},
+                            new String[]{efiPath}),
+                    new CopyJob(new Source[]{systemSource},
+                            new String[]{systemPath}));
+            warmUpTime = System.currentTimeMillis() - start;
+            mirroredBytes = byteCount;
+
+            efiCopySource = new Source(
+                    efiPath, efiSource.getPattern().pattern());
+            systemCopySourceBoot = new Source(systemPath,
+                    source.getSystemCopySourceBoot().getPattern().pattern());
+            systemCopySourceFull = new Source(
+                    systemPath, systemSource.getPattern().pattern());
+            LOGGER.log(Level.INFO, "mirrored {0} byte of the system source "
+                    + "to {1} in {2} ms", new Object[]{
+                        mirroredBytes, mirrorPath, warmUpTime});
+            return true;
+
+        } catch (DBusException | IOException ex) {
+            LOGGER.log(Level.WARNING, "could not mirror the system source", ex);
+            release();
+            return false;
+        }
+    }
+
+    /**
+     * removes the mirror from memory, afterwards all files are read from the
+     * original system source again
+     */
+    public synchronized void release() {
+        efiCopySource = null;
+        systemCopySourceBoot = null;
+        systemCopySourceFull = null;
+        if (mirrorPath == null) {
+            return;
+        }
+        if (processExecutor.executeProcess(true, true, "umount", mirrorPath)
+                == 0) {
+            if (!new File(mirrorPath).delete()) {
+                LOGGER.log(Level.WARNING, "could not delete {0}", mirrorPath);
+            }
+        } else {
+            LOGGER.log(Level.WARNING, "could not umount {0}: {1}",
+                    new Object[]{mirrorPath, processExecutor.getOutput()});
+        }
+        mirrorPath = null;
+    }
+
+    /**
+     * returns the number of bytes in the mirror
+     *
+     * @return the number of bytes in the mirror
+     */
+    public long getMirroredBytes() {
+        return mirroredBytes;
+    }
+
+    /**
+     * returns the time it took to read the system source into memory
+     *
+     * @return the time it took to read the system source into memory in
+     * milliseconds
+     */
+    public long getWarmUpTime() {
+        return warmUpTime;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return source.getDeviceName();
+    }
+
+    @Override
+    public StorageDevice.Type getDeviceType() {
+        return source.getDeviceType();
+    }
+
+    @Override
+    public boolean hasEfiPartition() {
+        return source.hasEfiPartition();
+    }
+
+    @Override
+    public boolean hasExchangePartition() {
+        return source.hasExchangePartition();
+    }
+
+    @Override
+    public DataPartitionMode getDataPartitionMode() {
+        return source.getDataPartitionMode();
+    }
+
+    @Override
+    public DebianLiveVersion getSystemVersion() {
+        return source.getSystemVersion();
+    }
+
+    @Override
+    public String getSystemPath() {
+        return source.getSystemPath();
+    }
+
+    @Override
+    public long getSystemSize() {
+        return source.getSystemSize();
+    }
+
+    @Override
+    public synchronized Source getEfiCopySource() throws DBusException {
+        return efiCopySource == null
+                ? source.getEfiCopySource() : efiCopySource;
+    }
+
+    @Override
+    public synchronized Source getSystemCopySourceBoot() {
+        return systemCopySourceBoot == null
+                ? source.getSystemCopySourceBoot() : systemCopySourceBoot;
+    }
+
+    @Override
+    public synchronized Source getSystemCopySourceFull() {
+        return systemCopySourceFull == null
+                ? source.getSystemCopySourceFull() : systemCopySourceFull;
+    }
+
+    @Override
+    public Source getPersistentCopySource() {
+        return source.getPersistentCopySource();
+    }
+
+    @Override
+    public Source getExchangeCopySource() throws DBusException {
+        return source.getExchangeCopySource();
+    }
+
+    @Override
+    public Partition getEfiPartition() {
+        return source.getEfiPartition();
+    }
+
+    @Override
+    public Partition getExchangePartition() {
+        return source.getExchangePartition();
+    }
+
+    @Override
+    public Partition getDataPartition() {
+        return source.getDataPartition();
+    }
+
+    @Override
+    public String getMbrPath() {
+        return source.getMbrPath();
+    }
+
+    @Override
+    public void installExtlinux(Partition partition) throws IOException {
+        source.installExtlinux(partition);
+    }
+
+    @Override
+    public void unmountTmpPartitions() {
+        source.unmountTmpPartitions();
+    }
+
+    @Override
+    public void acquireMountLease() {
+        source.acquireMountLease();
+    }
+
+    @Override
+    public void releaseMountLease() {
+        source.releaseMountLease();
+    }
+
+    @Override
+    public String mountDataPartition() throws DBusException, IOException {
+        return source.mountDataPartition();
+    }
+
+    @Override
+    public void umountDataPartition() throws DBusException {
+        source.umountDataPartition();
+    }
+
+    @Override
+    protected void unmountTmpMounts() {
+        // the mounts belong to the mirrored source
+        source.unmountTmpPartitions();
+    }
+
+    private static long getByteCount(Source... sources) {
+        long byteCount = 0;
+        for (Source copySource : sources) {
+            File baseDirectory = copySource.getBaseDirectory();
+            String basePath = baseDirectory.getPath();
+            int baseLength = basePath.endsWith(File.separator)
+                    ? basePath.length() : basePath.length() + 1;
+            byteCount += getByteCount(copySource, baseDirectory, baseLength);
+        }
+        return byteCount;
+    }
+
+    private static long getByteCount(
+            Source copySource, File directory, int baseLength) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long byteCount = 0;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (copySource.isRecursive()) {
+                    byteCount += getByteCount(copySource, file, baseLength);
+                }
+            } else if (copySource.getPattern().matcher(
+                    file.getPath().substring(baseLength)).matches()) {
+                byteCount += file.length();
+            }
+        }
+        return byteCount;
+    }
+
+    private static long getAvailableMemory() throws IOException {
+        // the mirror must not push the system into swap, therefore only
+        // MemAvailable counts (and not SwapFree)
+        for (String line : LernstickFileTools.readFile(
+                new File("/proc/meminfo"))) {
+            if (line.startsWith("MemAvailable:")) {
+                String[] tokens = line.split("\\s+");
+                try {
+                    return Long.parseLong(tokens[1]) * 1024;
+                } catch (NumberFormatException ex) {
+                    throw new IOException(
+                            "could not parse meminfo line: " + line, ex);
+                }
+            }
+        }
+        throw new IOException("MemAvailable is missing in /proc/meminfo");
+    }
+}
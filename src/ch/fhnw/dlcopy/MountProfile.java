@@ -0,0 +1,224 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.MountInfo;
+import ch.fhnw.util.Partition;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Mounts destination partitions with options for bulk writes. UDisks mounts
+ * partitions with desktop defaults (e.g. vfat with <tt>flush</tt>, which
+ * writes every file back when it is closed, and all file systems with atime
+ * updates and the default journal commit interval). When writing a complete
+ * installation these defaults only cost throughput. Durability is guaranteed
+ * instead by a single explicit flush before unmounting.
+ */
+public class MountProfile {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(MountProfile.class.getName());
+    private static final String VFAT_OPTIONS
+            = "noatime,shortname=mixed,utf8=1,showexec";
+    private static final String EXT_OPTIONS = "noatime,commit=60";
+    // the mount paths of all partitions mounted by this class
+    private static final Map<String, String> MOUNT_PATHS = new HashMap<>();
+
+    /**
+     * mounts a destination partition for bulk writes
+     *
+     * @param partition the destination partition
+     * @return the mount information of the partition
+     * @throws DBusException if a DBusException occurs
+     * @throws IOException if the partition could not be mounted
+     */
+    public static MountInfo mountForBulkWrite(Partition partition)
+            throws DBusException, IOException {
+
+        String device = "/dev/" + partition.getDeviceAndNumber();
+        String type = partition.getIdType();
+        String options = getOptions(type);
+        if (options == null) {
+            LOGGER.log(Level.INFO, "no bulk write options for {0} ({1})",
+                    new Object[]{device, type});
+            return partition.mount();
+        }
+
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        if (partition.isMounted()) {
+            // The options that can't be changed when remounting (e.g. flush)
+            // stay as they are.
+            String mountPath = partition.getMountPath();
+            String remountOptions = "remount,"
+                    + (type.startsWith("ext") ? options : "noatime");
+            if (processExecutor.executeProcess(true, true, "mount", "-o",
+                    remountOptions, mountPath) != 0) {
+                LOGGER.log(Level.WARNING, "could not remount {0}: {1}",
+                        new Object[]{mountPath, processExecutor.getOutput()});
+            }
+            return new MountInfo(mountPath, true);
+        }
+
+        String mountPath = mount(device, type, options);
+        if (mountPath == null) {
+            return partition.mount();
+        }
+        return new MountInfo(mountPath, false);
+    }
+
+    /**
+     * mounts a destination device that UDisks doesn't know as a partition
+     * (e.g. the LUKS mapping of a data partition) for bulk writes
+     *
+     * @param device the device file (e.g. "/dev/mapper/persistence_sdb4")
+     * @return the mount path of the device
+     * @throws IOException if the device could not be mounted
+     */
+    public static String mountForBulkWrite(String device) throws IOException {
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        String type = null;
+        if (processExecutor.executeProcess(true, true, "blkid",
+                "-o", "value", "-s", "TYPE", device) == 0) {
+            type = processExecutor.getOutput().trim();
+        }
+        String options = getOptions(type);
+        String mountPath = mount(device, type,
+                options == null ? "defaults" : options);
+        if (mountPath == null) {
+            throw new IOException("could not mount " + device);
+        }
+        return mountPath;
+    }
+
+    /**
+     * flushes and unmounts a partition (partitions that were not mounted by
+     * {@link #mountForBulkWrite(Partition)} are unmounted via UDisks)
+     *
+     * @param partition the partition
+     * @return <tt>true</tt>, if flushing and unmounting was successfull,
+     * <tt>false</tt> otherwise
+     * @throws DBusException if a DBusException occurs
+     */
+    public static boolean umount(Partition partition) throws DBusException {
+        String device = "/dev/" + partition.getDeviceAndNumber();
+        String mountPath;
+        synchronized (MOUNT_PATHS) {
+            mountPath = MOUNT_PATHS.remove(device);
+        }
+        if (mountPath == null) {
+            return partition.umount();
+        }
+        return flushAndUmount(device, mountPath);
+    }
+
+    /**
+     * flushes and unmounts a device that was mounted by
+     * {@link #mountForBulkWrite(String)}
+     *
+     * @param device the device file (e.g. "/dev/mapper/persistence_sdb4")
+     * @return <tt>true</tt>, if flushing and unmounting was successfull,
+     * <tt>false</tt> otherwise
+     */
+    public static boolean umount(String device) {
+        String mountPath;
+        synchronized (MOUNT_PATHS) {
+            mountPath = MOUNT_PATHS.remove(device);
+        }
+        if (mountPath == null) {
+            LOGGER.log(Level.WARNING, "{0} was not mounted for bulk writes",
+                    device);
+            return false;
+        }
+        return flushAndUmount(device, mountPath);
+    }
+
+    private static String mount(String device, String type, String options)
+            throws IOException {
+        File mountDir = LernstickFileTools.createTempDirectory(
+                new File("/tmp/"), "DLCopy");
+        String mountPath = mountDir.getCanonicalPath();
+        List<String> command = new ArrayList<>();
+        command.add("mount");
+        if (type != null) {
+            command.add("-t");
+            command.add(type);
+        }
+        command.add("-o");
+        command.add(options);
+        command.add(device);
+        command.add(mountPath);
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        if (processExecutor.executeProcess(true, true,
+                command.toArray(new String[command.size()])) != 0) {
+            LOGGER.log(Level.WARNING, "could not mount {0} with {1}: {2}",
+                    new Object[]{device, options,
+                        processExecutor.getOutput()});
+            if (!mountDir.delete()) {
+                LOGGER.log(Level.WARNING, "could not delete {0}", mountDir);
+            }
+            return null;
+        }
+        LOGGER.log(Level.INFO, "mounted {0} with {1} at {2}",
+                new Object[]{device, options, mountPath});
+        synchronized (MOUNT_PATHS) {
+            MOUNT_PATHS.put(device, mountPath);
+        }
+        return mountPath;
+    }
+
+    private static boolean flushAndUmount(String device, String mountPath) {
+        // the explicit flush makes the written data durable
+        ProcessExecutor processExecutor = new ProcessExecutor();
+        long start = System.currentTimeMillis();
+        boolean flushed = processExecutor.executeProcess(
+                true, true, "sync", "-f", mountPath) == 0;
+        if (flushed) {
+            LOGGER.log(Level.INFO, "flushing {0} took {1} ms", new Object[]{
+                device, System.currentTimeMillis() - start});
+        } else {
+            // we still unmount, but the data may not be durable
+            LOGGER.log(Level.SEVERE, "could not flush {0}: {1}",
+                    new Object[]{mountPath, processExecutor.getOutput()});
+        }
+
+        if (processExecutor.executeProcess(true, true, "umount", mountPath)
+                != 0) {
+            LOGGER.log(Level.WARNING, "could not umount {0}: {1}",
+                    new Object[]{mountPath, processExecutor.getOutput()});
+            synchronized (MOUNT_PATHS) {
+                MOUNT_PATHS.put(device, mountPath);
+            }
+            return false;
+        }
+        if (!new File(mountPath).delete()) {
+            LOGGER.log(Level.WARNING, "could not delete {0}", mountPath);
+        }
+        return flushed;
+    }
+
+    private static String getOptions(String type) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "vfat":
+                return VFAT_OPTIONS;
+            case "ext3":
+            case "ext4":
+                return EXT_OPTIONS;
+            case "ext2":
+                // ext2 has no journal
+                return "noatime";
+            default:
+                return null;
+        }
+    }
+}
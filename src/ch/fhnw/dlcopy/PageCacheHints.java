@@ -0,0 +1,282 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.filecopier.CopyJob;
+import ch.fhnw.filecopier.Source;
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps large copy operations from flooding the page cache. When enabled, the
+ * pages of large source files are dropped after they were consumed and the
+ * pages of large destination files are dropped after they were written back,
+ * so that the working set of a running live system stays in memory. The
+ * writeback itself is left to the copy operation (e.g. the paced
+ * <tt>force()</tt> calls of the LargeFileCopier), dirty pages are never
+ * flushed here. As Java has no access to <tt>posix_fadvise()</tt> the hints
+ * are given with the <tt>nocache</tt> flags of <tt>dd</tt> (with
+ * <tt>count=0</tt> they just advise the kernel to drop the cached pages of
+ * the whole file without reading or writing anything). To keep the number of
+ * processes low, a file gets a new hint only after another
+ * {@link #HINT_INTERVAL} bytes were copied.
+ * <p>
+ * Independent of the hints, the memory pressure (see
+ * <tt>/proc/pressure/memory</tt>) and the size of the page cache during the
+ * copy operation are logged, so that copy operations with and without hints
+ * can be compared.
+ */
+public class PageCacheHints {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PageCacheHints.class.getName());
+    // smaller files are not worth starting a process
+    private static final long MIN_FILE_SIZE = 32L * DLCopy.MEGA;
+    private static final long HINT_INTERVAL = 64L * DLCopy.MEGA;
+    private static final long PERIOD = 1000;
+    private static final Pattern PRESSURE_PATTERN
+            = Pattern.compile("(some|full) .* total=(\\d+)");
+    private static final Pattern CACHED_PATTERN
+            = Pattern.compile("Cached:\\s+(\\d+) kB");
+    private static volatile boolean enabled;
+
+    private final String name;
+    private final List<TrackedFile> trackedFiles = new ArrayList<>();
+    private final ProcessExecutor processExecutor = new ProcessExecutor();
+    private Timer timer;
+    private long[] startPressure;
+    private long startCached;
+    private long maxCached;
+
+    /**
+     * enables or disables the cache hints of all copy operations
+     *
+     * @param enabled if the cache hints should be given
+     */
+    public static void setEnabled(boolean enabled) {
+        PageCacheHints.enabled = enabled;
+    }
+
+    /**
+     * returns <tt>true</tt> if cache hints are given, otherwise
+     * <tt>false</tt>
+     *
+     * @return <tt>true</tt> if cache hints are given, otherwise
+     * <tt>false</tt>
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * creates new PageCacheHints
+     *
+     * @param name the name of the copy operation (used for logging)
+     */
+    public PageCacheHints(String name) {
+        this.name = name;
+    }
+
+    /**
+     * adds the large files of CopyJobs to the files with cache hints
+     *
+     * @param copyJobs the CopyJobs (some of them may be <tt>null</tt>)
+     */
+    public void addCopyJobs(CopyJob... copyJobs) {
+        if (!enabled) {
+            return;
+        }
+        for (CopyJob copyJob : copyJobs) {
+            if (copyJob == null) {
+                continue;
+            }
+            for (Source source : copyJob.getSources()) {
+                File baseDirectory = source.getBaseDirectory();
+                String basePath = baseDirectory.getPath();
+                int baseLength = basePath.endsWith(File.separator)
+                        ? basePath.length() : basePath.length() + 1;
+                for (String destination : copyJob.getDestinations()) {
+                    addSourceFiles(source, baseDirectory, baseLength,
+                            destination);
+                }
+            }
+        }
+    }
+
+    /**
+     * adds a destination file that is written by an external process (e.g.
+     * mksquashfs) to the files with cache hints
+     *
+     * @param destination the destination file
+     */
+    public void addDestination(File destination) {
+        if (enabled) {
+            trackedFiles.add(new TrackedFile(null, destination));
+        }
+    }
+
+    /**
+     * starts giving cache hints and measuring the memory pressure
+     */
+    public synchronized void start() {
+        startPressure = readPressure();
+        startCached = readCached();
+        maxCached = startCached;
+        timer = new Timer("PageCacheHints " + name, true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                update(false);
+            }
+        }, PERIOD, PERIOD);
+    }
+
+    /**
+     * stops giving cache hints (after dropping the pages of the last copied
+     * files) and logs the memory pressure during the copy operation
+     */
+    public void stop() {
+        synchronized (this) {
+            if (timer == null) {
+                return;
+            }
+            timer.cancel();
+            timer = null;
+        }
+        update(true);
+
+        long[] pressure = readPressure();
+        long cached = readCached();
+        LOGGER.log(Level.INFO, "{0}: cache hints {1}, memory stalls: "
+                + "some {2} ms, full {3} ms, page cache: {4} MiB -> {5} MiB "
+                + "(max {6} MiB)", new Object[]{name,
+                    enabled ? "enabled" : "disabled",
+                    getStallTime(pressure, 0), getStallTime(pressure, 1),
+                    startCached / 1024, cached / 1024, maxCached / 1024});
+    }
+
+    private void addSourceFiles(Source source, File directory,
+            int baseLength, String destination) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String relativePath = file.getPath().substring(baseLength);
+            if (file.isDirectory()) {
+                if (source.isRecursive()) {
+                    addSourceFiles(source, file, baseLength, destination);
+                }
+            } else if ((file.length() >= MIN_FILE_SIZE)
+                    && source.getPattern().matcher(relativePath).matches()) {
+                trackedFiles.add(new TrackedFile(
+                        file, new File(destination, relativePath)));
+            }
+        }
+    }
+
+    private synchronized void update(boolean finished) {
+        maxCached = Math.max(maxCached, readCached());
+        for (TrackedFile trackedFile : trackedFiles) {
+            trackedFile.dropPages(finished);
+        }
+    }
+
+    private long getStallTime(long[] pressure, int index) {
+        if ((startPressure[index] < 0) || (pressure[index] < 0)) {
+            return -1;
+        }
+        // the totals are in microseconds
+        return (pressure[index] - startPressure[index]) / 1000;
+    }
+
+    private static long[] readPressure() {
+        // not all kernels support pressure stall information
+        long[] pressure = new long[]{-1, -1};
+        try {
+            for (String line : LernstickFileTools.readFile(
+                    new File("/proc/pressure/memory"))) {
+                Matcher matcher = PRESSURE_PATTERN.matcher(line);
+                if (matcher.matches()) {
+                    int index = matcher.group(1).equals("some") ? 0 : 1;
+                    pressure[index] = Long.parseLong(matcher.group(2));
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "", ex);
+        }
+        return pressure;
+    }
+
+    private static long readCached() {
+        try {
+            for (String line : LernstickFileTools.readFile(
+                    new File("/proc/meminfo"))) {
+                Matcher matcher = CACHED_PATTERN.matcher(line);
+                if (matcher.matches()) {
+                    return Long.parseLong(matcher.group(1));
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+        }
+        return 0;
+    }
+
+    private class TrackedFile {
+
+        private final File source;
+        private final File destination;
+        private long hintedBytes;
+        private boolean done;
+
+        public TrackedFile(File source, File destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+
+        public void dropPages(boolean finished) {
+            if (done || !destination.exists()) {
+                // already completely dropped or not yet copied
+                return;
+            }
+
+            // the rest of the file is dropped when the copy operation is
+            // finished
+            long copiedBytes = destination.length();
+            if (!finished && (copiedBytes - hintedBytes < HINT_INTERVAL)) {
+                return;
+            }
+            hintedBytes = copiedBytes;
+            done = finished;
+
+            // the hint covers the whole source file, pages that were read
+            // ahead but not yet consumed are just read again
+            if (source != null) {
+                execute("dd", "if=" + source.getPath(), "of=/dev/null",
+                        "iflag=nocache", "count=0", "status=none");
+            }
+
+            // only pages that were already written back are dropped
+            execute("dd", "if=/dev/null", "of=" + destination.getPath(),
+                    "oflag=nocache", "conv=notrunc", "count=0",
+                    "status=none");
+        }
+
+        private void execute(String... commandArray) {
+            if (processExecutor.executeProcess(true, true, commandArray)
+                    != 0) {
+                LOGGER.log(Level.WARNING, "could not drop pages: {0}",
+                        processExecutor.getOutput());
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.Partition;
+import ch.fhnw.util.StorageDevice;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Determines the used space of partitions in the background. Determining the
+ * used space of a partition may mount its file system, therefore the
+ * partitions are processed in parallel on a bounded pool and the results are
+ * cached by the device file and serial of the storage device and the UUID of
+ * the partition file system (or the device file of the partition, if it has
+ * no UUID). So they survive the recreation of the StorageDevice objects
+ * whenever a storage device list is updated. The cache keys are determined
+ * on the pool as well, so that callers on the Swing event thread (e.g. list
+ * renderers) never wait for the file system.
+ * <p>
+ * The cache of a storage device must be invalidated when the storage device
+ * is plugged in again or when a job (installation, upgrade, reset) changes
+ * its partitions.
+ */
+public class PartitionUsageService {
+
+    /**
+     * the listener for determined partition usages
+     */
+    public interface Listener {
+
+        /**
+         * called (in a background thread) when the used space of a
+         * partition was determined
+         *
+         * @param storageDevice the storage device of the partition
+         */
+        void usageDetermined(StorageDevice storageDevice);
+    }
+
+    /**
+     * the used space of a partition that is not yet determined
+     */
+    public static final long PENDING = -2;
+
+    private static final Logger LOGGER
+            = Logger.getLogger(PartitionUsageService.class.getName());
+    private static final PartitionUsageService INSTANCE
+            = new PartitionUsageService(4);
+
+    private final ExecutorService executorService;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // the used space of all partitions we know of
+    private final Map<String, Long> usedSpaces = new HashMap<>();
+    // the partitions that are submitted but not yet processed
+    private final Set<Partition> pendingPartitions = new HashSet<>();
+    // the keys of the partitions that are currently processed
+    private final Set<String> pendingKeys = new HashSet<>();
+    // The pending keys that were invalidated while they were processed. The
+    // results of these computations may be outdated and are dropped.
+    private final Set<String> invalidatedKeys = new HashSet<>();
+    // the cache keys of all Partition objects we have seen
+    private final Map<Partition, String> keys = new WeakHashMap<>();
+
+    /**
+     * creates a new PartitionUsageService
+     *
+     * @param threads the number of partitions that are processed in parallel
+     */
+    public PartitionUsageService(int threads) {
+        executorService = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * returns the PartitionUsageService shared by all operations
+     *
+     * @return the PartitionUsageService shared by all operations
+     */
+    public static PartitionUsageService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * adds a listener for determined partition usages
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * returns the used space of a partition, if it is not yet known it is
+     * determined in the background
+     *
+     * @param storageDevice the storage device of the partition
+     * @param partition the partition
+     * @return the used space of the partition in byte, -1 if it can't be
+     * determined or {@link #PENDING} if it is not yet determined
+     */
+    public synchronized long getUsedSpace(
+            StorageDevice storageDevice, Partition partition) {
+        String key = keys.get(partition);
+        if (key != null) {
+            Long usedSpace = usedSpaces.get(key);
+            if (usedSpace != null) {
+                return usedSpace;
+            }
+        }
+        submit(storageDevice, partition);
+        return PENDING;
+    }
+
+    /**
+     * determines the used space of all partitions of a storage device in the
+     * background
+     *
+     * @param storageDevice the storage device
+     */
+    public synchronized void prefetch(StorageDevice storageDevice) {
+        for (Partition partition : storageDevice.getPartitions()) {
+            String key = keys.get(partition);
+            if ((key == null) || !usedSpaces.containsKey(key)) {
+                submit(storageDevice, partition);
+            }
+        }
+    }
+
+    /**
+     * removes the cached used space of all partitions of a storage device
+     *
+     * @param storageDevice the storage device
+     */
+    public synchronized void invalidate(StorageDevice storageDevice) {
+        String prefix = getPrefix(storageDevice);
+        // the UUIDs may have changed as well
+        for (Iterator<String> iterator = keys.values().iterator();
+                iterator.hasNext();) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<String> iterator = usedSpaces.keySet().iterator();
+                iterator.hasNext();) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+        for (String pendingKey : pendingKeys) {
+            if (pendingKey.startsWith(prefix)) {
+                invalidatedKeys.add(pendingKey);
+            }
+        }
+    }
+
+    private void submit(final StorageDevice storageDevice,
+            final Partition partition) {
+        if (!pendingPartitions.add(partition)) {
+            return;
+        }
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                String key = getKey(storageDevice, partition);
+                synchronized (PartitionUsageService.this) {
+                    pendingPartitions.remove(partition);
+                    // another Partition object of the same partition may
+                    // already be processed or even be finished
+                    if (usedSpaces.containsKey(key)) {
+                        key = null;
+                    } else if (!pendingKeys.add(key)) {
+                        return;
+                    }
+                }
+                if (key != null) {
+                    determineUsedSpace(partition, key);
+                }
+                for (Listener listener : listeners) {
+                    listener.usageDetermined(storageDevice);
+                }
+            }
+        });
+    }
+
+    private void determineUsedSpace(Partition partition, String key) {
+        long usedSpace = -1;
+        try {
+            if (!partition.isExtended()) {
+                // only hidden files count on persistence partitions
+                usedSpace = partition.getUsedSpace(
+                        partition.isPersistencePartition());
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+        }
+        synchronized (this) {
+            pendingKeys.remove(key);
+            // If the cache was invalidated in the meantime the result may be
+            // outdated. It is dropped and the listeners just ask again.
+            if (!invalidatedKeys.remove(key)) {
+                usedSpaces.put(key, usedSpace);
+            }
+        }
+    }
+
+    private String getKey(StorageDevice storageDevice, Partition partition) {
+        synchronized (this) {
+            String key = keys.get(partition);
+            if (key != null) {
+                return key;
+            }
+        }
+        // the serial alone is not unique (e.g. it is missing or cheap flash
+        // drives share it) and partitions without file system have no UUID
+        String uuid = getUuid(partition.getDeviceAndNumber());
+        String key = getPrefix(storageDevice)
+                + (uuid == null ? partition.getDeviceAndNumber() : uuid);
+        synchronized (this) {
+            keys.put(partition, key);
+        }
+        return key;
+    }
+
+    private static String getPrefix(StorageDevice storageDevice) {
+        return storageDevice.getDevice() + '/'
+                + storageDevice.getSerial() + '/';
+    }
+
+    private static String getUuid(String deviceAndNumber) {
+        // reading the symlinks of udev is much cheaper than asking blkid
+        File[] links = new File("/dev/disk/by-uuid").listFiles();
+        if (links == null) {
+            return null;
+        }
+        for (File link : links) {
+            try {
+                if (link.getCanonicalFile().getName().equals(
+                        deviceAndNumber)) {
+                    return link.getName();
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "", ex);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+package ch.fhnw.dlcopy;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls the progress of copy operations that don't report their progress
+ * themselves. All polled copy operations share a single timer thread and the
+ * listeners are only called when the percentage changed.
+ */
+public class ProgressPoller {
+
+    /**
+     * a copy operation whose progress can be polled
+     */
+    public interface Progress {
+
+        /**
+         * returns the number of bytes to copy
+         *
+         * @return the number of bytes to copy
+         */
+        long getByteCount();
+
+        /**
+         * returns the number of bytes that were already copied
+         *
+         * @return the number of bytes that were already copied
+         */
+        long getCopiedBytes();
+
+        /**
+         * returns <tt>true</tt> if copying is finished (either successfully
+         * or not), otherwise <tt>false</tt>
+         *
+         * @return <tt>true</tt> if copying is finished, otherwise
+         * <tt>false</tt>
+         */
+        boolean isFinished();
+    }
+
+    /**
+     * the listener for progress changes (called in the timer thread)
+     */
+    public static abstract class Listener {
+
+        /**
+         * called when the percentage of copied bytes changed
+         *
+         * @param percentage the percentage of copied bytes
+         */
+        public abstract void progressChanged(long percentage);
+
+        /**
+         * called once when copying is finished, does nothing by default
+         */
+        public void finished() {
+        }
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ProgressPoller.class.getName());
+    private static final long PERIOD = 1000;
+    private static final Timer TIMER = new Timer("ProgressPoller", true);
+
+    /**
+     * polls the progress of a copy operation once per second until it is
+     * finished or the returned task is cancelled
+     *
+     * @param progress the progress of the copy operation
+     * @param listener the listener for progress changes
+     * @return the polling task
+     */
+    public static TimerTask poll(final Progress progress,
+            final Listener listener) {
+        TimerTask task = new TimerTask() {
+            private long lastPercentage = -1;
+
+            @Override
+            public void run() {
+                // an exception would stop the shared timer thread
+                try {
+                    if (progress.isFinished()) {
+                        cancel();
+                        listener.finished();
+                        return;
+                    }
+                    long byteCount = progress.getByteCount();
+                    if (byteCount == 0) {
+                        return;
+                    }
+                    long percentage
+                            = (100 * progress.getCopiedBytes()) / byteCount;
+                    if (percentage != lastPercentage) {
+                        lastPercentage = percentage;
+                        listener.progressChanged(percentage);
+                    }
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.SEVERE, "", ex);
+                }
+            }
+        };
+        TIMER.schedule(task, PERIOD, PERIOD);
+        return task;
+    }
+}
@@ -200,7 +200,8 @@ public final class RunningSystemSource extends SystemSource {
     }
 
     @Override
-    public void installExtlinux(Partition bootPartition) throws IOException {
+    public synchronized void installExtlinux(Partition bootPartition)
+            throws IOException {
         String syslinuxDir = createSyslinuxDir(bootPartition);
         int returnValue = processExecutor.executeProcess(true, true,
                 "extlinux", "-i", syslinuxDir);
@@ -212,7 +213,7 @@ public final class RunningSystemSource extends SystemSource {
     }
 
     @Override
-    public void unmountTmpPartitions() {
+    protected synchronized void unmountTmpMounts() {
         if (isEfiTmpMounted && efiPath != null) {
             try {
                 efiPartition.umount();
@@ -232,7 +233,7 @@ public final class RunningSystemSource extends SystemSource {
 
     }
 
-    private void mountEfiIfNeeded() throws DBusException {
+    private synchronized void mountEfiIfNeeded() throws DBusException {
         if (efiPath == null) {
             MountInfo efiMountInfo = efiPartition.mount();
             efiPath = efiMountInfo.getMountPath();
@@ -240,7 +241,7 @@ public final class RunningSystemSource extends SystemSource {
         }
     }
 
-    private void mountExchangeIfNeeded() throws DBusException {
+    private synchronized void mountExchangeIfNeeded() throws DBusException {
         if (exchangePath == null) {
             MountInfo bootMountInfo = exchangePartition.mount();
             exchangePath = bootMountInfo.getMountPath();
@@ -0,0 +1,320 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.dlcopy.UDisksMonitor.ObjectManagerSignals;
+import ch.fhnw.dlcopy.UDisksMonitor.PropertiesSignals;
+import ch.fhnw.util.DbusTools;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * A snapshot of all UDisks2 block objects. The snapshot is read with a single
+ * GetManagedObjects call (instead of introspecting every block object and
+ * reading its properties one by one) and kept up to date by the D-Bus
+ * signals of UDisks2, so that the list of storage devices can be built
+ * without any further D-Bus round trips.
+ * <p>
+ * dbus-java can only match signals of unique bus names, not of the well known
+ * name of UDisks. The signals are therefore received from all senders and
+ * filtered by the UDisks object path of block devices. If subscribing to the
+ * signals fails, the inventory works in snapshot-only mode and reads a new
+ * snapshot whenever it is used.
+ */
+public class StorageDeviceInventory {
+
+    /**
+     * the org.freedesktop.DBus.ObjectManager interface
+     */
+    @DBusInterfaceName("org.freedesktop.DBus.ObjectManager")
+    public interface ObjectManager extends DBusInterface {
+
+        /**
+         * returns all objects of the object manager
+         *
+         * @return all objects of the object manager with their interfaces and
+         * properties
+         */
+        Map<Path, Map<String, Map<String, Variant>>> GetManagedObjects();
+    }
+
+    /**
+     * the properties of a block object that are needed for building the list
+     * of storage devices
+     */
+    public static class BlockObject {
+
+        private final Set<String> interfaces = new HashSet<>();
+        private long size;
+        private String deviceFile;
+
+        /**
+         * returns <tt>true</tt> if the block object is a drive (and not a
+         * partition), otherwise <tt>false</tt>
+         *
+         * @return <tt>true</tt> if the block object is a drive, otherwise
+         * <tt>false</tt>
+         */
+        public boolean isDrive() {
+            return !interfaces.contains(PARTITION_INTERFACE);
+        }
+
+        /**
+         * returns <tt>true</tt> if the block object is a loop device,
+         * otherwise <tt>false</tt>
+         *
+         * @return <tt>true</tt> if the block object is a loop device,
+         * otherwise <tt>false</tt>
+         */
+        public boolean isLoop() {
+            return interfaces.contains(LOOP_INTERFACE);
+        }
+
+        /**
+         * returns the size of the block device
+         *
+         * @return the size of the block device in byte
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * returns the device file (e.g. "/dev/sdb")
+         *
+         * @return the device file
+         */
+        public String getDeviceFile() {
+            return deviceFile;
+        }
+
+        private void update(Map<String, Variant> blockProperties) {
+            Variant sizeVariant = blockProperties.get("Size");
+            if (sizeVariant != null) {
+                size = ((Number) sizeVariant.getValue()).longValue();
+            }
+            Variant deviceVariant = blockProperties.get("Device");
+            if (deviceVariant != null) {
+                deviceFile = toString(deviceVariant.getValue());
+            }
+        }
+
+        private static String toString(Object byteArray) {
+            // the device is a char array terminated with a 0 byte
+            if (byteArray instanceof byte[]) {
+                return new String(DbusTools.removeNullByte(
+                        (byte[]) byteArray));
+            }
+            StringBuilder stringBuilder = new StringBuilder();
+            for (Object b : (List<?>) byteArray) {
+                char c = (char) ((Number) b).byteValue();
+                if (c != 0) {
+                    stringBuilder.append(c);
+                }
+            }
+            return stringBuilder.toString();
+        }
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(StorageDeviceInventory.class.getName());
+    private static final StorageDeviceInventory INSTANCE
+            = new StorageDeviceInventory();
+    private static final String BUS_NAME = "org.freedesktop.UDisks2";
+    private static final String BLOCK_DEVICES_PATH
+            = "/org/freedesktop/UDisks2/block_devices/";
+    private static final String BLOCK_INTERFACE
+            = "org.freedesktop.UDisks2.Block";
+    private static final String PARTITION_INTERFACE
+            = "org.freedesktop.UDisks2.Partition";
+    private static final String LOOP_INTERFACE
+            = "org.freedesktop.UDisks2.Loop";
+
+    private final Map<String, BlockObject> blockObjects = new HashMap<>();
+    private DBusConnection connection;
+    private boolean subscribed;
+    private boolean snapshotRead;
+
+    /**
+     * returns the StorageDeviceInventory shared by all operations, reading
+     * the snapshot if necessary
+     *
+     * @return the StorageDeviceInventory shared by all operations
+     * @throws DBusException if reading the snapshot failed
+     */
+    public static StorageDeviceInventory getInstance() throws DBusException {
+        INSTANCE.start();
+        return INSTANCE;
+    }
+
+    /**
+     * subscribes to the UDisks signals and reads the snapshot (does nothing
+     * if already started and the snapshot is kept up to date by the signals)
+     *
+     * @throws DBusException if reading the snapshot failed
+     */
+    public synchronized void start() throws DBusException {
+        if (!snapshotRead || !subscribed) {
+            refresh();
+        }
+    }
+
+    /**
+     * reads a new snapshot of all block objects
+     *
+     * @throws DBusException if reading the snapshot failed
+     */
+    public synchronized void refresh() throws DBusException {
+        if (connection == null) {
+            connection = DBusConnection.getConnection(DBusConnection.SYSTEM);
+            try {
+                subscribe();
+                subscribed = true;
+            } catch (DBusException ex) {
+                LOGGER.log(Level.WARNING, "could not subscribe to the UDisks "
+                        + "signals, using snapshots only", ex);
+            }
+        }
+        long start = System.currentTimeMillis();
+        ObjectManager objectManager = connection.getRemoteObject(
+                BUS_NAME, "/org/freedesktop/UDisks2", ObjectManager.class);
+        readManagedObjects(objectManager.GetManagedObjects());
+        snapshotRead = true;
+        LOGGER.log(Level.INFO, "read {0} block objects in {1} ms",
+                new Object[]{blockObjects.size(),
+                    System.currentTimeMillis() - start});
+    }
+
+    /**
+     * replaces all block objects with the block objects of a
+     * GetManagedObjects result
+     *
+     * @param managedObjects all objects of the UDisks object manager with
+     * their interfaces and properties
+     */
+    synchronized void readManagedObjects(
+            Map<Path, Map<String, Map<String, Variant>>> managedObjects) {
+        blockObjects.clear();
+        for (Map.Entry<Path, Map<String, Map<String, Variant>>> entry
+                : managedObjects.entrySet()) {
+            interfacesAdded(entry.getKey().getPath(), entry.getValue());
+        }
+    }
+
+    private void subscribe() throws DBusException {
+        // Subscribe before reading the snapshot so that no change gets lost.
+        // Signals are handled only after the snapshot is complete because
+        // all handlers synchronize on this inventory.
+        connection.addSigHandler(
+                ObjectManagerSignals.InterfacesAdded.class,
+                new DBusSigHandler<ObjectManagerSignals.InterfacesAdded>() {
+            @Override
+            public void handle(ObjectManagerSignals.InterfacesAdded signal) {
+                interfacesAdded(signal.objectPath.getPath(),
+                        signal.interfaces);
+            }
+        });
+        connection.addSigHandler(
+                ObjectManagerSignals.InterfacesRemoved.class,
+                new DBusSigHandler<ObjectManagerSignals.InterfacesRemoved>() {
+            @Override
+            public void handle(
+                    ObjectManagerSignals.InterfacesRemoved signal) {
+                interfacesRemoved(signal.objectPath.getPath(),
+                        signal.interfaces);
+            }
+        });
+        connection.addSigHandler(
+                PropertiesSignals.PropertiesChanged.class,
+                new DBusSigHandler<PropertiesSignals.PropertiesChanged>() {
+            @Override
+            public void handle(PropertiesSignals.PropertiesChanged signal) {
+                propertiesChanged(signal.getPath(), signal.interfaceName,
+                        signal.changedProperties);
+            }
+        });
+    }
+
+    /**
+     * returns the block object of a D-Bus path
+     *
+     * @param path the D-Bus path of the block object
+     * @return the block object or <tt>null</tt>, if the path is unknown
+     */
+    public synchronized BlockObject getBlockObject(String path) {
+        return blockObjects.get(path);
+    }
+
+    /**
+     * returns the paths of all drives with media, loop devices are excluded
+     *
+     * @return the D-Bus paths of all drives with media
+     */
+    public synchronized List<String> getDrivePaths() {
+        List<String> drivePaths = new ArrayList<>();
+        for (Map.Entry<String, BlockObject> entry : blockObjects.entrySet()) {
+            BlockObject blockObject = entry.getValue();
+            if (blockObject.isDrive() && !blockObject.isLoop()
+                    && (blockObject.getSize() > 0)
+                    && (blockObject.getDeviceFile() != null)) {
+                drivePaths.add(entry.getKey());
+            }
+        }
+        return drivePaths;
+    }
+
+    private synchronized void interfacesAdded(String path,
+            Map<String, Map<String, Variant>> interfaces) {
+        if (!path.startsWith(BLOCK_DEVICES_PATH)) {
+            return;
+        }
+        BlockObject blockObject = blockObjects.get(path);
+        if (blockObject == null) {
+            blockObject = new BlockObject();
+            blockObjects.put(path, blockObject);
+        }
+        blockObject.interfaces.addAll(interfaces.keySet());
+        Map<String, Variant> blockProperties
+                = interfaces.get(BLOCK_INTERFACE);
+        if (blockProperties != null) {
+            blockObject.update(blockProperties);
+        }
+    }
+
+    private synchronized void interfacesRemoved(
+            String path, List<String> interfaces) {
+        if (!path.startsWith(BLOCK_DEVICES_PATH)) {
+            return;
+        }
+        if (interfaces.contains(BLOCK_INTERFACE)) {
+            blockObjects.remove(path);
+            return;
+        }
+        BlockObject blockObject = blockObjects.get(path);
+        if (blockObject != null) {
+            blockObject.interfaces.removeAll(interfaces);
+        }
+    }
+
+    private synchronized void propertiesChanged(String path,
+            String interfaceName, Map<String, Variant> changedProperties) {
+        if (!BLOCK_INTERFACE.equals(interfaceName)) {
+            return;
+        }
+        BlockObject blockObject = blockObjects.get(path);
+        if (blockObject != null) {
+            blockObject.update(changedProperties);
+        }
+    }
+}
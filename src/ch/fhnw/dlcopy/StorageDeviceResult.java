@@ -12,6 +12,7 @@ public class StorageDeviceResult {
     private final StorageDevice storageDevice;
     private final long duration;
     private final String errorMessage;
+    private final String progressInfo;
 
     /**
      * creates a new StorageDeviceResult
@@ -23,9 +24,25 @@ public class StorageDeviceResult {
      */
     public StorageDeviceResult(StorageDevice storageDevice,
             long duration, String errorMessage) {
+        this(storageDevice, duration, errorMessage, null);
+    }
+
+    /**
+     * creates a new StorageDeviceResult
+     *
+     * @param storageDevice the storage device
+     * @param duration the duration of the operation
+     * @param errorMessage the error message of the operation or <tt>null</tt>
+     * if there was no error
+     * @param progressInfo the current progress info of an operation that is
+     * still in progress or <tt>null</tt> if there is no progress info
+     */
+    public StorageDeviceResult(StorageDevice storageDevice, long duration,
+            String errorMessage, String progressInfo) {
         this.storageDevice = storageDevice;
         this.duration = duration;
         this.errorMessage = errorMessage;
+        this.progressInfo = progressInfo;
     }
 
     /**
@@ -58,4 +75,15 @@ public class StorageDeviceResult {
     public String getErrorMessage() {
         return errorMessage;
     }
+
+    /**
+     * returns the current progress info of an operation that is still in
+     * progress or <tt>null</tt> if there is no progress info
+     *
+     * @return the current progress info of an operation that is still in
+     * progress or <tt>null</tt> if there is no progress info
+     */
+    public String getProgressInfo() {
+        return progressInfo;
+    }
 }
@@ -7,6 +7,8 @@ import ch.fhnw.util.StorageDevice.Type;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
@@ -14,6 +16,9 @@ import org.freedesktop.dbus.exceptions.DBusException;
  */
 public abstract class SystemSource {
 
+    private static final Logger LOGGER
+            = Logger.getLogger(SystemSource.class.getName());
+
     /**
      * the pattern of files that need to be copied to the EFI partition
      */
@@ -68,6 +73,10 @@ public abstract class SystemSource {
      */
     public static final String GRUB_EFI_PATH = "/efi/boot/grubx64.efi";
 
+    private int mountLeases;
+    private int dataPartitionMounts;
+    private MountInfo dataPartitionMountInfo;
+
     /**
      * Returns the device name (e.g. sda) of this system source. This is mostly
      * used for filtering out the system source in installation or upgrade
@@ -172,9 +181,88 @@ public abstract class SystemSource {
     public abstract void installExtlinux(Partition partition) throws IOException;
 
     /**
-     * Unmount any partitions that were mounted by any get*CopySource()
+     * Unmount any partitions that were mounted by any get*CopySource(). While
+     * a mount lease is held, the partitions stay mounted and are unmounted
+     * when the last lease is released.
+     */
+    public synchronized void unmountTmpPartitions() {
+        if (mountLeases > 0) {
+            LOGGER.log(Level.FINE, "keeping temporary mounts ({0} leases)",
+                    mountLeases);
+            return;
+        }
+        unmountTmpMounts();
+    }
+
+    /**
+     * acquires a lease on the temporary mounts of this system source, they
+     * stay mounted until all leases are released (e.g. for a whole batch of
+     * storage devices instead of mounting them again for every device)
+     */
+    public synchronized void acquireMountLease() {
+        mountLeases++;
+    }
+
+    /**
+     * releases a lease on the temporary mounts of this system source, the
+     * release of the last lease unmounts them
      */
-    public abstract void unmountTmpPartitions();
+    public synchronized void releaseMountLease() {
+        if (mountLeases == 0) {
+            LOGGER.warning("no mount lease to release");
+            return;
+        }
+        mountLeases--;
+        if (mountLeases == 0) {
+            unmountTmpMounts();
+        }
+    }
+
+    /**
+     * unmounts all partitions that were mounted by any get*CopySource()
+     */
+    protected abstract void unmountTmpMounts();
+
+    /**
+     * Mounts the data partition of this system source. Concurrent
+     * installations share the mount, it is only unmounted when the last of
+     * them called {@link #umountDataPartition()}.
+     *
+     * @return the path where the data partition is mounted
+     * @throws DBusException if a dbus exception occurs
+     * @throws IOException if mounting the data partition failed
+     */
+    public synchronized String mountDataPartition()
+            throws DBusException, IOException {
+        if (dataPartitionMounts == 0) {
+            dataPartitionMountInfo = getDataPartition().mount();
+        }
+        String mountPath = dataPartitionMountInfo.getMountPath();
+        if (mountPath == null) {
+            throw new IOException("could not mount source data partition");
+        }
+        dataPartitionMounts++;
+        return mountPath;
+    }
+
+    /**
+     * releases a mount of the data partition acquired by
+     * {@link #mountDataPartition()}, the release of the last mount unmounts
+     * the data partition (only if it was not mounted before)
+     *
+     * @throws DBusException if a dbus exception occurs
+     */
+    public synchronized void umountDataPartition() throws DBusException {
+        if (dataPartitionMounts == 0) {
+            LOGGER.warning("data partition is not mounted");
+            return;
+        }
+        dataPartitionMounts--;
+        if ((dataPartitionMounts == 0)
+                && !dataPartitionMountInfo.alreadyMounted()) {
+            getDataPartition().umount();
+        }
+    }
 
     /**
      * creates a syslinux directory on a partition
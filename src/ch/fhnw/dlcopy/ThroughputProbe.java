@@ -0,0 +1,272 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.ProcessExecutor;
+import ch.fhnw.util.StorageDevice;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the read and write throughput of storage devices. The probe reads
+ * a small region in the middle of a storage device and writes the very same
+ * data back, both bypassing the page cache. The content of the storage device
+ * is therefore not changed (as long as nobody else writes to the region at
+ * the same time). Storage devices are probed read-only in the background as
+ * soon as they are plugged in, so that the read rate can be shown while the
+ * user selects the storage devices. The write rate is only measured after
+ * the user confirmed that the storage devices will be overwritten.
+ */
+public class ThroughputProbe {
+
+    /**
+     * the listener for measured throughputs
+     */
+    public interface Listener {
+
+        /**
+         * called (in a background thread) when the throughput of a storage
+         * device was measured
+         *
+         * @param storageDevice the storage device
+         */
+        void throughputMeasured(StorageDevice storageDevice);
+    }
+
+    /**
+     * the measured throughput of a storage device
+     */
+    public static class Throughput {
+
+        private final long readRate;
+        private final long writeRate;
+
+        /**
+         * creates a new Throughput
+         *
+         * @param readRate the read rate in byte/s
+         * @param writeRate the write rate in byte/s or 0 if the write rate
+         * was not measured
+         */
+        public Throughput(long readRate, long writeRate) {
+            this.readRate = readRate;
+            this.writeRate = writeRate;
+        }
+
+        /**
+         * returns the read rate in byte/s
+         *
+         * @return the read rate in byte/s
+         */
+        public long getReadRate() {
+            return readRate;
+        }
+
+        /**
+         * returns the write rate in byte/s
+         *
+         * @return the write rate in byte/s or 0 if the write rate was not
+         * measured
+         */
+        public long getWriteRate() {
+            return writeRate;
+        }
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(ThroughputProbe.class.getName());
+    private static final int PROBE_MIB = 16;
+    private static final Map<String, Throughput> THROUGHPUTS
+            = new ConcurrentHashMap<>();
+    private static final Set<String> PENDING_KEYS = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    private static final List<Listener> LISTENERS
+            = new CopyOnWriteArrayList<>();
+    private static final ExecutorService BACKGROUND_PROBES
+            = Executors.newFixedThreadPool(4);
+
+    /**
+     * adds a listener for measured throughputs
+     *
+     * @param listener the listener to add
+     */
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * measures the read rate of a storage device in the background (does
+     * nothing if the storage device was already probed). The storage device
+     * is only read, never written.
+     *
+     * @param storageDevice the storage device to probe
+     */
+    public static void probeInBackground(final StorageDevice storageDevice) {
+        String key = getKey(storageDevice);
+        if (THROUGHPUTS.containsKey(key) || !PENDING_KEYS.add(key)) {
+            return;
+        }
+        BACKGROUND_PROBES.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probe(storageDevice, false);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                } finally {
+                    PENDING_KEYS.remove(getKey(storageDevice));
+                }
+                for (Listener listener : LISTENERS) {
+                    listener.throughputMeasured(storageDevice);
+                }
+            }
+        });
+    }
+
+    /**
+     * measures the read and write throughput of all given storage devices
+     * whose write rate was not yet measured at the same time. The probe
+     * writes to the storage devices, therefore it must only be called after
+     * the user confirmed that the storage devices will be overwritten.
+     *
+     * @param storageDevices the storage devices to probe
+     * @throws InterruptedException if probing was interrupted
+     */
+    public static void probe(List<StorageDevice> storageDevices)
+            throws InterruptedException {
+        List<StorageDevice> unprobedDevices = new ArrayList<>();
+        for (StorageDevice storageDevice : storageDevices) {
+            if (getWriteRate(storageDevice) == 0) {
+                unprobedDevices.add(storageDevice);
+            }
+        }
+        if (unprobedDevices.isEmpty()) {
+            return;
+        }
+        ExecutorService executorService
+                = Executors.newFixedThreadPool(unprobedDevices.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final StorageDevice storageDevice : unprobedDevices) {
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            probe(storageDevice, true);
+                        } catch (IOException ex) {
+                            LOGGER.log(Level.WARNING, "", ex);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.SEVERE, "", ex);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * returns the last measured throughput of a storage device
+     *
+     * @param storageDevice the storage device
+     * @return the last measured throughput of a storage device or
+     * <tt>null</tt> if the storage device was not yet probed
+     */
+    public static Throughput getThroughput(StorageDevice storageDevice) {
+        return THROUGHPUTS.get(getKey(storageDevice));
+    }
+
+    /**
+     * returns the last measured write rate of a storage device
+     *
+     * @param storageDevice the storage device
+     * @return the last measured write rate of a storage device in byte/s or
+     * 0 if the write rate was not yet measured
+     */
+    public static long getWriteRate(StorageDevice storageDevice) {
+        Throughput throughput = getThroughput(storageDevice);
+        return throughput == null ? 0 : throughput.getWriteRate();
+    }
+
+    private static void probe(StorageDevice storageDevice, boolean write)
+            throws IOException {
+
+        String device = "/dev/" + storageDevice.getDevice();
+        long probeSize = (long) PROBE_MIB * DLCopy.MEGA;
+        if (storageDevice.getSize() < 2 * probeSize) {
+            LOGGER.log(Level.INFO, "{0} is too small for probing", device);
+            return;
+        }
+        // the middle of the storage device is neither the partition table
+        // nor a region that is likely to be in the page cache
+        long offset = storageDevice.getSize() / 2 / DLCopy.MEGA;
+
+        // the read-only probe doesn't need to keep the data
+        File probeFile = write
+                ? File.createTempFile("dlcopy_probe_", null)
+                : new File("/dev/null");
+        try {
+            ProcessExecutor processExecutor = new ProcessExecutor();
+            long start = System.nanoTime();
+            if (processExecutor.executeProcess(true, true, "dd",
+                    "if=" + device, "of=" + probeFile.getPath(), "bs=1M",
+                    "count=" + PROBE_MIB, "skip=" + offset,
+                    "iflag=direct") != 0) {
+                throw new IOException("could not read from " + device + ": "
+                        + processExecutor.getOutput());
+            }
+            long readRate = getRate(probeSize, System.nanoTime() - start);
+
+            long writeRate = 0;
+            if (write) {
+                start = System.nanoTime();
+                if (processExecutor.executeProcess(true, true, "dd",
+                        "if=" + probeFile.getPath(), "of=" + device, "bs=1M",
+                        "count=" + PROBE_MIB, "seek=" + offset,
+                        "oflag=direct", "conv=notrunc,fsync") != 0) {
+                    throw new IOException("could not write to " + device
+                            + ": " + processExecutor.getOutput());
+                }
+                writeRate = getRate(probeSize, System.nanoTime() - start);
+            }
+
+            Throughput throughput = new Throughput(readRate, writeRate);
+            THROUGHPUTS.put(getKey(storageDevice), throughput);
+            LOGGER.log(Level.INFO, "{0}: read {1} byte/s, write {2} byte/s",
+                    new Object[]{device, throughput.getReadRate(),
+                        throughput.getWriteRate()});
+        } finally {
+            if (write && !probeFile.delete()) {
+                LOGGER.log(Level.WARNING, "could not delete {0}", probeFile);
+            }
+        }
+    }
+
+    private static long getRate(long byteCount, long nanoSeconds) {
+        return (byteCount * TimeUnit.SECONDS.toNanos(1))
+                / Math.max(1, nanoSeconds);
+    }
+
+    private static String getKey(StorageDevice storageDevice) {
+        // device names are reused for different storage devices
+        return storageDevice.getDevice() + '/' + storageDevice.getSerial();
+    }
+}
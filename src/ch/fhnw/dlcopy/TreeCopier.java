@@ -0,0 +1,517 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.ProcessExecutor;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies a directory tree (e.g. the files of a data partition) with several
+ * threads. Directories, symbolic links, hard links, device files (e.g. the
+ * whiteouts of overlay file systems), ownership, permissions, time stamps and
+ * extended attributes are preserved. The content of regular files is copied
+ * through the buffers of the shared {@link BufferPool}, so that it counts
+ * against the memory budget of all copy operations.
+ */
+public class TreeCopier implements ProgressPoller.Progress {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(TreeCopier.class.getName());
+    private static final int DEFAULT_THREADS = 4;
+    // the size of a single transfer, also the granularity of the progress
+    private static final int TRANSFER_SIZE = DLCopy.MEGA;
+    private static final String LOST_AND_FOUND = "lost+found";
+    private static final String XATTR_FILE_PREFIX = "# file: ";
+    // file type bits of st_mode
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+    private static final int S_IFLNK = 0120000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFBLK = 0060000;
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFCHR = 0020000;
+    private static final int S_IFIFO = 0010000;
+
+    private final Path sourceRoot;
+    private final Path destinationRoot;
+    private final int threads;
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong copiedFiles = new AtomicLong();
+    private volatile long byteCount;
+    private volatile long fileCount;
+    private volatile boolean finished;
+
+    /**
+     * creates a new TreeCopier with the default number of threads
+     *
+     * @param sourcePath the path to the source directory
+     * @param destinationPath the path to the destination directory
+     */
+    public TreeCopier(String sourcePath, String destinationPath) {
+        this(sourcePath, destinationPath, DEFAULT_THREADS);
+    }
+
+    /**
+     * creates a new TreeCopier
+     *
+     * @param sourcePath the path to the source directory
+     * @param destinationPath the path to the destination directory
+     * @param threads the number of files that are copied at the same time
+     */
+    public TreeCopier(String sourcePath, String destinationPath,
+            int threads) {
+        this.sourceRoot = Paths.get(sourcePath);
+        this.destinationRoot = Paths.get(destinationPath);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * copies all files of the source directory into the destination
+     * directory (like <tt>cp -a source/* destination/</tt>, i.e. hidden files
+     * directly in the source directory and the <tt>lost+found</tt> directory
+     * are skipped)
+     *
+     * @throws IOException if copying failed
+     * @throws InterruptedException if copying was interrupted
+     */
+    public void copy() throws IOException, InterruptedException {
+        try {
+            List<TreeEntry> entries = scan();
+            LOGGER.log(Level.INFO, "copying {0} files ({1} byte) from {2} "
+                    + "to {3}", new Object[]{fileCount, byteCount,
+                        sourceRoot, destinationRoot});
+
+            // Directories, links and special files are created in the order
+            // of the tree walk, the content of regular files is copied in
+            // parallel.
+            ProcessExecutor processExecutor = new ProcessExecutor();
+            List<TreeEntry> hardLinks = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            ExecutorService executorService
+                    = Executors.newFixedThreadPool(threads);
+            try {
+                for (final TreeEntry entry : entries) {
+                    if (entry.linkTarget != null) {
+                        // the link target may not yet exist
+                        hardLinks.add(entry);
+                    } else if (entry.getType() == S_IFREG) {
+                        futures.add(executorService.submit(
+                                new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                copyRegularFile(entry);
+                                return null;
+                            }
+                        }));
+                    } else {
+                        create(entry, processExecutor);
+                    }
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw new IOException(cause);
+                    }
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+
+            for (TreeEntry hardLink : hardLinks) {
+                Files.createLink(getDestination(hardLink),
+                        getDestination(hardLink.linkTarget));
+                copiedFiles.incrementAndGet();
+            }
+
+            // The directory attributes can only be set when the directory
+            // content is complete (permissions and time stamps), therefore
+            // in reverse order.
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                TreeEntry entry = entries.get(i);
+                if (entry.getType() == S_IFDIR) {
+                    setAttributes(entry);
+                }
+            }
+
+            copyExtendedAttributes(processExecutor);
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * returns the number of bytes of all regular files to copy
+     *
+     * @return the number of bytes of all regular files to copy
+     */
+    @Override
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * returns the number of bytes that were already copied
+     *
+     * @return the number of bytes that were already copied
+     */
+    @Override
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * returns the number of all files (including directories, links and
+     * special files) to copy
+     *
+     * @return the number of all files to copy
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * returns the number of files that were already copied
+     *
+     * @return the number of files that were already copied
+     */
+    public long getCopiedFiles() {
+        return copiedFiles.get();
+    }
+
+    /**
+     * returns <tt>true</tt> if copying is finished (either successfully or
+     * not), otherwise <tt>false</tt>
+     *
+     * @return <tt>true</tt> if copying is finished, otherwise <tt>false</tt>
+     */
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private List<TreeEntry> scan() throws IOException {
+        final List<TreeEntry> entries = new ArrayList<>();
+        final Map<String, TreeEntry> inodes = new HashMap<>();
+        Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attributes) throws IOException {
+                if (dir.equals(sourceRoot)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (isSkipped(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                entries.add(new TreeEntry(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attributes) throws IOException {
+                if (isSkipped(file)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                TreeEntry entry = new TreeEntry(file);
+                if (entry.getLinkCount() > 1) {
+                    String inode = entry.getInode();
+                    TreeEntry first = inodes.get(inode);
+                    if (first == null) {
+                        inodes.put(inode, entry);
+                    } else {
+                        entry.linkTarget = first;
+                    }
+                }
+                if ((entry.linkTarget == null)
+                        && (entry.getType() == S_IFREG)) {
+                    byteCount += entry.getSize();
+                }
+                entries.add(entry);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file,
+                    IOException exception) throws IOException {
+                throw exception;
+            }
+        });
+        fileCount = entries.size();
+        return entries;
+    }
+
+    private boolean isSkipped(Path path) {
+        if (!sourceRoot.equals(path.getParent())) {
+            return false;
+        }
+        String fileName = path.getFileName().toString();
+        return fileName.startsWith(".") || fileName.equals(LOST_AND_FOUND);
+    }
+
+    private void create(TreeEntry entry, ProcessExecutor processExecutor)
+            throws IOException {
+        Path destination = getDestination(entry);
+        switch (entry.getType()) {
+            case S_IFDIR:
+                if (!Files.isDirectory(destination,
+                        LinkOption.NOFOLLOW_LINKS)) {
+                    Files.createDirectory(destination);
+                }
+                // attributes are set when the directory is complete
+                copiedFiles.incrementAndGet();
+                return;
+
+            case S_IFLNK:
+                Files.createSymbolicLink(destination,
+                        Files.readSymbolicLink(entry.path));
+                break;
+
+            case S_IFCHR:
+            case S_IFBLK:
+                // e.g. overlay whiteouts are character devices 0/0
+                long rdev = entry.getRdev();
+                long major = ((rdev >> 8) & 0xfff) | ((rdev >> 32) & ~0xfff);
+                long minor = (rdev & 0xff) | ((rdev >> 12) & ~0xff);
+                execute(processExecutor, "mknod", destination.toString(),
+                        entry.getType() == S_IFCHR ? "c" : "b",
+                        String.valueOf(major), String.valueOf(minor));
+                break;
+
+            case S_IFIFO:
+                execute(processExecutor, "mkfifo", destination.toString());
+                break;
+
+            case S_IFSOCK:
+                // sockets are useless without their process
+                LOGGER.log(Level.INFO, "skipping socket {0}", entry.path);
+                copiedFiles.incrementAndGet();
+                return;
+
+            default:
+                throw new IOException("unsupported file type of "
+                        + entry.path);
+        }
+        setAttributes(entry);
+        copiedFiles.incrementAndGet();
+    }
+
+    private void copyRegularFile(TreeEntry entry) throws IOException {
+        Path destination = getDestination(entry);
+        try (FileChannel sourceChannel = FileChannel.open(
+                entry.path, StandardOpenOption.READ);
+                FileChannel destinationChannel = FileChannel.open(
+                        destination, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE_NEW)) {
+            BufferPool bufferPool = BufferPool.getInstance();
+            ByteBuffer buffer = bufferPool.acquireForIO(TRANSFER_SIZE);
+            try {
+                while (sourceChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    int transferred = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        destinationChannel.write(buffer);
+                    }
+                    buffer.clear();
+                    copiedBytes.addAndGet(transferred);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+        setAttributes(entry);
+        copiedFiles.incrementAndGet();
+    }
+
+    private void setAttributes(TreeEntry entry) throws IOException {
+        Path destination = getDestination(entry);
+        // changing the owner clears the setuid and setgid bits, therefore
+        // the owner must be set before the permissions
+        Files.setAttribute(destination, "unix:uid", entry.getUid(),
+                LinkOption.NOFOLLOW_LINKS);
+        Files.setAttribute(destination, "unix:gid", entry.getGid(),
+                LinkOption.NOFOLLOW_LINKS);
+        if (entry.getType() == S_IFLNK) {
+            // the permissions and time stamps of symbolic links can't be set
+            // (only the ones of the link target)
+            return;
+        }
+        // (following links is safe now, without following the file would be
+        // opened, which blocks for FIFOs)
+        Files.setAttribute(destination, "unix:mode",
+                entry.getMode() & ~S_IFMT);
+        if (entry.getType() == S_IFIFO) {
+            // setting the time stamps would also open the FIFO
+            return;
+        }
+        Files.getFileAttributeView(destination,
+                BasicFileAttributeView.class).setTimes(
+                        entry.getLastModifiedTime(),
+                        entry.getLastAccessTime(), null);
+    }
+
+    private void copyExtendedAttributes(ProcessExecutor processExecutor)
+            throws IOException {
+        // Java can only access the "user" namespace of extended attributes
+        // but overlay file systems use the "trusted" namespace, therefore we
+        // use getfattr and setfattr.
+        File dumpFile = File.createTempFile("dlcopy_xattrs_", null);
+        File restoreFile = File.createTempFile("dlcopy_xattrs_", null);
+        try {
+            String dumpScript = "#!/bin/bash\n"
+                    + "getfattr --absolute-names -R -P -h -d -m - -e hex \""
+                    + sourceRoot + "\" > \"" + dumpFile + "\"";
+            if (processExecutor.executeScript(dumpScript) != 0) {
+                // getfattr also fails when a single file has no support for
+                // extended attributes, we just restore what we got
+                LOGGER.log(Level.WARNING, "getfattr failed for {0}",
+                        sourceRoot);
+            }
+            if (!filterExtendedAttributes(dumpFile, restoreFile)) {
+                return;
+            }
+            execute(processExecutor, "setfattr", "-h",
+                    "--restore=" + restoreFile.getPath());
+        } finally {
+            for (File file : new File[]{dumpFile, restoreFile}) {
+                if (!file.delete()) {
+                    LOGGER.log(Level.WARNING, "could not delete {0}", file);
+                }
+            }
+        }
+    }
+
+    private boolean filterExtendedAttributes(File dumpFile, File restoreFile)
+            throws IOException {
+        // getfattr and setfattr escape file names the same way, so we can
+        // just replace the (simple) source prefix with the destination
+        String sourcePrefix = XATTR_FILE_PREFIX + sourceRoot + '/';
+        String destinationPrefix = XATTR_FILE_PREFIX + destinationRoot + '/';
+        boolean attributesFound = false;
+        try (BufferedReader reader = Files.newBufferedReader(
+                dumpFile.toPath(), StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(
+                        restoreFile.toPath(), StandardCharsets.UTF_8)) {
+            boolean copyBlock = false;
+            for (String line = reader.readLine(); line != null;
+                    line = reader.readLine()) {
+                if (line.startsWith(XATTR_FILE_PREFIX)) {
+                    copyBlock = false;
+                    if (line.startsWith(sourcePrefix)) {
+                        String relativePath
+                                = line.substring(sourcePrefix.length());
+                        copyBlock = !isSkipped(sourceRoot.resolve(
+                                relativePath.split("/")[0]));
+                        line = destinationPrefix + relativePath;
+                    }
+                }
+                if (copyBlock) {
+                    attributesFound = true;
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+        return attributesFound;
+    }
+
+    private void execute(ProcessExecutor processExecutor,
+            String... commandArray) throws IOException {
+        int exitValue = processExecutor.executeProcess(true, true,
+                commandArray);
+        if (exitValue != 0) {
+            String errorMessage = commandArray[0] + " failed: "
+                    + processExecutor.getOutput();
+            LOGGER.severe(errorMessage);
+            throw new IOException(errorMessage);
+        }
+    }
+
+    private Path getDestination(TreeEntry entry) {
+        return destinationRoot.resolve(sourceRoot.relativize(entry.path));
+    }
+
+    private static class TreeEntry {
+
+        private final Path path;
+        private final Map<String, Object> attributes;
+        // the first copy of a hard link
+        private TreeEntry linkTarget;
+
+        public TreeEntry(Path path) throws IOException {
+            this.path = path;
+            attributes = Files.readAttributes(
+                    path, "unix:*", LinkOption.NOFOLLOW_LINKS);
+        }
+
+        public int getType() {
+            return getMode() & S_IFMT;
+        }
+
+        public int getMode() {
+            return (Integer) attributes.get("mode");
+        }
+
+        public int getUid() {
+            return (Integer) attributes.get("uid");
+        }
+
+        public int getGid() {
+            return (Integer) attributes.get("gid");
+        }
+
+        public long getSize() {
+            return (Long) attributes.get("size");
+        }
+
+        public long getRdev() {
+            return (Long) attributes.get("rdev");
+        }
+
+        public int getLinkCount() {
+            return (Integer) attributes.get("nlink");
+        }
+
+        public String getInode() {
+            return attributes.get("dev") + ":" + attributes.get("ino");
+        }
+
+        public FileTime getLastModifiedTime() {
+            return (FileTime) attributes.get("lastModifiedTime");
+        }
+
+        public FileTime getLastAccessTime() {
+            return (FileTime) attributes.get("lastAccessTime");
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package ch.fhnw.dlcopy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Monitors storage devices via the D-Bus signals of UDisks2. A storage device
+ * is reported as soon as UDisks has published its block object and the
+ * objects of all partitions the kernel knows about, so that listeners can
+ * immediately use the complete storage device without any waiting times.
+ * Media changes of card readers (the size of the block device changes) are
+ * reported as well.
+ * <p>
+ * dbus-java can only match signals of unique bus names, not of the well known
+ * name of UDisks. The signals are therefore received from all senders and
+ * filtered by the UDisks object path of block devices.
+ */
+public class UDisksMonitor {
+
+    /**
+     * the listener for storage device changes
+     */
+    public interface Listener {
+
+        /**
+         * called when a storage device was added and all of its partitions
+         * are available
+         *
+         * @param path the D-Bus object path of the storage device
+         */
+        void storageDeviceAdded(String path);
+
+        /**
+         * called when a storage device was removed
+         *
+         * @param path the D-Bus object path of the storage device
+         */
+        void storageDeviceRemoved(String path);
+    }
+
+    /**
+     * the signals of the org.freedesktop.DBus.ObjectManager interface
+     */
+    @DBusInterfaceName("org.freedesktop.DBus.ObjectManager")
+    public interface ObjectManagerSignals extends DBusInterface {
+
+        /**
+         * signals that an object or some of its interfaces were added
+         */
+        class InterfacesAdded extends DBusSignal {
+
+            /**
+             * the path of the object
+             */
+            public final Path objectPath;
+
+            /**
+             * the added interfaces and their properties
+             */
+            public final Map<String, Map<String, Variant>> interfaces;
+
+            /**
+             * creates a new InterfacesAdded signal
+             *
+             * @param path the path of the object manager
+             * @param objectPath the path of the object
+             * @param interfaces the added interfaces and their properties
+             * @throws DBusException if creating the signal failed
+             */
+            public InterfacesAdded(String path, Path objectPath,
+                    Map<String, Map<String, Variant>> interfaces)
+                    throws DBusException {
+                super(path, objectPath, interfaces);
+                this.objectPath = objectPath;
+                this.interfaces = interfaces;
+            }
+        }
+
+        /**
+         * signals that an object or some of its interfaces were removed
+         */
+        class InterfacesRemoved extends DBusSignal {
+
+            /**
+             * the path of the object
+             */
+            public final Path objectPath;
+
+            /**
+             * the names of the removed interfaces
+             */
+            public final List<String> interfaces;
+
+            /**
+             * creates a new InterfacesRemoved signal
+             *
+             * @param path the path of the object manager
+             * @param objectPath the path of the object
+             * @param interfaces the names of the removed interfaces
+             * @throws DBusException if creating the signal failed
+             */
+            public InterfacesRemoved(String path, Path objectPath,
+                    List<String> interfaces) throws DBusException {
+                super(path, objectPath, interfaces);
+                this.objectPath = objectPath;
+                this.interfaces = interfaces;
+            }
+        }
+    }
+
+    /**
+     * the signals of the org.freedesktop.DBus.Properties interface
+     */
+    @DBusInterfaceName("org.freedesktop.DBus.Properties")
+    public interface PropertiesSignals extends DBusInterface {
+
+        /**
+         * signals that properties of an object changed
+         */
+        class PropertiesChanged extends DBusSignal {
+
+            /**
+             * the name of the interface with the changed properties
+             */
+            public final String interfaceName;
+
+            /**
+             * the changed properties and their new values
+             */
+            public final Map<String, Variant> changedProperties;
+
+            /**
+             * the names of the invalidated properties
+             */
+            public final List<String> invalidatedProperties;
+
+            /**
+             * creates a new PropertiesChanged signal
+             *
+             * @param path the path of the object
+             * @param interfaceName the name of the interface with the changed
+             * properties
+             * @param changedProperties the changed properties and their new
+             * values
+             * @param invalidatedProperties the names of the invalidated
+             * properties
+             * @throws DBusException if creating the signal failed
+             */
+            public PropertiesChanged(String path, String interfaceName,
+                    Map<String, Variant> changedProperties,
+                    List<String> invalidatedProperties) throws DBusException {
+                super(path, interfaceName, changedProperties,
+                        invalidatedProperties);
+                this.interfaceName = interfaceName;
+                this.changedProperties = changedProperties;
+                this.invalidatedProperties = invalidatedProperties;
+            }
+        }
+    }
+
+    private static final Logger LOGGER
+            = Logger.getLogger(UDisksMonitor.class.getName());
+    private static final String BLOCK_DEVICES_PATH
+            = "/org/freedesktop/UDisks2/block_devices/";
+    private static final String BLOCK_INTERFACE
+            = "org.freedesktop.UDisks2.Block";
+    private static final String PARTITION_INTERFACE
+            = "org.freedesktop.UDisks2.Partition";
+
+    private final Listener listener;
+    // the interfaces of all block objects we know of
+    private final Map<String, Set<String>> blockInterfaces = new HashMap<>();
+    // the sizes of all storage devices we know of
+    private final Map<String, Long> sizes = new HashMap<>();
+    // the storage devices that were already reported
+    private final Set<String> reportedDevices = new HashSet<>();
+    private DBusConnection connection;
+    private DBusSigHandler<ObjectManagerSignals.InterfacesAdded> addedHandler;
+    private DBusSigHandler<ObjectManagerSignals.InterfacesRemoved>
+            removedHandler;
+    private DBusSigHandler<PropertiesSignals.PropertiesChanged>
+            changedHandler;
+
+    /**
+     * creates a new UDisksMonitor
+     *
+     * @param listener the listener for storage device changes
+     */
+    public UDisksMonitor(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * starts monitoring
+     *
+     * @throws DBusException if subscribing to the UDisks signals failed
+     */
+    public synchronized void start() throws DBusException {
+        connection = DBusConnection.getConnection(DBusConnection.SYSTEM);
+        addedHandler
+                = new DBusSigHandler<ObjectManagerSignals.InterfacesAdded>() {
+            @Override
+            public void handle(ObjectManagerSignals.InterfacesAdded signal) {
+                interfacesAdded(signal.objectPath.getPath(),
+                        signal.interfaces);
+            }
+        };
+        removedHandler = new DBusSigHandler<
+                ObjectManagerSignals.InterfacesRemoved>() {
+            @Override
+            public void handle(
+                    ObjectManagerSignals.InterfacesRemoved signal) {
+                interfacesRemoved(signal.objectPath.getPath(),
+                        signal.interfaces);
+            }
+        };
+        changedHandler = new DBusSigHandler<
+                PropertiesSignals.PropertiesChanged>() {
+            @Override
+            public void handle(PropertiesSignals.PropertiesChanged signal) {
+                propertiesChanged(signal.getPath(), signal.interfaceName,
+                        signal.changedProperties);
+            }
+        };
+        try {
+            connection.addSigHandler(
+                    ObjectManagerSignals.InterfacesAdded.class, addedHandler);
+            connection.addSigHandler(
+                    ObjectManagerSignals.InterfacesRemoved.class,
+                    removedHandler);
+            connection.addSigHandler(
+                    PropertiesSignals.PropertiesChanged.class,
+                    changedHandler);
+        } catch (DBusException ex) {
+            // don't leave some of the handlers behind
+            stop();
+            throw ex;
+        }
+        LOGGER.info("monitoring UDisks signals");
+    }
+
+    /**
+     * stops monitoring
+     */
+    public synchronized void stop() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.removeSigHandler(
+                    ObjectManagerSignals.InterfacesAdded.class,
+                    addedHandler);
+            connection.removeSigHandler(
+                    ObjectManagerSignals.InterfacesRemoved.class,
+                    removedHandler);
+            connection.removeSigHandler(
+                    PropertiesSignals.PropertiesChanged.class,
+                    changedHandler);
+        } catch (DBusException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+        }
+        connection = null;
+    }
+
+    private synchronized void interfacesAdded(String path,
+            Map<String, Map<String, Variant>> interfaces) {
+        if (!path.startsWith(BLOCK_DEVICES_PATH)) {
+            return;
+        }
+        LOGGER.log(Level.FINE, "added {0}: {1}",
+                new Object[]{path, interfaces.keySet()});
+        Set<String> knownInterfaces = blockInterfaces.get(path);
+        if (knownInterfaces == null) {
+            knownInterfaces = new HashSet<>();
+            blockInterfaces.put(path, knownInterfaces);
+        }
+        knownInterfaces.addAll(interfaces.keySet());
+        Map<String, Variant> blockProperties
+                = interfaces.get(BLOCK_INTERFACE);
+        if (blockProperties != null) {
+            updateSize(path, blockProperties);
+        }
+        checkStorageDevice(getStorageDevicePath(path));
+    }
+
+    private synchronized void interfacesRemoved(
+            String path, List<String> interfaces) {
+        if (!path.startsWith(BLOCK_DEVICES_PATH)) {
+            return;
+        }
+        Set<String> knownInterfaces = blockInterfaces.get(path);
+        if (knownInterfaces != null) {
+            knownInterfaces.removeAll(interfaces);
+        }
+        if (!interfaces.contains(BLOCK_INTERFACE)) {
+            return;
+        }
+        blockInterfaces.remove(path);
+        sizes.remove(path);
+        reportedDevices.remove(path);
+        // Storage devices that were already there before monitoring started
+        // must be removed as well. The object could also be a partition, we
+        // can't tell anymore (listeners just ignore unknown devices).
+        LOGGER.log(Level.INFO, "block device removed: {0}", path);
+        listener.storageDeviceRemoved(path);
+    }
+
+    private synchronized void propertiesChanged(String path,
+            String interfaceName, Map<String, Variant> changedProperties) {
+        if (!path.startsWith(BLOCK_DEVICES_PATH)
+                || !BLOCK_INTERFACE.equals(interfaceName)
+                || !changedProperties.containsKey("Size")) {
+            return;
+        }
+        // card readers keep their block object when media are changed
+        Set<String> knownInterfaces = blockInterfaces.get(path);
+        if (knownInterfaces == null) {
+            knownInterfaces = new HashSet<>();
+            knownInterfaces.add(BLOCK_INTERFACE);
+            blockInterfaces.put(path, knownInterfaces);
+        }
+        updateSize(path, changedProperties);
+        Long size = sizes.get(path);
+        if ((size != null) && (size == 0)) {
+            reportedDevices.remove(path);
+            LOGGER.log(Level.INFO, "medium removed: {0}", path);
+            listener.storageDeviceRemoved(path);
+        } else {
+            checkStorageDevice(getStorageDevicePath(path));
+        }
+    }
+
+    private void updateSize(String path, Map<String, Variant> properties) {
+        Variant size = properties.get("Size");
+        if (size != null) {
+            sizes.put(path, ((Number) size.getValue()).longValue());
+        }
+    }
+
+    private void checkStorageDevice(String path) {
+        if ((path == null) || reportedDevices.contains(path)) {
+            return;
+        }
+        Set<String> knownInterfaces = blockInterfaces.get(path);
+        Long size = sizes.get(path);
+        if ((knownInterfaces == null)
+                || !knownInterfaces.contains(BLOCK_INTERFACE)
+                || (size == null) || (size == 0)) {
+            return;
+        }
+        // all partitions of the kernel must be published by UDisks
+        String name = path.substring(BLOCK_DEVICES_PATH.length());
+        File[] files = new File("/sys/block/" + name).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (new File(file, "partition").exists()) {
+                    Set<String> partitionInterfaces = blockInterfaces.get(
+                            BLOCK_DEVICES_PATH + file.getName());
+                    if ((partitionInterfaces == null)
+                            || !partitionInterfaces.contains(
+                                    PARTITION_INTERFACE)) {
+                        LOGGER.log(Level.FINE, "{0} is not yet complete",
+                                path);
+                        return;
+                    }
+                }
+            }
+        }
+        reportedDevices.add(path);
+        LOGGER.log(Level.INFO, "storage device added: {0}", path);
+        listener.storageDeviceAdded(path);
+    }
+
+    private static String getStorageDevicePath(String path) {
+        // partitions are subdirectories of their storage device in sysfs
+        String name = path.substring(BLOCK_DEVICES_PATH.length());
+        File sysfsFile = new File("/sys/class/block/" + name);
+        if (!new File(sysfsFile, "partition").exists()) {
+            return path;
+        }
+        try {
+            return BLOCK_DEVICES_PATH
+                    + sysfsFile.getCanonicalFile().getParentFile().getName();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return null;
+        }
+    }
+}
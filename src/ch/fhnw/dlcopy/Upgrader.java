@@ -135,67 +135,76 @@ public class Upgrader extends InstallerOrUpgrader {
     protected Void doInBackground() throws Exception {
         inhibit = new LogindInhibit("Upgrading");
 
-        // upgrade all selected storage devices
-        int batchCounter = 0;
-        for (StorageDevice storageDevice : deviceList) {
-
-            // update overall progress message
-            batchCounter++;
-            dlCopyGUI.upgradingDeviceStarted(storageDevice);
-            LOGGER.log(Level.INFO,
-                    "upgrading storage device: {0} of {1} ({2})",
-                    new Object[]{
-                        batchCounter, deviceListSize, storageDevice
-                    });
-
-            File backupDestination = getBackupDestination(storageDevice);
-
-            String errorMessage = null;
-            try {
-                StorageDevice.UpgradeVariant upgradeVariant
-                        = storageDevice.getUpgradeVariant(
-                                DLCopy.getEnlargedSystemSize(
-                                        source.getSystemSize()));
-                switch (upgradeVariant) {
-                    case REGULAR:
-                    case REPARTITION:
-                        if (upgradeDataPartition(
-                                storageDevice, backupDestination)
-                                & upgradeSystemPartition) {
-                            upgradeSystemPartition(storageDevice);
-                        }
-                        break;
-
-                    case BACKUP:
-                        backupInstallRestore(storageDevice);
-                        break;
-
-                    case INSTALLATION:
-                        DLCopy.copyToStorageDevice(source, fileCopier,
-                                storageDevice, exchangePartitionLabel,
-                                this, dlCopyGUI);
-                        break;
-
-                    default:
-                        LOGGER.log(Level.WARNING,
-                                "Unsupported variant {0}", upgradeVariant);
-                }
+        // The temporary mounts of the system source are shared by all
+        // storage devices instead of being mounted again for every device.
+        source.acquireMountLease();
+        try {
+            // upgrade all selected storage devices
+            int batchCounter = 0;
+            for (StorageDevice storageDevice : deviceList) {
+
+                // update overall progress message
+                batchCounter++;
+                dlCopyGUI.upgradingDeviceStarted(storageDevice);
+                LOGGER.log(Level.INFO,
+                        "upgrading storage device: {0} of {1} ({2})",
+                        new Object[]{
+                            batchCounter, deviceListSize, storageDevice
+                        });
+
+                File backupDestination = getBackupDestination(storageDevice);
+
+                String errorMessage = null;
+                try {
+                    StorageDevice.UpgradeVariant upgradeVariant
+                            = storageDevice.getUpgradeVariant(
+                                    DLCopy.getEnlargedSystemSize(
+                                            source.getSystemSize()));
+                    switch (upgradeVariant) {
+                        case REGULAR:
+                        case REPARTITION:
+                            if (upgradeDataPartition(
+                                    storageDevice, backupDestination)
+                                    & upgradeSystemPartition) {
+                                upgradeSystemPartition(storageDevice);
+                            }
+                            break;
+
+                        case BACKUP:
+                            backupInstallRestore(storageDevice);
+                            break;
+
+                        case INSTALLATION:
+                            DLCopy.copyToStorageDevice(source, fileCopier,
+                                    storageDevice, exchangePartitionLabel,
+                                    this, dlCopyGUI);
+                            break;
+
+                        default:
+                            LOGGER.log(Level.WARNING,
+                                    "Unsupported variant {0}", upgradeVariant);
+                    }
 
-                // automatic removal of (temporary) backup
-                if (removeBackup) {
-                    LernstickFileTools.recursiveDelete(backupDestination, true);
+                    // automatic removal of (temporary) backup
+                    if (removeBackup) {
+                        LernstickFileTools.recursiveDelete(
+                                backupDestination, true);
+                    }
+                } catch (DBusException | IOException
+                        | InterruptedException ex) {
+                    LOGGER.log(Level.WARNING, "", ex);
+                    errorMessage = ex.getMessage();
                 }
-            } catch (DBusException | IOException | InterruptedException ex) {
-                LOGGER.log(Level.WARNING, "", ex);
-                errorMessage = ex.getMessage();
-            }
 
-            dlCopyGUI.upgradingDeviceFinished(errorMessage);
+                dlCopyGUI.upgradingDeviceFinished(errorMessage);
 
-            LOGGER.log(Level.INFO, "upgrading of storage device finished: "
-                    + "{0} of {1} ({2})", new Object[]{
-                        batchCounter, deviceListSize, storageDevice
-                    });
+                LOGGER.log(Level.INFO, "upgrading of storage device finished: "
+                        + "{0} of {1} ({2})", new Object[]{
+                            batchCounter, deviceListSize, storageDevice
+                        });
+            }
+        } finally {
+            source.releaseMountLease();
         }
 
         return null;
@@ -206,26 +215,35 @@ public class Upgrader extends InstallerOrUpgrader {
         if (inhibit != null) {
             inhibit.delete();
         }
+        LOGGER.log(Level.INFO, "buffer pool: {0}",
+                BufferPool.getInstance().getStatistics());
         dlCopyGUI.upgradingListFinished();
     }
 
     @Override
-    public void showCreatingFileSystems() {
+    public void showCreatingFileSystems(StorageDevice storageDevice) {
         dlCopyGUI.showUpgradeCreatingFileSystems();
     }
 
     @Override
-    public void showCopyingFiles(FileCopier fileCopier) {
+    public void showCopyingFiles(
+            StorageDevice storageDevice, FileCopier fileCopier) {
         dlCopyGUI.showUpgradeFileCopy(fileCopier);
     }
 
     @Override
-    public void showUnmounting() {
+    public void showCopyingLargeFiles(StorageDevice storageDevice,
+            LargeFileCopier largeFileCopier) {
+        dlCopyGUI.showUpgradeLargeFileCopy(largeFileCopier);
+    }
+
+    @Override
+    public void showUnmounting(StorageDevice storageDevice) {
         dlCopyGUI.showUpgradeUnmounting();
     }
 
     @Override
-    public void showWritingBootSector() {
+    public void showWritingBootSector(StorageDevice storageDevice) {
         dlCopyGUI.showUpgradeWritingBootSector();
     }
 
@@ -332,7 +350,8 @@ public class Upgrader extends InstallerOrUpgrader {
             return;
         }
 
-        String mountPath = dataPartition.mount().getMountPath();
+        String mountPath = MountProfile.mountForBulkWrite(
+                dataPartition).getMountPath();
 
         // restore data
         dlCopyGUI.showUpgradeRestoreInit();
@@ -376,8 +395,10 @@ public class Upgrader extends InstallerOrUpgrader {
         finalizeDataPartition(mountPath);
 
         // cleanup
-        dataPartition.umount();
         restoreTimer.stop();
+        if (!MountProfile.umount(dataPartition)) {
+            throw new IOException("could not umount data partition");
+        }
     }
 
     private void restoreExchangePartition(
@@ -395,10 +416,12 @@ public class Upgrader extends InstallerOrUpgrader {
         Source[] sources = new Source[]{
             new Source(restoreSourceDir.getPath(), ".*")};
         String[] destinations = new String[]{
-            exchangePartition.mount().getMountPath()};
+            MountProfile.mountForBulkWrite(exchangePartition).getMountPath()};
         fileCopier.copy(new CopyJob(sources, destinations));
 
-        exchangePartition.umount();
+        if (!MountProfile.umount(exchangePartition)) {
+            throw new IOException("could not umount exchange partition");
+        }
     }
 
     private boolean upgradeDataPartition(StorageDevice storageDevice,
@@ -849,7 +872,7 @@ public class Upgrader extends InstallerOrUpgrader {
                 return false;
             }
             // refresh storage device and partition info
-            processExecutor.executeProcess(true, true, "/sbin/partprobe");
+            MbrPartitionTable.rereadPartitionTable(devicePath);
             // safety wait so that new partitions are known to the system
             // (7 seconds were NOT enough!)
             TimeUnit.SECONDS.sleep(7);
@@ -933,18 +956,38 @@ public class Upgrader extends InstallerOrUpgrader {
         LernstickFileTools.recursiveDelete(systemMountPointFile, false);
 
         LOGGER.info("starting copy job");
-        dlCopyGUI.showUpgradeFileCopy(fileCopier);
 
+        // copy all files (the large files with paced writeback)
         CopyJob bootFilesCopyJob = copyJobsInfo.getExchangeEfiCopyJob();
-        fileCopier.copy(copyJobsInfo.getEfiCopyJob(),
+        LargeFileCopier largeFileCopier
+                = new LargeFileCopier("/dev/" + storageDevice.getDevice());
+        CopyJob[] copyJobs = largeFileCopier.split(
+                copyJobsInfo.getEfiCopyJob(), bootFilesCopyJob,
+                copyJobsInfo.getSystemCopyJob());
+        PageCacheHints pageCacheHints = new PageCacheHints(
+                "upgrading /dev/" + storageDevice.getDevice());
+        pageCacheHints.addCopyJobs(copyJobsInfo.getEfiCopyJob(),
                 bootFilesCopyJob, copyJobsInfo.getSystemCopyJob());
+        pageCacheHints.start();
+        try {
+            if (largeFileCopier.hasFiles()) {
+                showCopyingLargeFiles(storageDevice, largeFileCopier);
+                largeFileCopier.copy();
+            }
+            dlCopyGUI.showUpgradeFileCopy(fileCopier);
+            fileCopier.copy(copyJobs);
+        } finally {
+            pageCacheHints.stop();
+        }
 
         // hide boot files in exchange partition
         // (only necessary with FAT32 on removable media...)
         if (bootFilesCopyJob != null) {
             String exchangePath = exchangePartition.getMountPath();
             DLCopy.hideBootFiles(bootFilesCopyJob, exchangePath);
-            DLCopy.umount(exchangePartition, dlCopyGUI);
+            if (!DLCopy.umount(exchangePartition, dlCopyGUI)) {
+                return false;
+            }
         }
 
         dlCopyGUI.showUpgradeUnmounting();
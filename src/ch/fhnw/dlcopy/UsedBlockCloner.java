@@ -0,0 +1,235 @@
+package ch.fhnw.dlcopy;
+
+import ch.fhnw.util.LernstickFileTools;
+import ch.fhnw.util.ProcessExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clones a file system to a destination partition by copying only the blocks
+ * that are allocated in the file system (as recorded in its allocation
+ * bitmap) and grows the file system to the size of the destination partition
+ * afterwards. With many small files this is much faster than copying file by
+ * file. The allocation bitmaps are read by the usual tools: e2image for
+ * ext2/3/4 and partclone for FAT32 and exFAT. These tools copy the blocks
+ * with their own buffers, which are therefore not part of the budget of the
+ * {@link BufferPool}.
+ * <p>
+ * The label and ID of the destination file system are kept, so that the
+ * clone is not confused with its source.
+ * <p>
+ * A source file system that is mounted read-write (e.g. the active
+ * persistence of the running system) can't be cloned consistently and is
+ * rejected. Encrypted partitions must be cloned between their opened LUKS
+ * mappings, the raw partitions only contain crypto_LUKS.
+ */
+public class UsedBlockCloner {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(UsedBlockCloner.class.getName());
+
+    private final String sourceDevice;
+    private final String destinationDevice;
+    private final ProcessExecutor processExecutor = new ProcessExecutor();
+    private String fileSystem;
+    private long sourceSize;
+    private long destinationSize;
+
+    /**
+     * creates a new UsedBlockCloner
+     *
+     * @param sourceDevice the device file of the source partition or LUKS
+     * mapping (e.g. "/dev/sda2")
+     * @param destinationDevice the device file of the destination partition
+     * or LUKS mapping (e.g. "/dev/mapper/persistence_sdb4"), it must already
+     * contain a file system of the same type as the source partition
+     */
+    public UsedBlockCloner(String sourceDevice, String destinationDevice) {
+        this.sourceDevice = sourceDevice;
+        this.destinationDevice = destinationDevice;
+    }
+
+    /**
+     * checks if the source file system can be cloned to the destination
+     * partition, the reason is logged if not
+     *
+     * @return <tt>true</tt> if the source file system can be cloned,
+     * otherwise <tt>false</tt> (the files must be copied one by one)
+     */
+    public boolean canClone() {
+        fileSystem = getBlkidValue(sourceDevice, "TYPE");
+        String destinationFileSystem
+                = getBlkidValue(destinationDevice, "TYPE");
+        if ((fileSystem == null)
+                || !fileSystem.equals(destinationFileSystem)) {
+            return unsupported("different file systems " + fileSystem
+                    + " and " + destinationFileSystem);
+        }
+        if (isMountedReadWrite(sourceDevice)) {
+            return unsupported("source is mounted read-write");
+        }
+        sourceSize = getSize(sourceDevice);
+        destinationSize = getSize(destinationDevice);
+        if ((sourceSize <= 0) || (destinationSize < sourceSize)) {
+            return unsupported("destination is smaller than source");
+        }
+        boolean grow = destinationSize > sourceSize;
+        switch (fileSystem) {
+            case "ext2":
+            case "ext3":
+            case "ext4":
+                // e2image and resize2fs are part of e2fsprogs
+                return true;
+            case "vfat":
+                if (!isAvailable("partclone.fat32")) {
+                    return unsupported("partclone.fat32 is not available");
+                }
+                if (grow && !isAvailable("fatresize")) {
+                    return unsupported("fatresize is not available");
+                }
+                return true;
+            case "exfat":
+                if (!isAvailable("partclone.exfat")) {
+                    return unsupported("partclone.exfat is not available");
+                }
+                if (grow) {
+                    return unsupported("exFAT can't be grown");
+                }
+                return true;
+            default:
+                return unsupported("unsupported file system " + fileSystem);
+        }
+    }
+
+    /**
+     * clones the source file system to the destination partition and grows
+     * it to the size of the destination partition (must only be called after
+     * {@link #canClone()} returned <tt>true</tt>)
+     *
+     * @throws IOException if cloning or growing the file system failed
+     */
+    public void cloneAndGrow() throws IOException {
+        LOGGER.log(Level.INFO, "cloning {0} file system {1} to {2}",
+                new Object[]{fileSystem, sourceDevice, destinationDevice});
+        String label = getBlkidValue(destinationDevice, "LABEL");
+        String uuid = getBlkidValue(destinationDevice, "UUID");
+        boolean grow = destinationSize > sourceSize;
+        switch (fileSystem) {
+            case "vfat":
+                execute("partclone.fat32", "-b",
+                        "-s", sourceDevice, "-o", destinationDevice);
+                if (grow) {
+                    execute("fatresize", "-s", "max", destinationDevice);
+                }
+                if (label != null) {
+                    restore("fatlabel", destinationDevice, label);
+                }
+                if (uuid != null) {
+                    restore("fatlabel", "-i", destinationDevice,
+                            uuid.replace("-", ""));
+                }
+                break;
+            case "exfat":
+                execute("partclone.exfat", "-b",
+                        "-s", sourceDevice, "-o", destinationDevice);
+                if (label != null) {
+                    restore("exfatlabel", destinationDevice, label);
+                }
+                if (uuid != null) {
+                    restore("exfatlabel", "-i", destinationDevice,
+                            "0x" + uuid.replace("-", ""));
+                }
+                break;
+            default:
+                execute("e2image", "-ra", sourceDevice, destinationDevice);
+                // e2fsck return values 0 and 1 mean that the file system is
+                // OK, resize2fs needs a freshly checked file system
+                int exitValue = processExecutor.executeProcess(true, true,
+                        "e2fsck", "-f", "-y", destinationDevice);
+                if ((exitValue != 0) && (exitValue != 1)) {
+                    throw new IOException("e2fsck of " + destinationDevice
+                            + " failed: " + processExecutor.getOutput());
+                }
+                if (grow) {
+                    execute("resize2fs", destinationDevice);
+                }
+                if (label != null) {
+                    restore("tune2fs", "-L", label, destinationDevice);
+                }
+                if (uuid != null) {
+                    restore("tune2fs", "-U", uuid, destinationDevice);
+                }
+        }
+    }
+
+    private boolean unsupported(String reason) {
+        LOGGER.log(Level.INFO, "can''t clone {0} to {1}: {2}",
+                new Object[]{sourceDevice, destinationDevice, reason});
+        return false;
+    }
+
+    private String getBlkidValue(String device, String tag) {
+        if (processExecutor.executeProcess(true, true, "blkid",
+                "-o", "value", "-s", tag, device) != 0) {
+            return null;
+        }
+        String value = processExecutor.getOutput().trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private long getSize(String device) {
+        if (processExecutor.executeProcess(true, true,
+                "blockdev", "--getsize64", device) != 0) {
+            LOGGER.log(Level.WARNING, "could not get size of {0}: {1}",
+                    new Object[]{device, processExecutor.getOutput()});
+            return -1;
+        }
+        try {
+            return Long.parseLong(processExecutor.getOutput().trim());
+        } catch (NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return -1;
+        }
+    }
+
+    private boolean isAvailable(String tool) {
+        return processExecutor.executeProcess(true, true, "which", tool) == 0;
+    }
+
+    private static boolean isMountedReadWrite(String device) {
+        try {
+            for (String line : LernstickFileTools.readFile(
+                    new File("/proc/mounts"))) {
+                String[] tokens = line.split(" ");
+                if ((tokens.length > 3) && tokens[0].equals(device)
+                        && Arrays.asList(tokens[3].split(",")).contains(
+                                "rw")) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            // better safe than sorry
+            return true;
+        }
+    }
+
+    private void execute(String... commandArray) throws IOException {
+        if (processExecutor.executeProcess(true, true, commandArray) != 0) {
+            throw new IOException(commandArray[0] + " failed: "
+                    + processExecutor.getOutput());
+        }
+    }
+
+    private void restore(String... commandArray) {
+        // not fatal, the clone just keeps the label or ID of its source
+        if (processExecutor.executeProcess(true, true, commandArray) != 0) {
+            LOGGER.log(Level.WARNING, "{0} failed: {1}", new Object[]{
+                commandArray[0], processExecutor.getOutput()});
+        }
+    }
+}
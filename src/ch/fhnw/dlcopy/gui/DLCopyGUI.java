@@ -1,6 +1,7 @@
 package ch.fhnw.dlcopy.gui;
 
-import ch.fhnw.dlcopy.Installer;
+import ch.fhnw.dlcopy.LargeFileCopier;
+import ch.fhnw.dlcopy.TreeCopier;
 import ch.fhnw.filecopier.FileCopier;
 import ch.fhnw.util.StorageDevice;
 
@@ -29,6 +30,36 @@ public interface DLCopyGUI {
      */
     public void showInstallCreatingFileSystems();
 
+    /**
+     * shows the user interface for cloning a partition of a running
+     * installation
+     */
+    public void showInstallCloningPartition();
+
+    /**
+     * shows the user interface for reading the system source into memory
+     * before the installations start
+     *
+     * @param fileCopier the FileCopier used for reading the system source
+     * into memory
+     */
+    public void showInstallMirroringSource(FileCopier fileCopier);
+
+    /**
+     * sets a summary that is shown together with the installation report
+     *
+     * @param summary the summary
+     */
+    public void setInstallSummary(String summary);
+
+    /**
+     * shows how many storage devices are processed and waiting in every stage
+     * of a pipelined installation
+     *
+     * @param stageInfo the state of all installation stages
+     */
+    public void setInstallStageInfo(String stageInfo);
+
     /**
      * shows the user interface for copying files of a running installation
      *
@@ -38,22 +69,22 @@ public interface DLCopyGUI {
     public void showInstallFileCopy(FileCopier fileCopier);
 
     /**
-     * shows the user interface for copying the persistency partition during
+     * shows the user interface for copying the large files of a running
      * installation
      *
-     * @param installer the Installer currently in use
-     * @param copyScript the shell script for the copy operation
-     * @param sourcePath the path to the source directory
+     * @param largeFileCopier the LargeFileCopier used for copying the large
+     * files of an installation
      */
-    public void showInstallPersistencyCopy(
-            Installer installer, String copyScript, String sourcePath);
+    public void showInstallLargeFileCopy(LargeFileCopier largeFileCopier);
 
     /**
-     * sets the current output line of the copy process
+     * shows the user interface for copying the persistency partition during
+     * installation
      *
-     * @param line the current output line of the copy process
+     * @param treeCopier the TreeCopier used for copying the persistency
+     * partition
      */
-    public void setInstallCopyLine(String line);
+    public void showInstallPersistencyCopy(TreeCopier treeCopier);
 
     /**
      * shows the user interface for unmouting file systems during installation
@@ -66,14 +97,24 @@ public interface DLCopyGUI {
      */
     public void showInstallWritingBootSector();
 
+    /**
+     * sets the progress info of a StorageDevice that is being installed
+     *
+     * @param storageDevice the StorageDevice being installed
+     * @param progressInfo the current progress info
+     */
+    public void setInstallDeviceProgress(
+            StorageDevice storageDevice, String progressInfo);
+
     /**
      * called when installing of a StorageDevice finished
      *
+     * @param storageDevice the installed StorageDevice
      * @param errorMessage the error message or <code>null</code> if there was
      * no error
      * @param autoNumberStart the new auto numbering start value
      */
-    public void installingDeviceFinished(
+    public void installingDeviceFinished(StorageDevice storageDevice,
             String errorMessage, int autoNumberStart);
 
     /**
@@ -93,6 +134,14 @@ public interface DLCopyGUI {
      */
     public void showUpgradeFileCopy(FileCopier fileCopier);
 
+    /**
+     * shows the user interface for copying the large files of an upgrade
+     *
+     * @param largeFileCopier the LargeFileCopier used for copying the large
+     * files of an upgrade
+     */
+    public void showUpgradeLargeFileCopy(LargeFileCopier largeFileCopier);
+
     /**
      * shows the user interface for unmouting file systems during upgrade
      */
@@ -5,16 +5,25 @@
  */
 package ch.fhnw.dlcopy.gui.swing;
 
+import ch.fhnw.dlcopy.BufferPool;
 import ch.fhnw.dlcopy.DLCopy;
 import ch.fhnw.dlcopy.DebianLiveDistribution;
+import ch.fhnw.dlcopy.DirtyWindow;
+import ch.fhnw.dlcopy.PageCacheHints;
+import ch.fhnw.dlcopy.PartitionUsageService;
 import ch.fhnw.dlcopy.PartitionState;
+import ch.fhnw.dlcopy.ProgressPoller;
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
 import ch.fhnw.dlcopy.DataPartitionMode;
 import ch.fhnw.dlcopy.SystemSource;
+import ch.fhnw.dlcopy.ThroughputProbe;
+import ch.fhnw.dlcopy.TreeCopier;
+import ch.fhnw.dlcopy.UDisksMonitor;
 import ch.fhnw.dlcopy.gui.DLCopyGUI;
 import ch.fhnw.dlcopy.Installer;
 import ch.fhnw.dlcopy.IsoCreator;
 import ch.fhnw.dlcopy.IsoSystemSource;
+import ch.fhnw.dlcopy.LargeFileCopier;
 import ch.fhnw.dlcopy.PartitionSizes;
 import ch.fhnw.dlcopy.Resetter;
 import ch.fhnw.dlcopy.RepartitionStrategy;
@@ -51,7 +60,6 @@ import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
@@ -76,7 +84,7 @@ import org.freedesktop.dbus.exceptions.DBusException;
  */
 public class DLCopySwingGUI extends JFrame
         implements DLCopyGUI, DocumentListener, PropertyChangeListener,
-        ListDataListener {
+        ListDataListener, UDisksMonitor.Listener {
 
     private final static Logger LOGGER
             = Logger.getLogger(DLCopySwingGUI.class.getName());
@@ -86,12 +94,16 @@ public class DLCopySwingGUI extends JFrame
             = NoHiddenFilesSwingFileFilter.getInstance();
     private final static String UDISKS_ADDED = "added:";
     private final static String UDISKS_REMOVED = "removed:";
-    private final DefaultListModel<StorageDevice> installStorageDeviceListModel
-            = new DefaultListModel<>();
-    private final DefaultListModel<StorageDevice> upgradeStorageDeviceListModel
-            = new DefaultListModel<>();
-    private final DefaultListModel<StorageDevice> resetStorageDeviceListModel
-            = new DefaultListModel<>();
+    private final static Pattern ADDED_PATTERN = Pattern.compile(
+            ".*: Added (/org/freedesktop/UDisks2/block_devices/.*)");
+    private final static Pattern REMOVED_PATTERN = Pattern.compile(
+            ".*: Removed (/org/freedesktop/UDisks2/block_devices/.*)");
+    private final SortedListModel<StorageDevice> installStorageDeviceListModel
+            = new SortedListModel<>();
+    private final SortedListModel<StorageDevice> upgradeStorageDeviceListModel
+            = new SortedListModel<>();
+    private final SortedListModel<StorageDevice> resetStorageDeviceListModel
+            = new SortedListModel<>();
     private final InstallStorageDeviceRenderer installStorageDeviceRenderer;
     private final UpgradeStorageDeviceRenderer upgradeStorageDeviceRenderer;
     private final ResetStorageDeviceRenderer resetStorageDeviceRenderer;
@@ -104,7 +116,12 @@ public class DLCopySwingGUI extends JFrame
         RESET_INFORMATION, RESET_SELECTION, RESET,
         ISO_INFORMATION, ISO_SELECTION, ISO_INSTALLATION
     }
-    private State state = State.INSTALL_INFORMATION;
+    // state and the "show hard disks" selections are volatile because the
+    // StorageDeviceDiscovery reads them in its own thread
+    private volatile State state = State.INSTALL_INFORMATION;
+    private volatile boolean installShowHarddisks;
+    private volatile boolean upgradeShowHarddisks;
+    private volatile boolean resetShowHarddisks;
 
     private SystemSource runningSystemSource;
     private SystemSource isoSystemSource;
@@ -118,6 +135,7 @@ public class DLCopySwingGUI extends JFrame
     private DebianLiveDistribution debianLiveDistribution;
 
     private final UdisksMonitorThread udisksMonitorThread;
+    private final UDisksMonitor udisksMonitor;
     private final DefaultListModel<String> upgradeOverwriteListModel;
     private JFileChooser addFileChooser;
     private RdiffBackupRestore rdiffBackupRestore;
@@ -148,24 +166,32 @@ public class DLCopySwingGUI extends JFrame
     private final ResultsTableModel installationResultsTableModel;
     private final ResultsTableModel upgradeResultsTableModel;
     private final ResultsTableModel resultsTableModel;
-    private CpActionListener cpActionListener;
-
-    private final static Pattern ADDED_PATTERN = Pattern.compile(
-            ".*: Added (/org/freedesktop/UDisks2/block_devices/.*)");
-    private final static Pattern REMOVED_PATTERN = Pattern.compile(
-            ".*: Removed (/org/freedesktop/UDisks2/block_devices/.*)");
 
     private final StorageDeviceListUpdateDialogHandler storageDeviceListUpdateDialogHandler
             = new StorageDeviceListUpdateDialogHandler(this);
+    private final StorageDeviceDiscovery storageDeviceDiscovery
+            = new StorageDeviceDiscovery(this);
 
     private int batchCounter;
-    private long deviceStartTime;
+    private int finishedCounter;
+    private final Map<StorageDevice, Long> deviceStartTimes
+            = new IdentityHashMap<>();
     private StorageDevice currentDevice;
     private List<StorageDeviceResult> resultsList;
 
     private Integer commandLineExchangePartitionSize;
     private String commandLineExchangePartitionFileSystem;
     private Boolean commandLineCopyDataPartition;
+    private int concurrentInstallations = 1;
+    private boolean fanOutCopy;
+    private boolean goldenImage;
+    private int[] stageLimits;
+    private boolean probeThroughput;
+    private boolean verify;
+    private boolean deltaInstall;
+    private boolean mirrorSource;
+    private String installSummary;
+    private String installStageInfo;
     private boolean instantInstallation;
     private boolean instantInstallationDone;
     
@@ -481,8 +507,52 @@ public class DLCopySwingGUI extends JFrame
         }
 
         // monitor udisks changes
-        udisksMonitorThread = new UdisksMonitorThread();
-        udisksMonitorThread.start();
+        // (UDisks1 has no object manager, there we parse the monitor output)
+        UDisksMonitor monitor = null;
+        if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V2) {
+            monitor = new UDisksMonitor(this);
+            try {
+                monitor.start();
+            } catch (DBusException ex) {
+                LOGGER.log(Level.WARNING, "could not subscribe to the UDisks "
+                        + "signals, parsing the monitor output instead", ex);
+                monitor = null;
+            }
+        }
+        udisksMonitor = monitor;
+        if (monitor == null) {
+            udisksMonitorThread = new UdisksMonitorThread();
+            udisksMonitorThread.start();
+        } else {
+            udisksMonitorThread = null;
+        }
+
+        // the used space of partitions is determined in the background
+        PartitionUsageService.getInstance().addListener(
+                new PartitionUsageService.Listener() {
+            @Override
+            public void usageDetermined(StorageDevice storageDevice) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        upgradeStorageDeviceList.repaint();
+                    }
+                });
+            }
+        });
+
+        // the read rate of storage devices is measured in the background
+        ThroughputProbe.addListener(new ThroughputProbe.Listener() {
+            @Override
+            public void throughputMeasured(StorageDevice storageDevice) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        installStorageDeviceList.repaint();
+                    }
+                });
+            }
+        });
 
         upgradeOverwriteListModel = new DefaultListModel();
         upgradeOverwriteListModel.addListDataListener(this);
@@ -603,70 +673,161 @@ public class DLCopySwingGUI extends JFrame
         }
 
         String line = (String) evt.getNewValue();
-
-        boolean deviceAdded;
-        Matcher matcher = null;
         if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-            deviceAdded = line.startsWith(UDISKS_ADDED);
-        } else {
-            matcher = ADDED_PATTERN.matcher(line);
-            deviceAdded = matcher.matches();
+            if (line.startsWith(UDISKS_ADDED)) {
+                storageDeviceAdded(
+                        line.substring(UDISKS_ADDED.length()).trim());
+            } else if (line.startsWith(UDISKS_REMOVED)) {
+                storageDeviceRemoved(
+                        line.substring(UDISKS_REMOVED.length()).trim());
+            }
+            return;
         }
+        Matcher matcher = ADDED_PATTERN.matcher(line);
+        if (matcher.matches()) {
+            storageDeviceAdded(matcher.group(1));
+            return;
+        }
+        matcher = REMOVED_PATTERN.matcher(line);
+        if (matcher.matches()) {
+            storageDeviceRemoved(matcher.group(1));
+        }
+    }
 
-        if (deviceAdded) {
-            String addedPath;
-            if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-                addedPath = line.substring(UDISKS_ADDED.length()).trim();
-            } else {
-                addedPath = matcher.group(1);
+    /**
+     * returns <tt>true</tt> if storage devices are reported only when all of
+     * their partitions are available (i.e. we receive the UDisks signals),
+     * <tt>false</tt> if they may be reported before their partitions (i.e.
+     * we parse the output of the udisks monitor)
+     *
+     * @return <tt>true</tt> if storage devices are reported only when all of
+     * their partitions are available, otherwise <tt>false</tt>
+     */
+    public boolean isReportingCompleteStorageDevices() {
+        return udisksMonitor != null;
+    }
+
+    @Override
+    public void storageDeviceAdded(String addedPath) {
+        // Take great care when calling Swing functions,
+        // because here we are on a monitoring thread!
+        LOGGER.log(Level.INFO, "added path: \"{0}\"", addedPath);
+        storageDeviceDiscovery.deviceAdded(addedPath);
+    }
+
+    @Override
+    public void storageDeviceRemoved(String path) {
+        LOGGER.log(Level.INFO, "removed path: \"{0}\"", path);
+        storageDeviceDiscovery.deviceRemoved(path);
+    }
+
+    /**
+     * creates the StorageDeviceAdder for the current state (may be called
+     * from any thread, no Swing components are accessed)
+     *
+     * @param addedPath the added udisks path
+     * @return the StorageDeviceAdder for the current state or <tt>null</tt>,
+     * if device changes are not handled in the current state
+     */
+    public StorageDeviceAdder createStorageDeviceAdder(String addedPath) {
+        switch (state) {
+            case INSTALL_SELECTION:
+                return new InstallStorageDeviceAdder(addedPath,
+                        installShowHarddisks,
+                        storageDeviceListUpdateDialogHandler,
+                        installStorageDeviceListModel, this);
+
+            case UPGRADE_SELECTION:
+                return new UpgradeStorageDeviceAdder(runningSystemSource,
+                        addedPath,
+                        upgradeShowHarddisks,
+                        storageDeviceListUpdateDialogHandler,
+                        upgradeStorageDeviceListModel, this);
+
+            case RESET_SELECTION:
+                return new ResetStorageDeviceAdder(addedPath,
+                        resetShowHarddisks,
+                        storageDeviceListUpdateDialogHandler,
+                        resetStorageDeviceListModel, this);
+
+            default:
+                LOGGER.log(Level.INFO,
+                        "device change not handled in state {0}",
+                        state);
+                return null;
+        }
+    }
+
+    /**
+     * applies a batch of storage device changes to the storage device list
+     * (must be called on the Swing event thread)
+     *
+     * @param removedPaths the udisks paths of the removed storage devices
+     * @param adders the StorageDeviceAdders of the added storage devices
+     */
+    public void storageDevicesChanged(List<String> removedPaths,
+            List<StorageDeviceAdder> adders) {
+
+        boolean removed = false;
+        for (String removedPath : removedPaths) {
+            removed |= removeStorageDevice(removedPath);
+        }
+
+        StorageDeviceAdder lastAdder = null;
+        for (StorageDeviceAdder adder : adders) {
+            if (adder.addDeviceToList()) {
+                lastAdder = adder;
             }
-            LOGGER.log(Level.INFO, "added path: \"{0}\"", addedPath);
+        }
 
+        // update the GUI only once for the whole batch
+        if (lastAdder != null) {
+            lastAdder.processAddedDevice();
+        } else if (removed) {
             switch (state) {
                 case INSTALL_SELECTION:
-                    new InstallStorageDeviceAdder(addedPath,
-                            installShowHarddisksCheckBox.isSelected(),
-                            storageDeviceListUpdateDialogHandler,
-                            installStorageDeviceListModel,
-                            installStorageDeviceList, this).execute();
+                    installStorageDeviceListChanged();
                     break;
-
                 case UPGRADE_SELECTION:
-                    new UpgradeStorageDeviceAdder(runningSystemSource,
-                            addedPath,
-                            upgradeShowHarddisksCheckBox.isSelected(),
-                            storageDeviceListUpdateDialogHandler,
-                            upgradeStorageDeviceListModel,
-                            upgradeStorageDeviceList, this).execute();
+                    upgradeStorageDeviceListChanged();
                     break;
-
                 case RESET_SELECTION:
-                    new ResetStorageDeviceAdder(addedPath,
-                            resetShowHarddisksCheckBox.isSelected(),
-                            storageDeviceListUpdateDialogHandler,
-                            resetStorageDeviceListModel,
-                            resetStorageDeviceList, this).execute();
-                    break;
-
-                default:
-                    LOGGER.log(Level.INFO,
-                            "device change not handled in state {0}",
-                            state);
+                    resetStorageDeviceListChanged();
             }
+        }
+    }
 
-        } else {
-            // check, if a device was removed
-            boolean deviceRemoved;
-            if (DbusTools.DBUS_VERSION == DbusTools.DbusVersion.V1) {
-                deviceRemoved = line.startsWith(UDISKS_REMOVED);
-            } else {
-                matcher = REMOVED_PATTERN.matcher(line);
-                deviceRemoved = matcher.matches();
-            }
-            if (deviceRemoved) {
-                removeStorageDevice(line);
+    private boolean removeStorageDevice(String path) {
+        // the device was just removed, so we can not use getStorageDevice()
+        // here...
+        String[] tokens = path.split("/");
+        String device = tokens[tokens.length - 1];
+        DefaultListModel listModel;
+        switch (state) {
+            case INSTALL_SELECTION:
+                listModel = installStorageDeviceListModel;
+                break;
+            case UPGRADE_SELECTION:
+                listModel = upgradeStorageDeviceListModel;
+                break;
+            case RESET_SELECTION:
+                listModel = resetStorageDeviceListModel;
+                break;
+            default:
+                LOGGER.log(Level.WARNING, "Unsupported state: {0}", state);
+                return false;
+        }
+
+        for (int i = 0, size = listModel.getSize(); i < size; i++) {
+            StorageDevice storageDevice = (StorageDevice) listModel.get(i);
+            if (storageDevice.getDevice().equals(device)) {
+                listModel.remove(i);
+                LOGGER.log(Level.INFO,
+                        "removed from storage device list: {0}", device);
+                return true;
             }
         }
+        return false;
     }
 
     @Override
@@ -690,26 +851,48 @@ public class DLCopySwingGUI extends JFrame
             @Override
             public void run() {
                 showCard(cardPanel, "installTabbedPane");
+                if (isInstallingInParallel()) {
+                    // the progress of concurrent installations is only
+                    // visible in the report
+                    installTabbedPane.setSelectedComponent(
+                            installReportPanel);
+                }
             }
         });
     }
 
     @Override
-    public void installingDeviceStarted(StorageDevice storageDevice) {
+    public synchronized void installingDeviceStarted(
+            StorageDevice storageDevice) {
         deviceStarted(storageDevice);
 
         // update label
-        String pattern = STRINGS.getString("Install_Device_Info");
-        String deviceInfo = MessageFormat.format(pattern,
-                storageDevice.getVendor() + " " + storageDevice.getModel() + " "
-                + LernstickFileTools.getDataVolumeString(
-                        storageDevice.getSize(), 1),
-                "/dev/" + storageDevice.getDevice(), batchCounter,
-                installStorageDeviceList.getSelectedIndices().length);
-        setLabelTextonEDT(currentlyInstalledDeviceLabel, deviceInfo);
+        if (isInstallingInParallel()) {
+            updateConcurrentInstallInfo();
+        } else {
+            String pattern = STRINGS.getString("Install_Device_Info");
+            String deviceInfo = MessageFormat.format(pattern,
+                    storageDevice.getVendor() + " " + storageDevice.getModel()
+                    + " " + LernstickFileTools.getDataVolumeString(
+                            storageDevice.getSize(), 1),
+                    "/dev/" + storageDevice.getDevice(), batchCounter,
+                    installStorageDeviceList.getSelectedIndices().length);
+            setLabelTextonEDT(currentlyInstalledDeviceLabel, deviceInfo);
+        }
 
         // add "in progress" entry to results table
-        installationResultsTableModel.setList(resultsList);
+        updateResultsTable(installationResultsTableModel);
+    }
+
+    @Override
+    public synchronized void setInstallDeviceProgress(
+            StorageDevice storageDevice, String progressInfo) {
+        int index = getResultIndex(storageDevice);
+        if (index != -1) {
+            resultsList.set(index, new StorageDeviceResult(
+                    storageDevice, -1, null, progressInfo));
+            updateResultsTable(installationResultsTableModel);
+        }
     }
 
     @Override
@@ -717,6 +900,38 @@ public class DLCopySwingGUI extends JFrame
         showInstallIndeterminateProgressBarText("Creating_File_Systems");
     }
 
+    @Override
+    public void showInstallCloningPartition() {
+        showInstallIndeterminateProgressBarText("Cloning_Partition");
+    }
+
+    @Override
+    public void showInstallMirroringSource(FileCopier fileCopier) {
+        // the source is read before all installations, therefore this is
+        // also shown when installing in parallel
+        setLabelTextonEDT(currentlyInstalledDeviceLabel,
+                STRINGS.getString("Mirroring_Source"));
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                installTabbedPane.setSelectedComponent(installCurrentPanel);
+            }
+        });
+        showFileCopy(installFileCopierPanel, fileCopier, installCopyLabel,
+                installCardPanel, "installCopyPanel");
+    }
+
+    @Override
+    public void setInstallSummary(String summary) {
+        installSummary = summary;
+    }
+
+    @Override
+    public synchronized void setInstallStageInfo(String stageInfo) {
+        installStageInfo = stageInfo;
+        updateConcurrentInstallInfo();
+    }
+
     @Override
     public void showInstallFileCopy(FileCopier fileCopier) {
         showFileCopy(installFileCopierPanel, fileCopier, installCopyLabel,
@@ -724,48 +939,28 @@ public class DLCopySwingGUI extends JFrame
     }
 
     @Override
-    public void showInstallPersistencyCopy(
-            Installer installer, String copyScript, String sourcePath) {
-        cpActionListener = new CpActionListener(
-                cpFilenameLabel, cpTimeLabel, sourcePath);
-        javax.swing.Timer cpTimer
-                = new javax.swing.Timer(1000, cpActionListener);
+    public void showInstallLargeFileCopy(LargeFileCopier largeFileCopier) {
+        showLargeFileCopy(installCardPanel, "installIndeterminateProgressPanel",
+                installIndeterminateProgressBar, largeFileCopier);
+    }
+
+    @Override
+    public void showInstallPersistencyCopy(TreeCopier treeCopier) {
+        javax.swing.Timer cpTimer = new javax.swing.Timer(1000,
+                new TreeCopierActionListener(treeCopier, cpPogressBar,
+                        cpFilenameLabel, cpTimeLabel));
         cpTimer.setInitialDelay(0);
-        cpTimer.start();
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
                 cpFilenameLabel.setText(" ");
+                cpPogressBar.setIndeterminate(true);
                 cpPogressBar.setValue(0);
                 cpTimeLabel.setText(timeFormat.format(new Date(0)));
                 showCard(installCardPanel, "cpPanel");
             }
         });
-
-        try {
-            TimeUnit.SECONDS.sleep(1);
-        } catch (InterruptedException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
-        }
-        try {
-            PROCESS_EXECUTOR.addPropertyChangeListener(installer);
-            int exitValue
-                    = PROCESS_EXECUTOR.executeScript(true, true, copyScript);
-            PROCESS_EXECUTOR.removePropertyChangeListener(installer);
-            cpTimer.stop();
-            if (exitValue != 0) {
-                String errorMessage = "Could not copy persistence layer!";
-                LOGGER.severe(errorMessage);
-                throw new IOException(errorMessage);
-            }
-        } catch (IOException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
-        }
-    }
-
-    @Override
-    public void setInstallCopyLine(String line) {
-        cpActionListener.setCurrentLine(line);
+        cpTimer.start();
     }
 
     @Override
@@ -779,15 +974,29 @@ public class DLCopySwingGUI extends JFrame
     }
 
     @Override
-    public void installingDeviceFinished(
-            String errorMessage, int autoNumberStart) {
+    public synchronized void installingDeviceFinished(
+            StorageDevice storageDevice, String errorMessage,
+            final int autoNumberStart) {
+        // This is called from several installation threads at once.
+        // The bookkeeping is synchronized, the components are only touched
+        // on the Swing event thread.
+
         // update final report
-        deviceFinished(errorMessage);
+        deviceFinished(storageDevice, errorMessage);
+
+        if (isInstallingInParallel()) {
+            updateConcurrentInstallInfo();
+        }
 
         // update current report
-        installationResultsTableModel.setList(resultsList);
+        updateResultsTable(installationResultsTableModel);
 
-        autoNumberStartSpinner.setValue(autoNumberStart);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                autoNumberStartSpinner.setValue(autoNumberStart);
+            }
+        });
     }
 
     @Override
@@ -796,6 +1005,11 @@ public class DLCopySwingGUI extends JFrame
                 "Installation_Done_Message_From_Non_Removable_Boot_Device",
                 "Installation_Done_Message_From_Removable_Boot_Device",
                 "Installation_Report");
+        if (installSummary != null) {
+            resultsInfoLabel.setText(resultsInfoLabel.getText().replace(
+                    "</html>", "<br><br>" + installSummary + "</html>"));
+            installSummary = null;
+        }
         if (instantInstallation) {
             instantInstallationDone = true;
         }
@@ -929,6 +1143,12 @@ public class DLCopySwingGUI extends JFrame
                 upgradeCardPanel, "upgradeCopyPanel");
     }
 
+    @Override
+    public void showUpgradeLargeFileCopy(LargeFileCopier largeFileCopier) {
+        showLargeFileCopy(upgradeCardPanel, "upgradeIndeterminateProgressPanel",
+                upgradeIndeterminateProgressBar, largeFileCopier);
+    }
+
     @Override
     public void showUpgradeUnmounting() {
         showUpgradeIndeterminateProgressBarText("Unmounting_File_Systems");
@@ -954,10 +1174,10 @@ public class DLCopySwingGUI extends JFrame
     @Override
     public void upgradingDeviceFinished(String errorMessage) {
         // upgrade final report
-        deviceFinished(errorMessage);
+        deviceFinished(currentDevice, errorMessage);
 
         // update current report
-        upgradeResultsTableModel.setList(resultsList);
+        updateResultsTable(upgradeResultsTableModel);
     }
 
     @Override
@@ -1197,6 +1417,17 @@ public class DLCopySwingGUI extends JFrame
 
     }
 
+    /**
+     * returns <tt>true</tt> if the throughput of storage devices should be
+     * measured, otherwise <tt>false</tt>
+     *
+     * @return <tt>true</tt> if the throughput of storage devices should be
+     * measured, otherwise <tt>false</tt>
+     */
+    public boolean isProbingThroughput() {
+        return probeThroughput;
+    }
+
     /**
      * must be called whenever the selection count and exchange info for the
      * installer needs an update
@@ -3913,9 +4144,9 @@ public class DLCopySwingGUI extends JFrame
     }//GEN-LAST:event_toISOButtonFocusGained
 
     private void installShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_installShowHarddisksCheckBoxItemStateChanged
-        new InstallStorageDeviceListUpdater(this, installStorageDeviceList,
-                installStorageDeviceListModel,
-                installShowHarddisksCheckBox.isSelected(),
+        installShowHarddisks = installShowHarddisksCheckBox.isSelected();
+        new InstallStorageDeviceListUpdater(this,
+                installStorageDeviceListModel, installShowHarddisks,
                 runningSystemSource.getDeviceName()).execute();
     }//GEN-LAST:event_installShowHarddisksCheckBoxItemStateChanged
 
@@ -3980,14 +4211,14 @@ public class DLCopySwingGUI extends JFrame
 
     private void upgradeSelectionPanelComponentShown(java.awt.event.ComponentEvent evt) {//GEN-FIRST:event_upgradeSelectionPanelComponentShown
         new UpgradeStorageDeviceListUpdater(runningSystemSource, this,
-                upgradeStorageDeviceList, upgradeStorageDeviceListModel,
+                upgradeStorageDeviceListModel,
                 upgradeShowHarddisksCheckBox.isSelected()).execute();
     }//GEN-LAST:event_upgradeSelectionPanelComponentShown
 
 private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_upgradeShowHarddisksCheckBoxItemStateChanged
+    upgradeShowHarddisks = upgradeShowHarddisksCheckBox.isSelected();
     new UpgradeStorageDeviceListUpdater(runningSystemSource, this,
-            upgradeStorageDeviceList, upgradeStorageDeviceListModel,
-            upgradeShowHarddisksCheckBox.isSelected()).execute();
+            upgradeStorageDeviceListModel, upgradeShowHarddisks).execute();
 }//GEN-LAST:event_upgradeShowHarddisksCheckBoxItemStateChanged
 
     private void upgradeOverwriteAddButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_upgradeOverwriteAddButtonActionPerformed
@@ -4073,7 +4304,7 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
     }//GEN-LAST:event_resetStorageDeviceListValueChanged
 
     private void resetSelectionPanelComponentShown(java.awt.event.ComponentEvent evt) {//GEN-FIRST:event_resetSelectionPanelComponentShown
-        new ResetStorageDeviceListUpdater(this, resetStorageDeviceList,
+        new ResetStorageDeviceListUpdater(this,
                 resetStorageDeviceListModel,
                 resetShowHarddisksCheckBox.isSelected(),
                 runningSystemSource.getDeviceName()).execute();
@@ -4126,9 +4357,9 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
     }//GEN-LAST:event_sortDescendingButtonActionPerformed
 
     private void resetShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_resetShowHarddisksCheckBoxItemStateChanged
-        new ResetStorageDeviceListUpdater(this, resetStorageDeviceList,
-                resetStorageDeviceListModel,
-                resetShowHarddisksCheckBox.isSelected(),
+        resetShowHarddisks = resetShowHarddisksCheckBox.isSelected();
+        new ResetStorageDeviceListUpdater(this,
+                resetStorageDeviceListModel, resetShowHarddisks,
                 runningSystemSource.getDeviceName()).execute();
     }//GEN-LAST:event_resetShowHarddisksCheckBoxItemStateChanged
 
@@ -4281,6 +4512,101 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
             if (arguments[i].equals("--instantInstallation")) {
                 instantInstallation = true;
             }
+
+            // the number of storage devices to install at the same time
+            if (arguments[i].equals("--concurrentInstallations")
+                    && (i != length - 1)) {
+                try {
+                    concurrentInstallations
+                            = Integer.parseInt(arguments[i + 1]);
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
+
+            // if the system files should be read only once for all devices
+            if (arguments[i].equals("--fanOutCopy")) {
+                fanOutCopy = true;
+            }
+
+            // if the first storage device should be copied block by block to
+            // all other storage devices
+            if (arguments[i].equals("--goldenImage")) {
+                goldenImage = true;
+            }
+
+            // the number of storage devices in the partitioning, copying and
+            // boot sector stages of a pipelined installation (e.g. "2,1,2")
+            if (arguments[i].equals("--stageLimits")
+                    && (i != length - 1)) {
+                String[] limits = arguments[i + 1].split(",");
+                if (limits.length == 3) {
+                    try {
+                        int[] newStageLimits = new int[limits.length];
+                        for (int j = 0; j < limits.length; j++) {
+                            newStageLimits[j]
+                                    = Integer.parseInt(limits[j].trim());
+                        }
+                        stageLimits = newStageLimits;
+                    } catch (NumberFormatException numberFormatException) {
+                        LOGGER.log(Level.WARNING, "", numberFormatException);
+                    }
+                } else {
+                    LOGGER.log(Level.WARNING,
+                            "invalid stage limits: {0}", arguments[i + 1]);
+                }
+            }
+
+            // if the throughput of the storage devices should be measured
+            // to start the slowest ones first
+            if (arguments[i].equals("--probeThroughput")) {
+                probeThroughput = true;
+            }
+
+            // if the installed files should be read back and verified
+            if (arguments[i].equals("--verify")) {
+                verify = true;
+            }
+
+            // if unchanged system partitions of previous installations
+            // should be kept and only updated
+            if (arguments[i].equals("--deltaInstall")) {
+                deltaInstall = true;
+            }
+
+            // if the system source should be read into memory once when
+            // installing several storage media
+            if (arguments[i].equals("--mirrorSource")) {
+                mirrorSource = true;
+            }
+
+            // if the page cache should be spared when copying large files
+            // (keeps a running live system responsive)
+            if (arguments[i].equals("--cacheHints")) {
+                PageCacheHints.setEnabled(true);
+            }
+
+            // the maximum amount of dirty data (in MiB) per storage device
+            if (arguments[i].equals("--dirtyWindow")
+                    && (i != length - 1)) {
+                try {
+                    DirtyWindow.setSize(DLCopy.MEGA
+                            * Long.parseLong(arguments[i + 1]));
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
+
+            // the memory budget (in MiB) of all copy buffers
+            if (arguments[i].equals("--bufferPoolSize")
+                    && (i != length - 1)) {
+                try {
+                    BufferPool.getInstance().setBudget(DLCopy.MEGA
+                            * Long.parseLong(arguments[i + 1]));
+                } catch (NumberFormatException numberFormatException) {
+                    LOGGER.log(Level.WARNING, "", numberFormatException);
+                }
+            }
         }
     }
 
@@ -4524,6 +4850,7 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
         state = State.RESET;
 
         batchCounter = 0;
+        finishedCounter = 0;
         resultsList = new ArrayList<>();
         int[] selectedIndices = resetStorageDeviceList.getSelectedIndices();
         List<StorageDevice> deviceList = new ArrayList<>();
@@ -4634,57 +4961,6 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
         fileChooser.setFileFilter(NO_HIDDEN_FILES_FILTER);
     }
 
-    private void removeStorageDevice(String udisksLine) {
-        // the device was just removed, so we can not use getStorageDevice()
-        // here...
-        String[] tokens = udisksLine.split("/");
-        final String device = tokens[tokens.length - 1];
-        LOGGER.log(Level.INFO, "removed device: {0}", device);
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                DefaultListModel listModel;
-                switch (state) {
-                    case INSTALL_SELECTION:
-                        listModel = installStorageDeviceListModel;
-                        break;
-                    case UPGRADE_SELECTION:
-                        listModel = upgradeStorageDeviceListModel;
-                        break;
-                    case RESET_SELECTION:
-                        listModel = resetStorageDeviceListModel;
-                        break;
-                    default:
-                        LOGGER.log(Level.WARNING,
-                                "Unsupported state: {0}", state);
-                        return;
-                }
-
-                for (int i = 0, size = listModel.getSize(); i < size; i++) {
-                    StorageDevice storageDevice
-                            = (StorageDevice) listModel.get(i);
-                    if (storageDevice.getDevice().equals(device)) {
-                        listModel.remove(i);
-                        LOGGER.log(Level.INFO,
-                                "removed from storage device list: {0}",
-                                device);
-                        switch (state) {
-                            case INSTALL_SELECTION:
-                                installStorageDeviceListChanged();
-                                break;
-                            case UPGRADE_SELECTION:
-                                upgradeStorageDeviceListChanged();
-                                break;
-                            case RESET_SELECTION:
-                                resetStorageDeviceListChanged();
-                        }
-                        break; // for
-                    }
-                }
-            }
-        });
-    }
-
     private long getMaxStorageDeviceSize(ListModel listModel) {
         long maxSize = 0;
         for (int i = 0, size = listModel.getSize(); i < size; i++) {
@@ -4788,8 +5064,14 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
             isoSystemSource.unmountTmpPartitions();
         }
 
-        // stop monitoring thread
-        udisksMonitorThread.stopMonitoring();
+        // stop monitoring
+        if (udisksMonitorThread != null) {
+            udisksMonitorThread.stopMonitoring();
+        }
+        if (udisksMonitor != null) {
+            udisksMonitor.stop();
+        }
+        storageDeviceDiscovery.shutdown();
 
         // everything is done, disappear now
         System.exit(0);
@@ -4829,7 +5111,7 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
         state = State.INSTALL_SELECTION;
 
         // update storage device list
-        new InstallStorageDeviceListUpdater(this, installStorageDeviceList,
+        new InstallStorageDeviceListUpdater(this,
                 installStorageDeviceListModel,
                 installShowHarddisksCheckBox.isSelected(),
                 runningSystemSource.getDeviceName()).execute();
@@ -4978,23 +5260,76 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
 
     private void deviceStarted(StorageDevice storageDevice) {
         currentDevice = storageDevice;
-        deviceStartTime = System.currentTimeMillis();
+        deviceStartTimes.put(storageDevice, System.currentTimeMillis());
         batchCounter++;
         resultsList.add(new StorageDeviceResult(storageDevice, -1, null));
+        // the job changes the partitions of the storage device
+        PartitionUsageService.getInstance().invalidate(storageDevice);
+    }
+
+    private void deviceFinished(
+            StorageDevice storageDevice, String errorMessage) {
+        Long startTime = deviceStartTimes.remove(storageDevice);
+        long duration = System.currentTimeMillis() - startTime;
+        finishedCounter++;
+        PartitionUsageService.getInstance().invalidate(storageDevice);
+
+        // replace "in progress" entry with the current result
+        StorageDeviceResult result = new StorageDeviceResult(
+                storageDevice, duration, errorMessage);
+        int index = getResultIndex(storageDevice);
+        if (index == -1) {
+            resultsList.add(result);
+        } else {
+            resultsList.set(index, result);
+        }
+
+        // update final report
+        updateResultsTable(resultsTableModel);
     }
 
-    private void deviceFinished(String errorMessage) {
-        long duration = System.currentTimeMillis() - deviceStartTime;
+    private int getResultIndex(StorageDevice storageDevice) {
+        for (int i = resultsList.size() - 1; i >= 0; i--) {
+            if (resultsList.get(i).getStorageDevice() == storageDevice) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        // remove "in progress" entry
-        resultsList.remove(resultsList.size() - 1);
+    private void updateResultsTable(final ResultsTableModel tableModel) {
+        // the results list is modified by background threads, therefore the
+        // table model gets its own copy
+        final List<StorageDeviceResult> results = new ArrayList<>(resultsList);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                tableModel.setList(results);
+            }
+        });
+    }
 
-        // add current result
-        resultsList.add(new StorageDeviceResult(
-                currentDevice, duration, errorMessage));
+    private boolean isInstallingInParallel() {
+        return (concurrentInstallations > 1) || fanOutCopy || goldenImage
+                || (stageLimits != null);
+    }
 
-        // update final report
-        resultsTableModel.setList(resultsList);
+    private void updateConcurrentInstallInfo() {
+        final int running = batchCounter - finishedCounter;
+        final int finished = finishedCounter;
+        final String stageInfo = installStageInfo;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                String pattern = STRINGS.getString("Concurrent_Install_Info");
+                String info = MessageFormat.format(pattern, running, finished,
+                        installStorageDeviceList.getSelectedIndices().length);
+                if (stageInfo != null) {
+                    info = "<html>" + info + "<br>" + stageInfo + "</html>";
+                }
+                currentlyInstalledDeviceLabel.setText(info);
+            }
+        });
     }
 
     private void batchFinished(String nonRemovableKey,
@@ -5047,6 +5382,43 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
         });
     }
 
+    private static void showLargeFileCopy(final Container container,
+            final String cardName, final JProgressBar progressBar,
+            final LargeFileCopier largeFileCopier) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                showCard(container, cardName);
+                progressBar.setString(STRINGS.getString("Copying_Files"));
+            }
+        });
+        ProgressPoller.poll(largeFileCopier, new ProgressPoller.Listener() {
+            @Override
+            public void progressChanged(final long percentage) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setIndeterminate(false);
+                        progressBar.setValue((int) percentage);
+                        progressBar.setString(MessageFormat.format(
+                                STRINGS.getString("Copying_Files_Progress"),
+                                percentage));
+                    }
+                });
+            }
+
+            @Override
+            public void finished() {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setIndeterminate(true);
+                    }
+                });
+            }
+        });
+    }
+
     private static void setLabelTextonEDT(
             final JLabel label, final String text) {
         SwingUtilities.invokeLater(new Runnable() {
@@ -5155,6 +5527,8 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
                 & copyDataPartitionCheckBox.isSelected();
         resultsList = new ArrayList<>();
         batchCounter = 0;
+        finishedCounter = 0;
+        installStageInfo = null;
 
         new Installer(systemSource, deviceList,
                 exchangePartitionTextField.getText(),
@@ -5162,7 +5536,10 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
                 exchangePartitionSizeSlider.getValue(), copyExchange,
                 autoNumber, autoIncrement, autoNumberPatternTextField.getText(),
                 copyData, dataPartitionMode, selectedMethod,
-                personalPassword, masterPassword, initialPassword).execute();
+                personalPassword, masterPassword, initialPassword,
+                concurrentInstallations, fanOutCopy, goldenImage,
+                stageLimits, probeThroughput, verify, deltaInstall,
+                mirrorSource).execute();
         System.out.println("personalpasswordin insatlle"+personalPassword);
     }
 
@@ -5278,6 +5655,7 @@ private void upgradeShowHarddisksCheckBoxItemStateChanged(java.awt.event.ItemEve
         showCard(cardPanel, "upgradeTabbedPane");
         resultsList = new ArrayList<>();
         batchCounter = 0;
+        finishedCounter = 0;
         boolean removeBackup = automaticBackupCheckBox.isSelected()
                 && automaticBackupRemoveCheckBox.isSelected();
         List<StorageDevice> deviceList = new ArrayList<>();
@@ -1,8 +1,7 @@
 package ch.fhnw.dlcopy.gui.swing;
 
+import ch.fhnw.dlcopy.ThroughputProbe;
 import ch.fhnw.util.StorageDevice;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 
 /**
  * parses udisks output paths and adds the corresponding storage devices to the
@@ -20,20 +19,21 @@ public class InstallStorageDeviceAdder extends StorageDeviceAdder {
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
      * @param listModel the ListModel of the storage devices JList
-     * @param list the storage devices JList
      * @param swingGUI the DLCopySwingGUI
      */
     public InstallStorageDeviceAdder(String addedPath, boolean showHarddisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
-            DefaultListModel<StorageDevice> listModel, JList list,
-            DLCopySwingGUI swingGUI) {
-        super(addedPath, showHarddisks, dialogHandler,
-                listModel, list, swingGUI);
+            SortedListModel<StorageDevice> listModel, DLCopySwingGUI swingGUI) {
+        super(addedPath, showHarddisks, dialogHandler, listModel, swingGUI);
     }
 
     @Override
     public void initDevice() {
-        // we don't need to do here anything...
+        // the renderer shows the read rate as soon as it is measured (the
+        // write rate is only measured after the installation was confirmed)
+        if (swingGUI.isProbingThroughput()) {
+            ThroughputProbe.probeInBackground(addedDevice);
+        }
     }
 
     @Override
@@ -1,8 +1,7 @@
 package ch.fhnw.dlcopy.gui.swing;
 
+import ch.fhnw.dlcopy.ThroughputProbe;
 import ch.fhnw.util.StorageDevice;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 
 /**
  * updates the list of available storage devices for the installer
@@ -15,20 +14,25 @@ public class InstallStorageDeviceListUpdater extends StorageDeviceListUpdater {
      * creates a new InstallStorageDeviceListUpdater
      *
      * @param swingGUI the DLCopy Swing GUI
-     * @param list the list to fill
      * @param listModel the list model
      * @param showHardDisks if true, hard disks are added, otherwise ignored
      * @param bootDeviceName the name of the boot device
      */
     public InstallStorageDeviceListUpdater(DLCopySwingGUI swingGUI,
-            JList list, DefaultListModel<StorageDevice> listModel,
+            SortedListModel<StorageDevice> listModel,
             boolean showHardDisks, String bootDeviceName) {
-        super(swingGUI, list, listModel, showHardDisks, false, bootDeviceName);
+        super(swingGUI, listModel, showHardDisks, false, bootDeviceName);
     }
 
     @Override
     public void initDevices() {
-        // we don't need to do here anything...
+        // the renderer shows the read rate as soon as it is measured (the
+        // write rate is only measured after the installation was confirmed)
+        if (swingGUI.isProbingThroughput()) {
+            for (StorageDevice storageDevice : storageDevices) {
+                ThroughputProbe.probeInBackground(storageDevice);
+            }
+        }
     }
 
     @Override
@@ -8,11 +8,13 @@ package ch.fhnw.dlcopy.gui.swing;
 import ch.fhnw.dlcopy.DLCopy;
 import static ch.fhnw.dlcopy.DLCopy.MEGA;
 import ch.fhnw.dlcopy.PartitionState;
+import ch.fhnw.dlcopy.ThroughputProbe;
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
 import ch.fhnw.util.LernstickFileTools;
 import ch.fhnw.util.StorageDevice;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
+import java.text.MessageFormat;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
@@ -113,6 +115,23 @@ public class InstallStorageDeviceRenderer extends JPanel
         stringBuilder.append(" (/dev/");
         stringBuilder.append(storageDevice.getDevice());
         stringBuilder.append(")");
+        ThroughputProbe.Throughput throughput
+                = ThroughputProbe.getThroughput(storageDevice);
+        if (throughput != null) {
+            stringBuilder.append(", ");
+            String readRate = LernstickFileTools.getDataVolumeString(
+                    throughput.getReadRate(), 1);
+            // the background probe only measures the read rate
+            if (throughput.getWriteRate() == 0) {
+                stringBuilder.append(MessageFormat.format(
+                        STRINGS.getString("Throughput_Info_Read"), readRate));
+            } else {
+                stringBuilder.append(MessageFormat.format(
+                        STRINGS.getString("Throughput_Info"), readRate,
+                        LernstickFileTools.getDataVolumeString(
+                                throughput.getWriteRate(), 1)));
+            }
+        }
         String deviceText = stringBuilder.toString();
 
         StorageDevice.Type deviceType = storageDevice.getType();
@@ -5,8 +5,6 @@ import ch.fhnw.util.StorageDevice;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 
 /**
  * parses udisks output paths and adds the corresponding storage devices to the
@@ -27,21 +25,22 @@ public class ResetStorageDeviceAdder extends StorageDeviceAdder {
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
      * @param listModel the ListModel of the storage devices JList
-     * @param list the storage devices JList
      * @param swingGUI the DLCopySwingGUI
      */
     public ResetStorageDeviceAdder(String addedPath, boolean showHarddisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
-            DefaultListModel<StorageDevice> listModel, JList list,
-            DLCopySwingGUI swingGUI) {
-        super(addedPath, showHarddisks, dialogHandler,
-                listModel, list, swingGUI);
+            SortedListModel<StorageDevice> listModel, DLCopySwingGUI swingGUI) {
+        super(addedPath, showHarddisks, dialogHandler, listModel, swingGUI);
     }
 
     @Override
     public void initDevice() {
         try {
-            TimeUnit.SECONDS.sleep(7);
+            if (!swingGUI.isReportingCompleteStorageDevices()) {
+                // the udisks monitor reports storage devices before their
+                // partitions
+                TimeUnit.SECONDS.sleep(7);
+            }
             for (Partition partition : addedDevice.getPartitions()) {
                 try {
                     partition.getUsedSpace(false);
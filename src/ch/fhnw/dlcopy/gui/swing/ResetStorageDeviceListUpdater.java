@@ -2,8 +2,6 @@ package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 
 /**
  * updates the list of available storage devices for the Resetter
@@ -16,15 +14,14 @@ public class ResetStorageDeviceListUpdater extends StorageDeviceListUpdater {
      * creates a new ResetStorageDeviceListUpdater
      *
      * @param swingGUI the DLCopy Swing GUI
-     * @param list the list to fill
      * @param listModel the list model
      * @param showHardDisks if true, hard disks are added, otherwise ignored
      * @param bootDeviceName the name of the boot device
      */
     public ResetStorageDeviceListUpdater(DLCopySwingGUI swingGUI,
-            JList list, DefaultListModel<StorageDevice> listModel,
+            SortedListModel<StorageDevice> listModel,
             boolean showHardDisks, String bootDeviceName) {
-        super(swingGUI, list, listModel, showHardDisks, true, bootDeviceName);
+        super(swingGUI, listModel, showHardDisks, true, bootDeviceName);
     }
 
     @Override
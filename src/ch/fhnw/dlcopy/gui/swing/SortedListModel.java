@@ -0,0 +1,128 @@
+package ch.fhnw.dlcopy.gui.swing;
+
+import java.util.List;
+import javax.swing.DefaultListModel;
+
+/**
+ * A list model that keeps its elements sorted. Elements are inserted, removed
+ * and replaced one by one at their sorted position (found by binary search),
+ * so that only minimal interval events are fired. Because JList adjusts its
+ * selection to these interval events, selected elements stay selected while
+ * the list is updated.
+ * <p>
+ * Finding the position takes O(log n) comparisons, but inserting and removing
+ * an element still shifts the elements behind it in the Vector of the
+ * DefaultListModel, which is O(n). This is negligible for the few dozen
+ * storage devices of a list. The minimal events are what matters, because
+ * they avoid rebuilding the whole JList.
+ * <p>
+ * The elements must only be added with {@link #addSorted(Comparable)} or
+ * {@link #setElements(List)}, otherwise the model is no longer sorted.
+ *
+ * @param <E> the type of the elements
+ */
+public class SortedListModel<E extends Comparable<? super E>>
+        extends DefaultListModel<E> {
+
+    /**
+     * adds an element at its sorted position
+     *
+     * @param element the element to add
+     * @return <tt>true</tt> if the element was added, <tt>false</tt> if an
+     * equal element is already in the list
+     */
+    public boolean addSorted(E element) {
+        int index = binarySearch(element);
+        if (index >= 0) {
+            return false;
+        }
+        insertElementAt(element, -index - 1);
+        return true;
+    }
+
+    /**
+     * replaces the equal element in the list with the given element (e.g. to
+     * show updated information about the element)
+     *
+     * @param element the new element
+     * @return <tt>true</tt> if the element was replaced, <tt>false</tt> if
+     * there is no equal element in the list
+     */
+    public boolean update(E element) {
+        int index = binarySearch(element);
+        if (index < 0) {
+            return false;
+        }
+        set(index, element);
+        return true;
+    }
+
+    /**
+     * removes an element
+     *
+     * @param element the element to remove
+     * @return <tt>true</tt> if the element was removed, <tt>false</tt> if
+     * the element is not in the list
+     */
+    public boolean removeSorted(E element) {
+        int index = binarySearch(element);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * changes the list to contain exactly the given elements, only the
+     * differences to the current elements are applied
+     *
+     * @param elements the new elements, must be sorted
+     */
+    public void setElements(List<E> elements) {
+        // merge the two sorted lists
+        int index = 0;
+        for (E element : elements) {
+            while ((index < getSize())
+                    && (get(index).compareTo(element) < 0)) {
+                remove(index);
+            }
+            if ((index < getSize())
+                    && (get(index).compareTo(element) == 0)) {
+                if (get(index) != element) {
+                    set(index, element);
+                }
+            } else {
+                insertElementAt(element, index);
+            }
+            index++;
+        }
+        if (index < getSize()) {
+            removeRange(index, getSize() - 1);
+        }
+    }
+
+    /**
+     * searches an element with binary search
+     *
+     * @param element the element to search for
+     * @return the index of the element, if it is contained in the list,
+     * otherwise (-(insertion point) - 1)
+     */
+    public int binarySearch(E element) {
+        int low = 0;
+        int high = getSize() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = get(middle).compareTo(element);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
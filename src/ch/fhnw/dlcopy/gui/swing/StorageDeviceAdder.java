@@ -2,20 +2,15 @@ package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
 import ch.fhnw.util.StorageDevice;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
-import javax.swing.SwingWorker;
+import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
  * parses udisks output paths and adds the corresponding storage devices to the
- * installation list
+ * installation list (used by the StorageDeviceDiscovery)
  *
  * @author Ronny Standtke <ronny.standtke@gmx.net>
  */
-public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
+public abstract class StorageDeviceAdder {
 
     /**
      * the DLCopySwingGUI
@@ -30,8 +25,7 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
     private final String addedPath;
     private final boolean showHarddisks;
     private final StorageDeviceListUpdateDialogHandler dialogHandler;
-    private final DefaultListModel<StorageDevice> listModel;
-    private final JList list;
+    private final SortedListModel<StorageDevice> listModel;
 
     /**
      * creates a new InstallStorageDeviceAdder
@@ -41,47 +35,47 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
      * @param listModel the ListModel of the storage devices JList
-     * @param list the storage devices JList
      * @param swingGUI the DLCopySwingGUI
      */
     public StorageDeviceAdder(String addedPath, boolean showHarddisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
-            DefaultListModel<StorageDevice> listModel, JList list,
-            DLCopySwingGUI swingGUI) {
+            SortedListModel<StorageDevice> listModel, DLCopySwingGUI swingGUI) {
         this.addedPath = addedPath;
         this.showHarddisks = showHarddisks;
         this.dialogHandler = dialogHandler;
         this.listModel = listModel;
-        this.list = list;
         this.swingGUI = swingGUI;
         dialogHandler.addPath(addedPath);
     }
 
-    @Override
-    protected Void doInBackground() throws Exception {
-        addedDevice = DLCopy.getStorageDeviceAfterTimeout(
-                addedPath, showHarddisks);
+    /**
+     * reads the added storage device (must be called in a background thread)
+     *
+     * @throws DBusException if a dbus exception occurs
+     */
+    public void readDevice() throws DBusException {
+        // storage devices reported via the UDisks signals are complete,
+        // there is no need to wait
+        addedDevice = swingGUI.isReportingCompleteStorageDevices()
+                ? DLCopy.getStorageDevice(addedPath, showHarddisks)
+                : DLCopy.getStorageDeviceAfterTimeout(addedPath, showHarddisks);
         if (addedDevice != null) {
             initDevice();
         }
-        return null;
     }
 
-    @Override
-    protected void done() {
+    /**
+     * adds the storage device to the list or updates it, if it is already in
+     * the list (e.g. when one of its partitions changed), must be called on
+     * the Swing event thread after {@link #readDevice()}
+     *
+     * @return <tt>true</tt> if the storage device was added or updated,
+     * <tt>false</tt> if it is no storage device for the list
+     */
+    public boolean addDeviceToList() {
         dialogHandler.removePath(addedPath);
-
-        if (addedDevice == null) {
-            return;
-        }
-        synchronized (listModel) {
-            // do nothing, if device was added in the meantime
-            // e.g. via a StorageDeviceListUpdater
-            if (!listModel.contains(addedDevice)) {
-                addDeviceToList();
-                processAddedDevice();
-            }
-        }
+        return (addedDevice != null) && (listModel.addSorted(addedDevice)
+                || listModel.update(addedDevice));
     }
 
     /**
@@ -91,31 +85,7 @@ public abstract class StorageDeviceAdder extends SwingWorker<Void, Void> {
     public abstract void initDevice();
 
     /**
-     * do all the necessary things after a device has been added to the list
+     * do all the necessary things after devices have been added to the list
      */
     public abstract void processAddedDevice();
-
-    private void addDeviceToList() {
-        // put new device into a "sorted" position
-        List<StorageDevice> deviceList = new ArrayList<>();
-        Object[] entries = listModel.toArray();
-        for (Object entry : entries) {
-            deviceList.add((StorageDevice) entry);
-        }
-        deviceList.add(addedDevice);
-        Collections.sort(deviceList);
-        List selectedValues = list.getSelectedValuesList();
-        listModel.clear();
-        for (StorageDevice device : deviceList) {
-            listModel.addElement(device);
-        }
-
-        // try to restore the previous selection
-        for (Object selectedValue : selectedValues) {
-            int index = deviceList.indexOf(selectedValue);
-            if (index != -1) {
-                list.addSelectionInterval(index, index);
-            }
-        }
-    }
 }
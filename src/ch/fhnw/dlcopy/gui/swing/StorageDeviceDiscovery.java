@@ -0,0 +1,198 @@
+package ch.fhnw.dlcopy.gui.swing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Collects the hotplug events of storage devices and processes them in
+ * batches. The events are coalesced per storage device (only the latest event
+ * of a storage device counts) and a batch is processed only when no new
+ * events arrived for a short time, so that plugging in a hub with many
+ * storage devices results in a single batch. The storage devices are read on
+ * a dedicated bounded executor (and not on the SwingWorker threads that are
+ * needed for installations and other long running tasks) and all results of
+ * a batch are applied to the storage device list in a single update on the
+ * Swing event thread.
+ */
+public class StorageDeviceDiscovery {
+
+    private static final Logger LOGGER
+            = Logger.getLogger(StorageDeviceDiscovery.class.getName());
+    // the time in milliseconds without new events before a batch is processed
+    private static final long QUIET_PERIOD = 500;
+    // the maximum time in milliseconds an event waits for its batch
+    private static final long MAX_DELAY = 3000;
+    private static final int READER_THREADS = 4;
+
+    private final DLCopySwingGUI swingGUI;
+    private final ScheduledExecutorService scheduler
+            = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService readers
+            = Executors.newFixedThreadPool(READER_THREADS);
+    // the pending events, true for added and false for removed devices
+    private final Map<String, Boolean> pendingEvents = new LinkedHashMap<>();
+    // the drive paths of all added partitions
+    private final Map<String, String> partitionDrivePaths = new HashMap<>();
+    private ScheduledFuture<?> batchFuture;
+    private long firstEventTime;
+
+    /**
+     * creates a new StorageDeviceDiscovery
+     *
+     * @param swingGUI the DLCopySwingGUI
+     */
+    public StorageDeviceDiscovery(DLCopySwingGUI swingGUI) {
+        this.swingGUI = swingGUI;
+    }
+
+    /**
+     * called when a storage device or partition was added
+     *
+     * @param path the added udisks path
+     */
+    public synchronized void deviceAdded(String path) {
+        // partitions are coalesced with their storage device
+        String drivePath = getDrivePath(path);
+        if (!drivePath.equals(path)) {
+            partitionDrivePaths.put(path, drivePath);
+        }
+        addEvent(drivePath, true);
+    }
+
+    /**
+     * called when a storage device or partition was removed
+     *
+     * @param path the removed udisks path
+     */
+    public synchronized void deviceRemoved(String path) {
+        // The device is already gone in sysfs, so partitions are mapped to
+        // their storage device with the drive path remembered when they were
+        // added. The storage device of a removed partition may still be
+        // there (e.g. when it is repartitioned), so it is read again unless
+        // it is removed as well.
+        String drivePath = partitionDrivePaths.remove(path);
+        if (drivePath == null) {
+            partitionDrivePaths.values().removeAll(
+                    Collections.singleton(path));
+            addEvent(path, false);
+        } else if (!Boolean.FALSE.equals(pendingEvents.get(drivePath))) {
+            addEvent(drivePath, true);
+        }
+    }
+
+    /**
+     * stops processing events
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        readers.shutdownNow();
+    }
+
+    private void addEvent(String path, boolean added) {
+        // the latest event of a storage device wins
+        pendingEvents.remove(path);
+        pendingEvents.put(path, added);
+
+        long now = System.currentTimeMillis();
+        if (batchFuture == null) {
+            firstEventTime = now;
+        } else {
+            batchFuture.cancel(false);
+        }
+        long delay = Math.min(QUIET_PERIOD, firstEventTime + MAX_DELAY - now);
+        batchFuture = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                processBatch();
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void processBatch() {
+        Map<String, Boolean> events;
+        synchronized (this) {
+            if (pendingEvents.isEmpty()) {
+                return;
+            }
+            events = new LinkedHashMap<>(pendingEvents);
+            pendingEvents.clear();
+            batchFuture = null;
+        }
+        LOGGER.log(Level.INFO, "processing {0} storage device events",
+                events.size());
+
+        final List<String> removedPaths = new ArrayList<>();
+        final List<StorageDeviceAdder> adders = new ArrayList<>();
+        List<Callable<Void>> readJobs = new ArrayList<>();
+        for (Map.Entry<String, Boolean> event : events.entrySet()) {
+            String path = event.getKey();
+            if (!event.getValue()) {
+                removedPaths.add(path);
+                continue;
+            }
+            final StorageDeviceAdder adder
+                    = swingGUI.createStorageDeviceAdder(path);
+            if (adder == null) {
+                continue;
+            }
+            adders.add(adder);
+            readJobs.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        adder.readDevice();
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.SEVERE, "", ex);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            readers.invokeAll(readJobs);
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.INFO, "storage device discovery stopped", ex);
+            return;
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                swingGUI.storageDevicesChanged(removedPaths, adders);
+            }
+        });
+    }
+
+    private static String getDrivePath(String path) {
+        // partitions are subdirectories of their storage device in sysfs
+        int index = path.lastIndexOf('/');
+        String name = path.substring(index + 1);
+        File sysfsFile = new File("/sys/class/block/" + name);
+        if (!new File(sysfsFile, "partition").exists()) {
+            return path;
+        }
+        try {
+            return path.substring(0, index + 1)
+                    + sysfsFile.getCanonicalFile().getParentFile().getName();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "", ex);
+            return path;
+        }
+    }
+}
@@ -8,8 +8,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 import javax.swing.SwingWorker;
 import org.freedesktop.dbus.exceptions.DBusException;
 
@@ -33,31 +31,27 @@ public abstract class StorageDeviceListUpdater extends SwingWorker<Void, Void> {
     private static final Logger LOGGER
             = Logger.getLogger(StorageDeviceListUpdater.class.getName());
 
-    private final JList list;
-    private final DefaultListModel<StorageDevice> listModel;
+    private final SortedListModel<StorageDevice> listModel;
     private final boolean showHardDisks;
     private final boolean showBootDevice;
     private final String bootDeviceName;
     private final ModalDialogHandler dialogHandler;
-    private final List selectedValues;
 
     /**
      * creates a new InstallStorageDeviceListUpdater
      *
      * @param swingGUI the DLCopy Swing GUI
-     * @param list the list to fill
      * @param listModel the list model
      * @param showHardDisks if true, hard disks are added, otherwise ignored
      * @param showBootDevice if the boot device should be included in the list
      * @param bootDeviceName the name of the boot device
      */
     public StorageDeviceListUpdater(DLCopySwingGUI swingGUI,
-            JList list, DefaultListModel<StorageDevice> listModel,
+            SortedListModel<StorageDevice> listModel,
             boolean showHardDisks, boolean showBootDevice,
             String bootDeviceName) {
 
         this.swingGUI = swingGUI;
-        this.list = list;
         this.listModel = listModel;
         this.showHardDisks = showHardDisks;
         this.showBootDevice = showBootDevice;
@@ -67,26 +61,20 @@ public abstract class StorageDeviceListUpdater extends SwingWorker<Void, Void> {
                 = new StorageDeviceListUpdateDialog(swingGUI);
         dialogHandler = new ModalDialogHandler(dialog);
         dialogHandler.show();
-
-        // remember selected values so that we can restore the selection
-        selectedValues = list.getSelectedValuesList();
     }
 
     @Override
     protected Void doInBackground() throws Exception {
-        synchronized (listModel) {
-            listModel.clear();
-            try {
-                storageDevices = DLCopy.getStorageDevices(
-                        showHardDisks, showBootDevice, bootDeviceName);
-                Collections.sort(storageDevices);
-                initDevices();
-            } catch (IOException | DBusException ex) {
-                LOGGER.log(Level.SEVERE, "", ex);
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "", ex);
-                throw ex;
-            }
+        try {
+            storageDevices = DLCopy.getStorageDevices(
+                    showHardDisks, showBootDevice, bootDeviceName);
+            Collections.sort(storageDevices);
+            initDevices();
+        } catch (IOException | DBusException ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "", ex);
+            throw ex;
         }
         return null;
     }
@@ -94,16 +82,9 @@ public abstract class StorageDeviceListUpdater extends SwingWorker<Void, Void> {
     @Override
     protected void done() {
         // manipulate list model on Swing Event Thread
-        for (StorageDevice device : storageDevices) {
-            listModel.addElement(device);
-        }
-
-        // try to restore the previous selection
-        for (Object selectedValue : selectedValues) {
-            int index = storageDevices.indexOf(selectedValue);
-            if (index != -1) {
-                list.addSelectionInterval(index, index);
-            }
+        // (only the differences, so that the selection is kept)
+        if (storageDevices != null) {
+            listModel.setElements(storageDevices);
         }
         updateGUI();
         dialogHandler.hide();
@@ -0,0 +1,77 @@
+package ch.fhnw.dlcopy.gui.swing;
+
+import static ch.fhnw.dlcopy.DLCopy.STRINGS;
+import ch.fhnw.dlcopy.TreeCopier;
+import ch.fhnw.util.LernstickFileTools;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+
+/**
+ * Updates a progress bar and a text label with the progress of a TreeCopier
+ * and a text label with the elapsed time. The timer that calls this listener
+ * is stopped when the TreeCopier is finished.
+ */
+public class TreeCopierActionListener implements ActionListener {
+
+    private final TreeCopier treeCopier;
+    private final JProgressBar progressBar;
+    private final JLabel progressLabel;
+    private final JLabel elapsedTimeLabel;
+    private final long start;
+    private final DateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+
+    /**
+     * creates a new TreeCopierActionListener
+     *
+     * @param treeCopier the TreeCopier to monitor
+     * @param progressBar the progress bar
+     * @param progressLabel the label for the number of copied files and bytes
+     * @param elapsedTimeLabel the label for the elapsed time
+     */
+    public TreeCopierActionListener(TreeCopier treeCopier,
+            JProgressBar progressBar, JLabel progressLabel,
+            JLabel elapsedTimeLabel) {
+        this.treeCopier = treeCopier;
+        this.progressBar = progressBar;
+        this.progressLabel = progressLabel;
+        this.elapsedTimeLabel = elapsedTimeLabel;
+        start = System.currentTimeMillis();
+        timeFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        // update progress
+        long byteCount = treeCopier.getByteCount();
+        long copiedBytes = treeCopier.getCopiedBytes();
+        if (byteCount > 0) {
+            progressBar.setIndeterminate(false);
+            progressBar.setValue((int) ((100 * copiedBytes) / byteCount));
+        }
+        long fileCount = treeCopier.getFileCount();
+        if (fileCount > 0) {
+            progressLabel.setText(MessageFormat.format(
+                    STRINGS.getString("Copied_Files_Info"),
+                    treeCopier.getCopiedFiles(), fileCount,
+                    LernstickFileTools.getDataVolumeString(copiedBytes, 1),
+                    LernstickFileTools.getDataVolumeString(byteCount, 1)));
+        }
+
+        // update time
+        long time = System.currentTimeMillis() - start;
+        String timeString = timeFormat.format(new Date(time));
+        elapsedTimeLabel.setText(timeString);
+
+        if (treeCopier.isFinished()) {
+            ((Timer) e.getSource()).stop();
+        }
+    }
+}
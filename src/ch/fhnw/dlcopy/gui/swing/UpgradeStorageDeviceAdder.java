@@ -1,15 +1,13 @@
 package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.PartitionUsageService;
 import ch.fhnw.dlcopy.SystemSource;
-import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
@@ -33,35 +31,31 @@ public class UpgradeStorageDeviceAdder extends StorageDeviceAdder {
      * otherwise ignored
      * @param dialogHandler the dialog handler for updating storage device lists
      * @param listModel the ListModel of the storage devices JList
-     * @param list the storage devices JList
      * @param swingGUI the DLCopySwingGUI
      */
     public UpgradeStorageDeviceAdder(SystemSource source,
             String addedPath, boolean showHarddisks,
             StorageDeviceListUpdateDialogHandler dialogHandler,
-            DefaultListModel<StorageDevice> listModel, JList list,
-            DLCopySwingGUI swingGUI) {
-        super(addedPath, showHarddisks, dialogHandler,
-                listModel, list, swingGUI);
+            SortedListModel<StorageDevice> listModel, DLCopySwingGUI swingGUI) {
+        super(addedPath, showHarddisks, dialogHandler, listModel, swingGUI);
         this.source = source;
     }
 
     @Override
     public void initDevice() {
         try {
-            TimeUnit.SECONDS.sleep(7);
+            if (!swingGUI.isReportingCompleteStorageDevices()) {
+                // the udisks monitor reports storage devices before their
+                // partitions
+                TimeUnit.SECONDS.sleep(7);
+            }
             addedDevice.getUpgradeVariant(
                     DLCopy.getEnlargedSystemSize(source.getSystemSize()));
-            for (Partition partition : addedDevice.getPartitions()) {
-                try {
-                    if (partition.isPersistencePartition()) {
-                        partition.getUsedSpace(true);
-                    } else {
-                        partition.getUsedSpace(false);
-                    }
-                } catch (Exception ignored) {
-                }
-            }
+            // the storage device may have been changed somewhere else
+            PartitionUsageService partitionUsageService
+                    = PartitionUsageService.getInstance();
+            partitionUsageService.invalidate(addedDevice);
+            partitionUsageService.prefetch(addedDevice);
         } catch (DBusException | IOException | InterruptedException ex) {
             LOGGER.log(Level.SEVERE, "", ex);
         }
@@ -1,14 +1,12 @@
 package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.PartitionUsageService;
 import ch.fhnw.dlcopy.SystemSource;
-import ch.fhnw.util.Partition;
 import ch.fhnw.util.StorageDevice;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.DefaultListModel;
-import javax.swing.JList;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 /**
@@ -27,14 +25,13 @@ public class UpgradeStorageDeviceListUpdater extends StorageDeviceListUpdater {
      *
      * @param source the source for upgrades
      * @param swingGUI the DLCopy Swing GUI
-     * @param list the list to fill
      * @param listModel the list model
      * @param showHardDisks if true, hard disks are added, otherwise ignored
      */
     public UpgradeStorageDeviceListUpdater(SystemSource source,
-            DLCopySwingGUI swingGUI, JList list,
-            DefaultListModel<StorageDevice> listModel, boolean showHardDisks) {
-        super(swingGUI, list, listModel, showHardDisks,
+            DLCopySwingGUI swingGUI, SortedListModel<StorageDevice> listModel,
+            boolean showHardDisks) {
+        super(swingGUI, listModel, showHardDisks,
                 false, source.getDeviceName());
         this.source = source;
     }
@@ -45,16 +42,8 @@ public class UpgradeStorageDeviceListUpdater extends StorageDeviceListUpdater {
             try {
                 device.getUpgradeVariant(
                         DLCopy.getEnlargedSystemSize(source.getSystemSize()));
-                for (Partition partition : device.getPartitions()) {
-                    try {
-                        if (partition.isPersistencePartition()) {
-                            partition.getUsedSpace(true);
-                        } else {
-                            partition.getUsedSpace(false);
-                        }
-                    } catch (Exception ignored) {
-                    }
-                }
+                // the renderer shows the used space as soon as it is known
+                PartitionUsageService.getInstance().prefetch(device);
             } catch (DBusException | IOException ex) {
                 LOGGER.log(Level.WARNING, "", ex);
             } catch (Exception ex) {
@@ -6,6 +6,7 @@
 package ch.fhnw.dlcopy.gui.swing;
 
 import ch.fhnw.dlcopy.DLCopy;
+import ch.fhnw.dlcopy.PartitionUsageService;
 import static ch.fhnw.dlcopy.DLCopy.STRINGS;
 import ch.fhnw.dlcopy.SystemSource;
 import ch.fhnw.util.LernstickFileTools;
@@ -18,7 +19,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
 import org.freedesktop.dbus.exceptions.DBusException;
-import org.freedesktop.dbus.exceptions.DBusExecutionException;
 
 /**
  * A renderer for storage devices
@@ -158,22 +158,19 @@ public class UpgradeStorageDeviceRenderer extends JPanel
                     stringBuilder.append("<br>");
                     stringBuilder.append(STRINGS.getString("Used"));
                     stringBuilder.append(": ");
-                    try {
-                        long usedSpace;
-                        if (partition.isPersistencePartition()) {
-                            usedSpace = partition.getUsedSpace(true);
-                        } else {
-                            usedSpace = partition.getUsedSpace(false);
-                        }
-                        if (usedSpace == -1) {
-                            stringBuilder.append(STRINGS.getString("Unknown"));
-                        } else {
-                            stringBuilder.append(
-                                    LernstickFileTools.getDataVolumeString(
-                                            usedSpace, 1));
-                        }
-                    } catch (DBusExecutionException ex) {
-                        LOGGER.log(Level.SEVERE, "", ex);
+                    // determining the used space may mount the partition,
+                    // therefore it is done in the background
+                    long usedSpace = PartitionUsageService.getInstance()
+                            .getUsedSpace(storageDevice, partition);
+                    if (usedSpace == PartitionUsageService.PENDING) {
+                        stringBuilder.append(
+                                STRINGS.getString("In_Progress"));
+                    } else if (usedSpace == -1) {
+                        stringBuilder.append(STRINGS.getString("Unknown"));
+                    } else {
+                        stringBuilder.append(
+                                LernstickFileTools.getDataVolumeString(
+                                        usedSpace, 1));
                     }
                 }
                 stringBuilder.append("</html>");
@@ -318,23 +315,15 @@ public class UpgradeStorageDeviceRenderer extends JPanel
 
             // paint partition storage space usage (if known)
             if (!extended) {
-                try {
-                    long usedSpace;
-                    if (partition.isPersistencePartition()) {
-                        usedSpace = partition.getUsedSpace(true);
-                    } else {
-                        usedSpace = partition.getUsedSpace(false);
-                    }
-                    if (usedSpace != -1) {
-                        int usedWidth = (int) ((width * usedSpace)
-                                / maxStorageDeviceSize);
-                        graphics2D.setPaint(Color.LIGHT_GRAY);
-                        int usageOffset = 4;
-                        graphics2D.fillRect(x, y + usageOffset, usedWidth,
-                                partitionHeight - (2 * usageOffset) + 1);
-                    }
-                } catch (DBusExecutionException ex) {
-                    LOGGER.log(Level.SEVERE, "", ex);
+                long usedSpace = PartitionUsageService.getInstance()
+                        .getUsedSpace(storageDevice, partition);
+                if (usedSpace >= 0) {
+                    int usedWidth = (int) ((width * usedSpace)
+                            / maxStorageDeviceSize);
+                    graphics2D.setPaint(Color.LIGHT_GRAY);
+                    int usageOffset = 4;
+                    graphics2D.fillRect(x, y + usageOffset, usedWidth,
+                            partitionHeight - (2 * usageOffset) + 1);
                 }
             }
 
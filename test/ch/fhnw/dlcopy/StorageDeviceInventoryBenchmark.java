@@ -0,0 +1,126 @@
+package ch.fhnw.dlcopy;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt64;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * Measures how long the StorageDeviceInventory needs to parse the result of
+ * GetManagedObjects and to list the drives. The results are faked for 1, 20
+ * and 100 storage devices with two partitions each, so that no UDisks (and
+ * no storage devices) are needed. Only the parsing and listing is measured,
+ * neither the D-Bus call to UDisks nor the listing before the inventory
+ * (reading every storage device via single property calls).
+ * <p>
+ * The benchmark is part of the test sources and is not shipped. Usage (with
+ * the compiled sources and test sources on the class path):
+ * <tt>java ch.fhnw.dlcopy.StorageDeviceInventoryBenchmark [iterations]</tt>
+ */
+public class StorageDeviceInventoryBenchmark {
+
+    private static final String UDISKS_PATH = "/org/freedesktop/UDisks2/";
+    private static final String PREFIX = "org.freedesktop.UDisks2.";
+    private static final int[] DEVICE_COUNTS = {1, 20, 100};
+    private static final int PARTITION_COUNT = 2;
+    private static final long DEVICE_SIZE = 16L * 1024 * DLCopy.MEGA;
+
+    /**
+     * runs the benchmark
+     *
+     * @param args the number of measured iterations per device count
+     * (optional, default is 10000)
+     */
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        for (int deviceCount : DEVICE_COUNTS) {
+            Map<Path, Map<String, Map<String, Variant>>> managedObjects
+                    = createManagedObjects(deviceCount);
+            StorageDeviceInventory inventory = new StorageDeviceInventory();
+
+            // warm up the JIT compiler
+            for (int i = 0; i < iterations; i++) {
+                inventory.readManagedObjects(managedObjects);
+                inventory.getDrivePaths();
+            }
+
+            long parseTime = 0;
+            long listTime = 0;
+            int drives = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                inventory.readManagedObjects(managedObjects);
+                long parsed = System.nanoTime();
+                drives = inventory.getDrivePaths().size();
+                parseTime += parsed - start;
+                listTime += System.nanoTime() - parsed;
+            }
+            System.out.printf("%3d storage devices (%d objects, %d drives): "
+                    + "parsing %.1f us, listing drives %.1f us%n",
+                    deviceCount, managedObjects.size(), drives,
+                    parseTime / 1000.0 / iterations,
+                    listTime / 1000.0 / iterations);
+        }
+    }
+
+    private static Map<Path, Map<String, Map<String, Variant>>>
+            createManagedObjects(int deviceCount) {
+        // the real result also contains the drives, jobs and the manager
+        Map<Path, Map<String, Map<String, Variant>>> managedObjects
+                = new HashMap<>();
+        managedObjects.put(new Path(UDISKS_PATH + "Manager"),
+                createInterface("Manager", "Version", "2.1.8"));
+        for (int i = 0; i < deviceCount; i++) {
+            String name = "fake" + i;
+            String drivePath = UDISKS_PATH + "drives/" + name;
+            managedObjects.put(new Path(drivePath),
+                    createInterface("Drive", "Removable", true));
+
+            Map<String, Map<String, Variant>> device
+                    = createBlock(name, DEVICE_SIZE, drivePath);
+            device.putAll(createInterface("PartitionTable", "Type", "dos"));
+            managedObjects.put(
+                    new Path(UDISKS_PATH + "block_devices/" + name), device);
+
+            long partitionSize = DEVICE_SIZE / PARTITION_COUNT;
+            for (int j = 1; j <= PARTITION_COUNT; j++) {
+                Map<String, Map<String, Variant>> partition = createBlock(
+                        name + j, partitionSize, drivePath);
+                partition.putAll(createInterface(
+                        "Partition", "Number", new UInt64(j)));
+                partition.putAll(createInterface(
+                        "Filesystem", "Size", new UInt64(partitionSize)));
+                managedObjects.put(new Path(
+                        UDISKS_PATH + "block_devices/" + name + j),
+                        partition);
+            }
+        }
+        return managedObjects;
+    }
+
+    private static Map<String, Map<String, Variant>> createBlock(
+            String name, long size, String drivePath) {
+        Map<String, Variant> properties = new HashMap<>();
+        properties.put("Size", new Variant<>(new UInt64(size)));
+        // the device is a char array terminated with a 0 byte
+        properties.put("Device",
+                new Variant<>(("/dev/" + name + '\0').getBytes()));
+        properties.put("Drive", new Variant<>(new Path(drivePath)));
+        properties.put("IdUUID", new Variant<>(name + "-uuid"));
+        properties.put("IdLabel", new Variant<>(name));
+        properties.put("ReadOnly", new Variant<>(false));
+        Map<String, Map<String, Variant>> interfaces = new HashMap<>();
+        interfaces.put(PREFIX + "Block", properties);
+        return interfaces;
+    }
+
+    private static Map<String, Map<String, Variant>> createInterface(
+            String interfaceName, String propertyName, Object value) {
+        Map<String, Variant> properties = new HashMap<>();
+        properties.put(propertyName, new Variant<>(value));
+        Map<String, Map<String, Variant>> interfaces = new HashMap<>();
+        interfaces.put(PREFIX + interfaceName, properties);
+        return interfaces;
+    }
+}